@@ -30,9 +30,18 @@ package com.fine47.http;
 import android.util.Log;
 import com.fine47.http.request.AbstractRequest;
 import com.fine47.http.response.AbstractResponse;
+import com.loopj.android.http.AsyncHttpClient;
 import com.loopj.android.http.BinaryHttpResponseHandler;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Pattern;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
 
 /**
  * Base response handler for all others. This, and those, are internal classes.
@@ -47,6 +56,47 @@ abstract class AbstractResponseWrapper<E, M>
   final AbstractRequest<M> request;
   final AbstractResponse<E, M> response;
 
+  /**
+   * The client which dispatched this handler's request, set upon dispatch.
+   */
+  ActivityHttpClient client;
+
+  /**
+   * The type of this handler's request, set upon dispatch.
+   */
+  AbstractRequest.TYPE type;
+
+  /**
+   * The credentials sent with this handler's request, set upon dispatch only
+   * when the client has an authenticator.
+   */
+  Header credentials;
+
+  /**
+   * Timing events of this handler's request, set upon dispatch only when the
+   * client has event listeners.
+   */
+  RequestEvents events;
+
+  /**
+   * The race against a hedged copy of this handler's request, set upon
+   * dispatch only when the request is hedged.
+   */
+  Hedge hedge;
+
+  /**
+   * The circuit breaker which allowed this handler's request, set upon
+   * dispatch only when the client has a circuit breaker.
+   */
+  CircuitBreaker breaker;
+
+  /**
+   * The future of this handler's request, set upon dispatch.
+   */
+  RequestFuture<E> future;
+
+  private ResponseBuffer body;
+
   public AbstractResponseWrapper(
     AbstractRequest<M> request,
     AbstractResponse<E, M> response
@@ -76,8 +126,119 @@ abstract class AbstractResponseWrapper<E, M>
     this.response = response;
   }
 
+  @Override
+  public void sendResponseMessage(HttpResponse httpResponse)
+    throws IOException
+  {
+    if(Thread.currentThread().isInterrupted()) {
+      return;
+    }
+
+    // The first response of a hedged request wins the race.
+    if(null != hedge && !hedge.claim(this)) {
+      discard();
+      return;
+    }
+
+    final StatusLine status = httpResponse.getStatusLine();
+    final int statusCode = status.getStatusCode();
+    final Header[] headers = httpResponse.getAllHeaders();
+
+    // Let the rate limiter know the server asks to slow down.
+    if(429 == statusCode || 503 == statusCode) {
+      final RateLimiter limiter = client.getRateLimiter();
+      if(null != limiter) {
+        final Header retryAfter = httpResponse.getFirstHeader("Retry-After");
+        limiter.throttle(
+          request,
+          statusCode,
+          null == retryAfter ? null : retryAfter.getValue()
+        );
+      }
+    }
+
+    // Replay the request once its rejected credentials have been refreshed.
+    if(401 == statusCode && null != credentials && isReplayable()) {
+      final AuthGate auth = client.getAuthGate();
+      if(null != auth) {
+        consume(httpResponse.getEntity());
+        discard();
+        auth.reject(this);
+        return;
+      }
+    }
+
+    if(null != events) {
+      events.responseHeaders(statusCode);
+    }
+
+    if(!isAllowedContentType(httpResponse)) {
+      sendFailureMessage(
+        statusCode,
+        headers,
+        null,
+        new HttpResponseException(statusCode, "Content-Type not allowed!")
+      );
+      return;
+    }
+
+    // Receive the body into a pooled buffer, which goes back to the pool
+    // once the callbacks (running on this very thread) have returned.
+    final ResponseBuffer buffer = readBody(httpResponse.getEntity());
+    try {
+      if(!Thread.currentThread().isInterrupted()) {
+        body = buffer;
+        final byte[] bytes = null == buffer ? null : buffer.array();
+        if(300 <= statusCode) {
+          sendFailureMessage(
+            statusCode,
+            headers,
+            bytes,
+            new HttpResponseException(statusCode, status.getReasonPhrase())
+          );
+        } else {
+          sendSuccessMessage(statusCode, headers, bytes);
+        }
+      }
+    } finally {
+      body = null;
+      if(null != buffer) {
+        buffer.release();
+      }
+    }
+  }
+
+  @Override
+  public void onStart() {
+    if(null != events) {
+      events.start();
+    } else {
+      // Don't let a previous request's events linger on this pool thread.
+      RequestEvents.detach();
+    }
+  }
+
+  @Override
+  public void onRetry(int retryNo) {
+    if(null != events) {
+      events.retry();
+    }
+  }
+
   @Override
   public void onCancel() {
+    if(null != hedge) {
+      hedge.cancel(this);
+    }
+    if(null != events) {
+      events.end(true);
+    } else if(null != breaker) {
+      // Cancelled while held back, so let another request probe the host.
+      breaker.release(request.getHost());
+    }
+    if(!isSuperseded()) {
+      future.setCancelled();
+    }
     if(ActivityHttpClient.isDebugging()) {
       Log.w(
         ActivityHttpClient.LOG_TAG,
@@ -88,6 +249,10 @@ abstract class AbstractResponseWrapper<E, M>
 
   @Override
   public void onFinish() {
+    if(null != events) {
+      events.end(false);
+    }
+    RequestEvents.detach();
     if(ActivityHttpClient.isDebugging()) {
       Log.i(
         ActivityHttpClient.LOG_TAG,
@@ -102,11 +267,12 @@ abstract class AbstractResponseWrapper<E, M>
     Header[] headers,
     byte[] bytes
   ) {
+    final ResponseBuffer buffer = bufferOf(bytes);
     E value;
     if(
-      null == bytes ||
-      0 == bytes.length ||
-      null == (value = bytesToValue(bytes))
+      null == buffer ||
+      0 == buffer.length() ||
+      null == (value = bufferToValue(buffer))
     ) {
       onFailure(
         statusCode,
@@ -117,7 +283,11 @@ abstract class AbstractResponseWrapper<E, M>
         )
       );
     } else {
-      response.onSuccess(value, request);
+      try {
+        response.onSuccess(value, request);
+      } finally {
+        future.succeed(resultOf(value));
+      }
       if(ActivityHttpClient.isDebugging()) {
         Log.i(
           ActivityHttpClient.LOG_TAG,
@@ -134,11 +304,23 @@ abstract class AbstractResponseWrapper<E, M>
     byte[] bytes,
     Throwable error
   ) {
-    response.onFailure(
-      null == bytes ? null : bytesToValue(bytes),
-      request,
-      error
-    );
+    if(null != hedge && !hedge.fail(this)) {
+      discard();
+      return;
+    }
+    if(null != events) {
+      events.failed(error);
+    }
+    final ResponseBuffer buffer = bufferOf(bytes);
+    try {
+      response.onFailure(
+        null == buffer || 0 == buffer.length() ? null : bufferToValue(buffer),
+        request,
+        error
+      );
+    } finally {
+      future.fail(error);
+    }
     if(ActivityHttpClient.isDebugging()) {
       Log.e(
         ActivityHttpClient.LOG_TAG,
@@ -150,5 +332,262 @@ abstract class AbstractResponseWrapper<E, M>
     }
   }
 
-  abstract E bytesToValue(byte[] bytes);
+  /**
+   * Returns whether a hedged copy of this handler's request, or the original
+   * request, won the race against this one.
+   *
+   * @return TRUE if this handler's outcome is discarded, FALSE otherwise
+   */
+  boolean isSuperseded() {
+    return null != hedge && hedge.isSuperseded(this);
+  }
+
+  /**
+   * Returns whether this handler's request may be raced against a hedged
+   * copy of itself.
+   *
+   * @return TRUE if the request may be hedged, FALSE otherwise
+   */
+  boolean isHedgeable() {
+    return true;
+  }
+
+  /**
+   * Returns whether this handler's request may be replayed, through a copy of
+   * this handler, once its rejected credentials have been refreshed.
+   *
+   * @return TRUE if the request may be replayed, FALSE otherwise
+   */
+  boolean isReplayable() {
+    return request.isRepeatable();
+  }
+
+  /**
+   * Returns a copy of this handler to replay its request with, once its
+   * rejected credentials have been refreshed.
+   *
+   * @return copy of this handler
+   */
+  AbstractResponseWrapper<E, M> newReplay() {
+    return new ReplayResponseWrapper(this);
+  }
+
+  /**
+   * Returns the result which this handler's future completes with, once the
+   * specified value has been delivered to the response.
+   *
+   * @param value delivered to the response
+   * @return result of the future
+   */
+  E resultOf(E value) {
+    return value;
+  }
+
+  /**
+   * Checks the response's content type against the allowed content types.
+   *
+   * @param httpResponse response to check
+   * @return TRUE if the content type is allowed, FALSE otherwise
+   */
+  boolean isAllowedContentType(HttpResponse httpResponse) {
+    final Header[] contentTypes =
+      httpResponse.getHeaders(AsyncHttpClient.HEADER_CONTENT_TYPE);
+    if(1 != contentTypes.length) {
+      return false;
+    }
+    final String contentType = contentTypes[0].getValue();
+    for(final String allowedContentType : getAllowedContentTypes()) {
+      try {
+        if(Pattern.matches(allowedContentType, contentType)) {
+          return true;
+        }
+      } catch(java.util.regex.PatternSyntaxException error) {
+        if(ActivityHttpClient.isDebugging()) {
+          Log.e(
+            ActivityHttpClient.LOG_TAG,
+            "Invalid content type pattern: " + allowedContentType,
+            error
+          );
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads the specified entity into a buffer from the shared pool, pre-sized
+   * from the entity's content length when it's known.
+   *
+   * @param entity to read
+   * @return buffer holding the entity's content, NULL if there's no content
+   * @throws IOException when reading the entity fails
+   */
+  ResponseBuffer readBody(HttpEntity entity) throws IOException {
+    if(null == entity) {
+      return null;
+    }
+
+    final long contentLength = entity.getContentLength();
+    if(Integer.MAX_VALUE < contentLength) {
+      throw new IllegalArgumentException(
+        "HTTP entity is too large to be buffered in memory.");
+    }
+
+    InputStream input = entity.getContent();
+    if(null == input) {
+      return null;
+    }
+
+    // Count the bytes received from the network, before any decoding.
+    final CountingInputStream counter;
+    if(null == events) {
+      counter = null;
+    } else {
+      input = counter = new CountingInputStream(input);
+    }
+
+    // Pre-size the buffer from the content length. Decoded content is
+    // expected to be larger than the encoded one.
+    int capacity = 0 < contentLength
+      ? (int)contentLength
+      : BufferPool.DEFAULT_SIZE;
+
+    final ContentDecoder decoder = getContentDecoder(entity);
+    if(null != decoder) {
+      try {
+        input = decoder.decode(input);
+      } catch(IOException error) {
+        AsyncHttpClient.silentCloseInputStream(input);
+        throw error;
+      }
+      capacity = Math.max(
+        BufferPool.DEFAULT_SIZE,
+        Math.min(BufferPool.MAX_SIZE, capacity << 2)
+      );
+    }
+
+    final BufferPool pool = ActivityHttpClient.getBufferPool();
+    byte[] array = pool.acquire(capacity);
+    int length = 0;
+    boolean isComplete = false;
+
+    try {
+      int count;
+      while(!Thread.currentThread().isInterrupted()) {
+        if(length == array.length) {
+          // Probe for the end first, so a body which exactly fills the
+          // buffer (ex. of a known length) isn't copied into a larger one.
+          final int next = input.read();
+          if(-1 == next) {
+            break;
+          }
+          final byte[] larger = pool.acquire(array.length << 1);
+          System.arraycopy(array, 0, larger, 0, length);
+          pool.release(array);
+          array = larger;
+          array[length++] = (byte)next;
+        }
+        count = input.read(array, length, array.length - length);
+        if(-1 == count) {
+          break;
+        }
+        length += count;
+      }
+      isComplete = true;
+    } finally {
+      AsyncHttpClient.silentCloseInputStream(input);
+      if(!isComplete) {
+        pool.release(array);
+      }
+    }
+
+    if(null != counter) {
+      events.responseBodyEnd(counter.count);
+    }
+
+    return new ResponseBuffer(pool, array, length);
+  }
+
+  /**
+   * Returns the decoder for the specified entity's content coding. GZIP is
+   * decoded by the underlying HTTP client already.
+   *
+   * @param entity to decode
+   * @return content decoder, NULL if the entity needs no decoding
+   */
+  ContentDecoder getContentDecoder(HttpEntity entity) {
+    final Header encoding = entity.getContentEncoding();
+    if(null == encoding || null == client) {
+      return null;
+    }
+    final String value = encoding.getValue().trim();
+    return 0 == value.length() ||
+      AsyncHttpClient.ENCODING_GZIP.equalsIgnoreCase(value)
+      ? null
+      : client.getContentDecoder(value);
+  }
+
+  private static void consume(HttpEntity entity) {
+    // Let the connection be reused.
+    if(null != entity) {
+      try {
+        entity.consumeContent();
+      } catch(IOException ignored) {
+        // The connection will be closed.
+      }
+    }
+  }
+
+  private void discard() {
+    // Don't let the losing request skew the timings.
+    if(null != events) {
+      events.end(true);
+    }
+  }
+
+  ResponseBuffer bufferOf(byte[] bytes) {
+    if(null == bytes) {
+      return null;
+    }
+    final ResponseBuffer buffer = body;
+    return null != buffer && bytes == buffer.array()
+      ? buffer
+      : ResponseBuffer.wrap(bytes);
+  }
+
+  abstract E bufferToValue(ResponseBuffer buffer);
+
+  final static class CountingInputStream extends FilterInputStream {
+
+    long count;
+
+    CountingInputStream(InputStream input) {
+      super(input);
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int value = super.read();
+      if(-1 != value) {
+        count++;
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      final int read = super.read(buffer, offset, length);
+      if(0 < read) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long length) throws IOException {
+      final long skipped = super.skip(length);
+      count += skipped;
+      return skipped;
+    }
+  }
 }
@@ -33,20 +33,44 @@ import com.fine47.http.request.AbstractRequest;
 import com.fine47.http.response.JsonResponse;
 import com.fine47.http.response.ImageResponse;
 import android.content.Context;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
+import android.graphics.Bitmap;
 import android.provider.Settings;
 import android.util.Log;
 import com.fine47.cache.CacheInterface;
 import com.fine47.http.response.BinaryResponse;
+import com.fine47.http.response.Flow;
+import com.fine47.http.response.PooledResponse;
+import com.fine47.http.response.StreamResponse;
+import com.fine47.http.response.TypedResponse;
 import com.fine47.json.*;
 import com.loopj.android.http.*;
-import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.*;
-import javax.net.ssl.SSLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 import org.apache.http.client.CookieStore;
-import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
 
 /**
  * An {@link android.app.Activity}-based HTTP client. Use this if you'd like to
@@ -81,15 +105,51 @@ public class ActivityHttpClient extends AsyncHttpClient {
   private final HashMap<CacheInterface, DownloadManager>
     downloadManagers = new HashMap();
 
+  private final HashMap<String, JsonFanout>
+    inflightJson = new HashMap();
+
+  private final LinkedHashMap<String, ContentDecoder>
+    contentDecoders = new LinkedHashMap();
+
+  private final ConcurrentHashMap<String, Set<RequestFuture>>
+    groups = new ConcurrentHashMap();
+
+  /**
+   * Default time a pre-warmed connection may stay idle, in milliseconds.
+   */
+  public final static int DEFAULT_PRECONNECT_IDLE_TIMEOUT = 30000;
+
+  private final static BufferPool bufferPool = new BufferPool();
+
   private static boolean isDebugging;
 
   private Context ctx;
   private CookieStore store;
   private long lastCleanup;
 
-  private boolean isConnected;
-  private boolean isWifiConnected;
-  private boolean isMobileConnected;
+  private volatile String acceptEncoding = AsyncHttpClient.ENCODING_GZIP;
+  private volatile Header[] defaultHeaders = {
+    new BasicHeader(AsyncHttpClient.HEADER_ACCEPT_ENCODING, acceptEncoding)
+  };
+  private volatile RequestEventListener[] eventListeners;
+  private volatile RequestMetrics metrics;
+  private volatile TimeoutPolicy timeoutPolicy;
+  private volatile RequestBudget retryBudget;
+  private volatile HedgePolicy hedgePolicy;
+  private volatile CircuitBreaker circuitBreaker;
+  private volatile RateLimiter rateLimiter;
+  private volatile ConcurrencyLimiter concurrencyLimiter;
+  private volatile AuthGate authGate;
+  private volatile Transport transport = Transport.DEFAULT;
+  private volatile Header[] clientHeaders = new Header[0];
+  private volatile int preconnectIdleTimeout = DEFAULT_PRECONNECT_IDLE_TIMEOUT;
+  private ScheduledExecutorService scheduler;
+
+  private boolean isCoalescingJson = true;
+  private boolean isCopyingCoalescedJson;
+
+  private final ConnectivityMonitor connectivity;
+  private final DeferredQueue deferred = new DeferredQueue(this);
 
   /**
    * Returns whether debugging mode is turned on.
@@ -109,6 +169,16 @@ public class ActivityHttpClient extends AsyncHttpClient {
     isDebugging = value;
   }
 
+  /**
+   * Returns the pool of buffers which response bodies are received into. Use
+   * it to adjust the maximum number of bytes retained between requests.
+   *
+   * @return shared buffer pool
+   */
+  public static BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
   /**
    * Create a new HTTP client and attach it to the specified context.
    *
@@ -117,28 +187,64 @@ public class ActivityHttpClient extends AsyncHttpClient {
   public ActivityHttpClient(Context ctx) {
     super();
 
-    // Set up sane retry classes for a mobile device.
-    allowRetryExceptionClass(SSLException.class);
-    allowRetryExceptionClass(SocketTimeoutException.class);
-    allowRetryExceptionClass(ConnectTimeoutException.class);
-
     // Set up the same user agent string as Android's.
     setUserAgent(getDefaultUserAgent());
 
     // Set up sane values for a mobile device.
     setConnectTimeout(10000);
     setResponseTimeout(30000);
-    setMaxRetriesAndTimeout(DEFAULT_MAX_RETRIES, 250);
+
+    // Back off exponentially, and keep retries under 10% of all requests.
+    setRetryPolicy(new BackoffRetryPolicy(DEFAULT_MAX_RETRIES));
+    setRetryBudget(new RequestBudget(0.1, 10));
+
+    // Look up cookies by the request's domain rather than scanning them all.
+    ((AbstractHttpClient)getHttpClient()).addRequestInterceptor(
+      DomainCookieStore.ORIGIN,
+      0
+    );
+    setCookieStore(new DomainCookieStore());
+
+    // Run queued requests by priority, as many at a time as connections.
+    setThreadPool(new PriorityExecutor(getMaxConnections()));
+
+    // Advertise the optional decoders which are bundled with the app.
+    if(ReflectiveContentDecoder.BROTLI.isAvailable()) {
+      registerContentDecoder(ReflectiveContentDecoder.BROTLI);
+    }
+    if(ReflectiveContentDecoder.ZSTD.isAvailable()) {
+      registerContentDecoder(ReflectiveContentDecoder.ZSTD);
+    }
 
     // Keep the context.
     this.ctx = ctx;
 
-    // Initial network state; run it on a separate thread.
-    getThreadPool().execute(new Runnable() {
+    // Follow network changes as they happen, starting with the current
+    // network state; query it on a separate thread.
+    connectivity = new ConnectivityMonitor(ctx);
+    connectivity.start(getThreadPool());
+
+    // Cache host name lookups; addresses may differ from one network to
+    // another, so start over whenever the network changes.
+    setDnsResolver(
+      new CachingDnsResolver(DnsResolver.SYSTEM, getThreadPool())
+    );
+    connectivity.addListener(new ConnectivityMonitor.Listener() {
 
       @Override
-      public void run() {
-        isOnline();
+      public void onNetworkChanged(
+        NetworkState previous,
+        NetworkState current
+      ) {
+        final DnsResolver resolver = getDnsResolver();
+        if(resolver instanceof CachingDnsResolver) {
+          ((CachingDnsResolver)resolver).clear();
+        }
+
+        // Deferred requests don't need to wait for the radio on WiFi.
+        if(current.isWifi()) {
+          deferred.flush();
+        }
       }
     });
 
@@ -147,6 +253,40 @@ public class ActivityHttpClient extends AsyncHttpClient {
     }
   }
 
+  @Override
+  protected ClientConnectionManager createConnectionManager(
+    SchemeRegistry schemeRegistry,
+    BasicHttpParams httpParams
+  ) {
+    // Note that this is called from the super constructor.
+    return new ConnectionManager(httpParams, schemeRegistry);
+  }
+
+  /**
+   * Returns the connection manager which opens this client's connections.
+   *
+   * @return connection manager, NULL if a foreign one is in use
+   */
+  ConnectionManager getConnectionManager() {
+    final ClientConnectionManager manager =
+      getHttpClient().getConnectionManager();
+    return manager instanceof ConnectionManager
+      ? (ConnectionManager)manager
+      : null;
+  }
+
+  @Override
+  public void setMaxConnections(int maxConnections) {
+    super.setMaxConnections(maxConnections);
+
+    // Keep as many pool threads as connections, so queued requests wait in
+    // the pool's priority queue rather than for a connection.
+    final ExecutorService pool = getThreadPool();
+    if(pool instanceof PriorityExecutor) {
+      ((PriorityExecutor)pool).resize(getMaxConnections());
+    }
+  }
+
   /**
    * Returns the current context attached to this HTTP client.
    *
@@ -168,6 +308,13 @@ public class ActivityHttpClient extends AsyncHttpClient {
       }
       downloadManagers.clear();
     }
+    connectivity.stop();
+    synchronized(this) {
+      if(null != scheduler) {
+        scheduler.shutdownNow();
+        scheduler = null;
+      }
+    }
     ctx = null;
   }
 
@@ -209,127 +356,771 @@ public class ActivityHttpClient extends AsyncHttpClient {
   }
 
   /**
-   * Cancels all pending requests and cancel any running ones, too.
+   * Cancels all pending requests and cancel any running ones, too.
+   */
+  public void cancelRequests() {
+    cancelRequests(true);
+  }
+
+  /**
+   * Cancels all pending requests and optionally cancel any running ones, too.
+   *
+   * @param mayInterruptIfRunning TRUE to cancel running requests
+   */
+  public void cancelRequests(boolean mayInterruptIfRunning) {
+    deferred.cancel();
+    cancelRequests(ctx, mayInterruptIfRunning);
+  }
+
+  /**
+   * Sends all deferred requests right away, ex. before the application goes
+   * to the background.
+   *
+   * @see AbstractRequest#setMaxDelay(long)
+   */
+  public void flushDeferredRequests() {
+    deferred.flush();
+  }
+
+  /**
+   * Cancels all in-flight requests having the specified tag, and optionally
+   * cancel any running ones, too. Only the group's requests are visited.
+   *
+   * @param tag of the requests to cancel
+   * @param mayInterruptIfRunning TRUE to cancel running requests
+   * @return number of cancelled requests
+   * @see AbstractRequest#addTag(String)
+   */
+  public int cancelGroup(String tag, boolean mayInterruptIfRunning) {
+    final Set<RequestFuture> group = groups.remove(tag);
+    if(null == group) {
+      return 0;
+    }
+    int count = 0;
+    for(final RequestFuture future : group) {
+      if(future.cancel(mayInterruptIfRunning)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of in-flight requests having the specified tag.
+   *
+   * @param tag of the requests to count
+   * @return number of in-flight requests
+   */
+  public int getGroupSize(String tag) {
+    final Set<RequestFuture> group = groups.get(tag);
+    return null == group ? 0 : group.size();
+  }
+
+  /**
+   * Returns the currently active cookie store. Before returning it, though, a
+   * cleanup is made to the cookie store to remove expired cookies (once every
+   * 5 minutes). Unless replaced, the store is an in-memory
+   * {@link DomainCookieStore}.
+   *
+   * @return active cookie store
+   */
+  public CookieStore getCookieStore() {
+    long now = System.currentTimeMillis();
+
+    // Clean the cookie store every 5 minutes.
+    if(null != store && now - lastCleanup > 300000) {
+      store.clearExpired(new Date(now));
+      lastCleanup = now;
+    }
+
+    return store;
+  }
+
+  @Override
+  public void setCookieStore(CookieStore store) {
+    super.setCookieStore(store);
+    this.store = store;
+  }
+
+  /**
+   * Returns the monitor which tracks the network state of the system.
+   *
+   * @return connectivity monitor
+   */
+  public ConnectivityMonitor getConnectivityMonitor() {
+    return connectivity;
+  }
+
+  /**
+   * Returns the current network state of the system.
+   *
+   * @return current network state
+   */
+  public NetworkState getNetworkState() {
+    return connectivity.getState();
+  }
+
+  /**
+   * Checks whether the system is online (connected, or connecting, to a
+   * network) or not.
+   *
+   * @return TRUE if the system is online, FALSE otherwise
+   */
+  public boolean isOnline() {
+    return connectivity.getState().isConnected();
+  }
+
+  /**
+   * Returns whether the system is connected to a WiFi network.
+   *
+   * @return TRUE if system is connected to a WiFi network, FALSE otherwise
+   */
+  public boolean isWifi() {
+    return connectivity.getState().isWifi();
+  }
+
+  /**
+   * Returns whether the system is connected to a mobile network (GPRS, ex.)
+   *
+   * @return TRUE if system is connected to a mobile network, FALSE otherwise
+   */
+  public boolean isMobile() {
+    return connectivity.getState().isMobile();
+  }
+
+  /**
+   * Checks whether the system is in "airplane mode".
+   *
+   * @return TRUE if system is in airplane mode, FALSE otherwise
+   */
+  @SuppressWarnings("deprecation")
+  public boolean isAirplaneMode() {
+    String airplaneMode = 17 <= android.os.Build.VERSION.SDK_INT
+        ? Settings.Global.AIRPLANE_MODE_ON
+        : Settings.System.AIRPLANE_MODE_ON;
+    return 0 != Settings.System.getInt(
+      getContext()
+        .getApplicationContext()
+        .getContentResolver(),
+      airplaneMode,
+      0);
+  }
+
+  /**
+   * Returns whether identical JSON GET requests which are in flight at the
+   * same time are coalesced into one network request.
+   *
+   * @return TRUE if coalescing is on, FALSE otherwise
+   */
+  public boolean isCoalescingJson() {
+    return isCoalescingJson;
+  }
+
+  /**
+   * Sets whether identical JSON GET requests (same URL, parameters and
+   * headers) which are in flight at the same time should be coalesced into
+   * one network request. The response body is then parsed only once and the
+   * result is delivered to every live subscriber. Coalescing is on by default.
+   *
+   * @param value TRUE to coalesce identical JSON GET requests
+   */
+  public void setCoalescingJson(boolean value) {
+    isCoalescingJson = value;
+  }
+
+  /**
+   * Returns whether subscribers of a coalesced JSON request receive their own
+   * copy of the parsed result.
+   *
+   * @return TRUE if each subscriber receives its own copy, FALSE otherwise
+   */
+  public boolean isCopyingCoalescedJson() {
+    return isCopyingCoalescedJson;
+  }
+
+  /**
+   * Sets whether subscribers of a coalesced JSON request should receive their
+   * own copy of the parsed result. Turn this on if response handlers mutate
+   * the JSON entity they receive; each extra subscriber will then cost one
+   * extra parse of the response body.
+   *
+   * @param value TRUE to give each subscriber its own copy
+   */
+  public void setCopyingCoalescedJson(boolean value) {
+    isCopyingCoalescedJson = value;
+  }
+
+  /**
+   * Registers the specified content decoder with this client. Its content
+   * coding will be advertised in the "Accept-Encoding" header of requests,
+   * ahead of GZIP, and responses using it will be decoded while received.
+   *
+   * @param decoder content decoder to register
+   */
+  public void registerContentDecoder(ContentDecoder decoder) {
+    final String encoding = decoder.getEncoding().toLowerCase(Locale.US);
+    if(AsyncHttpClient.ENCODING_GZIP.equals(encoding)) {
+      throw new IllegalArgumentException(
+        "GZIP is always supported and cannot be replaced.");
+    }
+    synchronized(contentDecoders) {
+      contentDecoders.put(encoding, decoder);
+      updateAcceptEncoding();
+    }
+  }
+
+  /**
+   * Unregisters the content decoder for the specified content coding.
+   *
+   * @param encoding content coding token
+   */
+  public void unregisterContentDecoder(String encoding) {
+    synchronized(contentDecoders) {
+      contentDecoders.remove(encoding.toLowerCase(Locale.US));
+      updateAcceptEncoding();
+    }
+  }
+
+  /**
+   * Returns the content decoder registered for the specified content coding.
+   *
+   * @param encoding content coding token
+   * @return content decoder, NULL if none is registered
+   */
+  public ContentDecoder getContentDecoder(String encoding) {
+    synchronized(contentDecoders) {
+      return contentDecoders.isEmpty()
+        ? null
+        : contentDecoders.get(encoding.toLowerCase(Locale.US));
+    }
+  }
+
+  /**
+   * Returns the value of the "Accept-Encoding" header which is sent with
+   * requests that don't specify their own.
+   *
+   * @return default accepted content codings
+   */
+  public String getAcceptEncoding() {
+    return acceptEncoding;
+  }
+
+  private void updateAcceptEncoding() {
+    final StringBuilder value = new StringBuilder();
+    for(final String encoding : contentDecoders.keySet()) {
+      value.append(encoding).append(", ");
+    }
+    final String encoding =
+      value.append(AsyncHttpClient.ENCODING_GZIP).toString();
+    defaultHeaders = new Header[] {
+      new BasicHeader(AsyncHttpClient.HEADER_ACCEPT_ENCODING, encoding)
+    };
+    acceptEncoding = encoding;
+  }
+
+  /**
+   * Registers the specified listener to receive the timing events of every
+   * request dispatched from now on. As long as no listener is registered,
+   * requests are not timed at all.
+   *
+   * @param listener to register
+   */
+  public synchronized void addEventListener(RequestEventListener listener) {
+    final RequestEventListener[] current = eventListeners;
+    final int count = null == current ? 0 : current.length;
+    final RequestEventListener[] listeners =
+      new RequestEventListener[count + 1];
+    if(0 < count) {
+      System.arraycopy(current, 0, listeners, 0, count);
+    }
+    listeners[count] = listener;
+    eventListeners = listeners;
+  }
+
+  /**
+   * Unregisters the specified listener. Requests which are already in flight
+   * will keep reporting to it until they end.
+   *
+   * @param listener to unregister
+   */
+  public synchronized void removeEventListener(RequestEventListener listener) {
+    final RequestEventListener[] current = eventListeners;
+    if(null == current) {
+      return;
+    }
+    final ArrayList<RequestEventListener> listeners =
+      new ArrayList(Arrays.asList(current));
+    if(listeners.remove(listener)) {
+      eventListeners = listeners.isEmpty()
+        ? null
+        : listeners.toArray(new RequestEventListener[listeners.size()]);
+    }
+  }
+
+  /**
+   * Returns the latency metrics which this client maintains, if enabled.
+   *
+   * @return request metrics, NULL if metrics are disabled
+   * @see #setMetricsEnabled(boolean)
+   */
+  public RequestMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Sets whether this client maintains latency metrics per host and per
+   * endpoint. Metrics are disabled by default; when enabled, they are
+   * collected through a {@link RequestEventListener}, so every request is
+   * timed.
+   *
+   * @param value TRUE to enable metrics, FALSE to disable and drop them
+   */
+  public synchronized void setMetricsEnabled(boolean value) {
+    if(value && null == metrics) {
+      metrics = new RequestMetrics();
+      addEventListener(metrics);
+    } else if(!value && null != metrics) {
+      removeEventListener(metrics);
+      metrics = null;
+    }
+  }
+
+  /**
+   * Returns the policy which derives timeouts from observed round-trip times.
+   *
+   * @return timeout policy, NULL if static timeouts are used
+   */
+  public TimeoutPolicy getTimeoutPolicy() {
+    return timeoutPolicy;
+  }
+
+  /**
+   * Sets the policy which derives connect and read timeouts from round-trip
+   * times observed per host, endpoint and network type. Those which haven't
+   * been sampled yet use the static timeouts of this client. The policy is
+   * registered as a {@link RequestEventListener}, so every request is timed.
+   *
+   * @param policy timeout policy, NULL to use static timeouts only
+   */
+  public synchronized void setTimeoutPolicy(TimeoutPolicy policy) {
+    if(null != timeoutPolicy) {
+      removeEventListener(timeoutPolicy);
+    }
+    if(null != policy) {
+      policy.attach(this);
+      addEventListener(policy);
+    }
+    timeoutPolicy = policy;
+  }
+
+  /**
+   * Returns the policy which decides whether failed requests are retried.
+   *
+   * @return retry policy, NULL if a different retry handler is installed
+   */
+  public RetryPolicy getRetryPolicy() {
+    final HttpRequestRetryHandler handler =
+      ((AbstractHttpClient)getHttpClient()).getHttpRequestRetryHandler();
+    return handler instanceof PolicyRetryHandler
+      ? ((PolicyRetryHandler)handler).policy
+      : null;
+  }
+
+  /**
+   * Sets the policy which decides whether, and after how long, failed
+   * requests are retried. This replaces the fixed retry delay set by
+   * {@link #setMaxRetriesAndTimeout(int, int)}, and vice versa.
+   *
+   * The policy alone decides which errors are retried: the exception classes
+   * set through {@link #allowRetryExceptionClass(Class)} and
+   * {@link #blockRetryExceptionClass(Class)} only apply to the fixed retry
+   * delay, and are ignored by policies.
+   *
+   * @param policy retry policy
+   */
+  public void setRetryPolicy(RetryPolicy policy) {
+    if(null == policy) {
+      throw new IllegalArgumentException("Retry policy cannot be NULL.");
+    }
+    ((AbstractHttpClient)getHttpClient()).setHttpRequestRetryHandler(
+      new PolicyRetryHandler(this, policy)
+    );
+  }
+
+  /**
+   * Returns the client-wide budget which retries are subject to.
+   *
+   * @return retry budget, NULL if retries are unlimited
+   */
+  public RequestBudget getRetryBudget() {
+    return retryBudget;
+  }
+
+  /**
+   * Sets the client-wide budget which retries of the {@link RetryPolicy} are
+   * subject to, so that retries cannot multiply the load on a degraded
+   * server.
+   *
+   * @param budget retry budget, NULL to leave retries unlimited
+   */
+  public void setRetryBudget(RequestBudget budget) {
+    retryBudget = budget;
+  }
+
+  /**
+   * Returns the policy which decides when HEAD and GET requests are hedged.
+   *
+   * @return hedge policy, NULL if requests aren't hedged
+   */
+  public HedgePolicy getHedgePolicy() {
+    return hedgePolicy;
+  }
+
+  /**
+   * Sets the policy which decides when HEAD and GET requests are hedged. A
+   * hedged request, for which no response arrived within a percentile of
+   * the recent latency of its host, is sent once more; the first response
+   * wins and the other request is cancelled. The policy is registered as a
+   * {@link RequestEventListener}, so every request is timed.
+   *
+   * @param policy hedge policy, NULL to stop hedging requests
+   */
+  public synchronized void setHedgePolicy(HedgePolicy policy) {
+    if(null != hedgePolicy) {
+      removeEventListener(hedgePolicy);
+    }
+    if(null != policy) {
+      addEventListener(policy);
+    }
+    hedgePolicy = policy;
+  }
+
+  /**
+   * Returns the engine which carries out requests over the network.
+   *
+   * @return current transport
+   */
+  public Transport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Sets the engine which carries out requests over the network, for
+   * example an {@link OkHttpTransport} to multiplex requests over HTTP/2.
+   * Requests which are already running keep their transport.
+   *
+   * @param transport new transport, {@link Transport#DEFAULT} for the
+   * Apache HTTP client
+   */
+  public void setTransport(Transport transport) {
+    if(null == transport) {
+      throw new IllegalArgumentException("Transport cannot be NULL.");
+    }
+    this.transport = transport;
+  }
+
+  @Override
+  public synchronized void addHeader(String header, String value) {
+    super.addHeader(header, value);
+    final ArrayList<Header> headers = new ArrayList(clientHeaders.length + 1);
+    for(final Header current : clientHeaders) {
+      if(!header.equalsIgnoreCase(current.getName())) {
+        headers.add(current);
+      }
+    }
+    headers.add(new BasicHeader(header, value));
+    clientHeaders = headers.toArray(new Header[headers.size()]);
+  }
+
+  @Override
+  public synchronized void removeHeader(String header) {
+    super.removeHeader(header);
+    final ArrayList<Header> headers = new ArrayList(clientHeaders.length);
+    for(final Header current : clientHeaders) {
+      if(!header.equalsIgnoreCase(current.getName())) {
+        headers.add(current);
+      }
+    }
+    clientHeaders = headers.toArray(new Header[headers.size()]);
+  }
+
+  @Override
+  public synchronized void removeAllHeaders() {
+    super.removeAllHeaders();
+    clientHeaders = new Header[0];
+  }
+
+  /**
+   * Returns the headers which are sent with every request, as added through
+   * {@link #addHeader(String, String)}, for transports which don't go through
+   * the Apache client. The list is shared, so it must not be modified.
+   *
+   * @return list of client-wide headers
+   */
+  Header[] getClientHeaders() {
+    return clientHeaders;
+  }
+
+  /**
+   * Returns the resolver which resolves host names of new connections.
+   *
+   * @return DNS resolver, NULL if a foreign connection manager is in use
+   */
+  public DnsResolver getDnsResolver() {
+    final ConnectionManager manager = getConnectionManager();
+    return null == manager ? null : manager.getOperator().getResolver();
+  }
+
+  /**
+   * Sets the resolver which resolves host names of new connections. By
+   * default, a {@link CachingDnsResolver} on top of the system's resolver is
+   * used. Resolution time is reported to {@link RequestEventListener}s and
+   * published by {@link RequestMetrics}.
+   *
+   * @param resolver DNS resolver
+   */
+  public void setDnsResolver(DnsResolver resolver) {
+    if(null == resolver) {
+      throw new IllegalArgumentException("DNS resolver cannot be NULL.");
+    }
+    final ConnectionManager manager = getConnectionManager();
+    if(null != manager) {
+      manager.getOperator().setResolver(resolver);
+    }
+  }
+
+  /**
+   * Returns how long a pre-warmed connection may stay idle in the pool.
+   *
+   * @return idle timeout in milliseconds
+   * @see #preconnect(String)
+   */
+  public int getPreconnectIdleTimeout() {
+    return preconnectIdleTimeout;
+  }
+
+  /**
+   * Sets how long a pre-warmed connection may stay idle in the pool before
+   * it's closed.
+   *
+   * @param timeout idle timeout in milliseconds
+   * @see #preconnect(String)
+   */
+  public void setPreconnectIdleTimeout(int timeout) {
+    if(0 >= timeout) {
+      throw new IllegalArgumentException("Timeout must be positive.");
+    }
+    preconnectIdleTimeout = timeout;
+  }
+
+  /**
+   * Pre-warms a connection to the specified host in the background: the host
+   * name is resolved, a TCP connection is made and, for secure schemes, the
+   * TLS handshake is done. The connection is then parked in the pool, so the
+   * next request to the host can reuse it, until it has been idle for
+   * {@link #getPreconnectIdleTimeout()}. Proxies aren't taken into account.
+   *
+   * @param host URL of the host, ex. "https://api.example.com" or
+   * "http://example.com:8080"; a bare host name implies HTTPS
+   */
+  public void preconnect(String host) {
+    final int separator = host.indexOf("://");
+    final String scheme = -1 == separator
+      ? "https"
+      : host.substring(0, separator).toLowerCase(Locale.US);
+    final String name = AbstractRequest.getHost(host);
+
+    // Routes of requests which don't specify a port have none, either.
+    int port = -1;
+    final int start = -1 == separator ? 0 : separator + 3;
+    int end = host.indexOf('/', start);
+    if(-1 == end) {
+      end = host.length();
+    }
+    final int colon = host.lastIndexOf(':', end - 1);
+    if(start <= colon && ']' != host.charAt(end - 1)) {
+      try {
+        port = Integer.parseInt(host.substring(colon + 1, end));
+      } catch(NumberFormatException error) {
+        throw new IllegalArgumentException("Invalid port: " + host);
+      }
+    }
+
+    final ConnectionManager manager = getConnectionManager();
+    if(null == manager || 0 == name.length()) {
+      return;
+    }
+    final boolean isSecure =
+      manager.getSchemeRegistry().getScheme(scheme).isLayered();
+    final HttpRoute route = new HttpRoute(
+      new HttpHost(name, port, scheme),
+      null,
+      isSecure
+    );
+
+    getThreadPool().execute(new Runnable() {
+
+      @Override
+      public void run() {
+        final int idleTimeout = preconnectIdleTimeout;
+        try {
+          manager.preconnect(
+            route,
+            getHttpClient().getParams(),
+            idleTimeout
+          );
+          if(isDebugging()) {
+            Log.d(LOG_TAG, "Pre-warmed connection: " + route);
+          }
+        } catch(Exception error) {
+          if(isDebugging()) {
+            Log.e(LOG_TAG, "Cannot pre-warm connection: " + route, error);
+          }
+          return;
+        }
+
+        // Close the connection once it expires, if no request used it.
+        try {
+          getScheduler().schedule(
+            new Runnable() {
+
+              @Override
+              public void run() {
+                manager.closeExpiredConnections();
+              }
+            },
+            idleTimeout,
+            TimeUnit.MILLISECONDS
+          );
+        } catch(RejectedExecutionException ignored) {
+          // The client is shutting down.
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the rate limiter which holds back requests to limited hosts.
+   *
+   * @return rate limiter, NULL if requests are never held back
+   */
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /**
+   * Sets the rate limiter which holds back requests to limited hosts. Held
+   * back requests are sent once their turn comes; their futures can be
+   * cancelled meanwhile.
+   *
+   * @param limiter rate limiter, NULL to never hold back requests
    */
-  public void cancelRequests() {
-    cancelRequests(true);
+  public void setRateLimiter(RateLimiter limiter) {
+    rateLimiter = limiter;
   }
 
   /**
-   * Cancels all pending requests and optionally cancel any running ones, too.
+   * Returns the concurrency limiter which bounds in-flight requests per host.
    *
-   * @param mayInterruptIfRunning TRUE to cancel running requests
+   * @return concurrency limiter, NULL if in-flight requests aren't bounded
    */
-  public void cancelRequests(boolean mayInterruptIfRunning) {
-    cancelRequests(ctx, mayInterruptIfRunning);
+  public ConcurrencyLimiter getConcurrencyLimiter() {
+    return concurrencyLimiter;
   }
 
   /**
-   * Returns the currently active cookie store. Before returning it, though, a
-   * cleanup is made to the cookie store to remove expired cookies (once every
-   * 5 minutes).
+   * Sets the concurrency limiter which bounds in-flight requests per host.
+   * The limiter is registered as a {@link RequestEventListener}, so every
+   * request is timed.
    *
-   * @return active cookie store
+   * @param limiter concurrency limiter, NULL to not bound in-flight requests
    */
-  public CookieStore getCookieStore() {
-    long now = System.currentTimeMillis();
-
-    // Clean the cookie store every 5 minutes.
-    if(now > lastCleanup * 300000) {
-      store.clearExpired(new Date(now));
-      lastCleanup = now;
+  public synchronized void setConcurrencyLimiter(ConcurrencyLimiter limiter) {
+    if(null != concurrencyLimiter) {
+      removeEventListener(concurrencyLimiter);
     }
-
-    return store;
+    if(null != limiter) {
+      addEventListener(limiter);
+    }
+    concurrencyLimiter = limiter;
   }
 
-  @Override
-  public void setCookieStore(CookieStore store) {
-    super.setCookieStore(store);
-    this.store = store;
+  /**
+   * Returns the authenticator which supplies the credentials of requests.
+   *
+   * @return authenticator, NULL if requests aren't authenticated
+   */
+  public Authenticator getAuthenticator() {
+    final AuthGate gate = authGate;
+    return null == gate ? null : gate.authenticator;
   }
 
   /**
-   * Checks whether the system is online (connected to a network) or not.
+   * Sets the authenticator which supplies the credentials of requests.
+   * Requests whose credentials are rejected with "401 Unauthorized" share a
+   * single refresh of the credentials, and are replayed once it's done; their
+   * futures can be cancelled meanwhile.
    *
-   * @return TRUE if the system is online, FALSE otherwise
+   * @param authenticator authenticator, NULL to not authenticate requests
    */
-  public boolean isOnline() {
-    try {
-      ConnectivityManager cm = (ConnectivityManager)getContext()
-        .getApplicationContext()
-        .getSystemService(
-        Context.CONNECTIVITY_SERVICE);
-
-      NetworkInfo netInfo = cm.getActiveNetworkInfo();
-      if(null != netInfo) {
-        // Check for availability and if it's really connected.
-        isConnected =
-          netInfo.isAvailable() &&
-          netInfo.isConnectedOrConnecting();
-
-        // Get available networks' info.
-        NetworkInfo[] netsInfo = cm.getAllNetworkInfo();
-
-        // What kind of networks are available.
-        for(NetworkInfo ni : netsInfo) {
-          if(ni.isConnected()) {
-            String niType = ni.getTypeName();
-            if("WIFI".equalsIgnoreCase(niType)) {
-              isWifiConnected = true;
-            } else if("MOBILE".equalsIgnoreCase(niType)) {
-              isMobileConnected = true;
-            }
-          }
-        }
-      } else {
-        isConnected = false;
-      }
-
-      return isConnected;
-    } catch(Throwable error) {
-      if(isDebugging()) {
-        Log.e(LOG_TAG, "Error while detecting network status.", error);
-      }
-    }
+  public void setAuthenticator(Authenticator authenticator) {
+    authGate = null == authenticator
+      ? null
+      : new AuthGate(this, authenticator);
+  }
 
-    return isConnected;
+  AuthGate getAuthGate() {
+    return authGate;
   }
 
   /**
-   * Returns whether the system is connected to a WiFi network.
+   * Returns the circuit breaker which stops requests to failing hosts.
    *
-   * @return TRUE if system is connected to a WiFi network, FALSE otherwise
+   * @return circuit breaker, NULL if requests are always sent
    */
-  public boolean isWifi() {
-    return isWifiConnected;
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
   }
 
   /**
-   * Returns whether the system is connected to a mobile network (GPRS, ex.)
+   * Sets the circuit breaker which stops requests to failing hosts. Requests
+   * to a host whose circuit is open fail fast with a
+   * {@link CircuitOpenException}. The circuit breaker is registered as a
+   * {@link RequestEventListener}, so every request is timed.
    *
-   * @return TRUE if system is connected to a mobile network, FALSE otherwise
+   * @param breaker circuit breaker, NULL to always send requests
    */
-  public boolean isMobile() {
-    return isMobileConnected;
+  public synchronized void setCircuitBreaker(CircuitBreaker breaker) {
+    if(null != circuitBreaker) {
+      removeEventListener(circuitBreaker);
+    }
+    if(null != breaker) {
+      addEventListener(breaker);
+    }
+    circuitBreaker = breaker;
   }
 
   /**
-   * Checks whether the system is in "airplane mode".
+   * Returns the scheduler which runs this client's delayed tasks, creating
+   * it as needed.
    *
-   * @return TRUE if system is in airplane mode, FALSE otherwise
+   * @return shared scheduler
    */
-  @SuppressWarnings("deprecation")
-  public boolean isAirplaneMode() {
-    String airplaneMode = 17 <= android.os.Build.VERSION.SDK_INT
-        ? Settings.Global.AIRPLANE_MODE_ON
-        : Settings.System.AIRPLANE_MODE_ON;
-    return 0 != Settings.System.getInt(
-      getContext()
-        .getApplicationContext()
-        .getContentResolver(),
-      airplaneMode,
-      0);
+  synchronized ScheduledExecutorService getScheduler() {
+    if(null == scheduler) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, LOG_TAG + "-scheduler");
+            thread.setDaemon(true);
+            return thread;
+          }
+        }
+      );
+    }
+    return scheduler;
   }
 
   /**
@@ -366,16 +1157,88 @@ public class ActivityHttpClient extends AsyncHttpClient {
    * @param type type of request to dispatch
    * @param request JSON request to dispatch
    * @param response JSON handler to handle the result
+   * @return future of the dispatched request
    */
-  public <T extends JsonInterface, M>void dispatch(
+  public <T extends JsonInterface, M>RequestFuture<T> dispatch(
     AbstractRequest.TYPE type,
     JsonRequest<M> request,
     JsonResponse<T, M> response
   ) {
-    dispatch(
+    if(AbstractRequest.TYPE.GET != type || !isCoalescingJson) {
+      return submit(
+        type,
+        request,
+        new JsonResponseWrapper(request, response)
+      );
+    }
+
+    // Join an identical request which is already in flight, if any, and
+    // parsed the same way. Each subscriber gets its own future, tied to the
+    // shared request's one.
+    final String key =
+      request.getFingerprint() + '\n' + getParserName(response);
+    final FutureJsonResponse<T, M> subscriber =
+      new FutureJsonResponse(response, request.getPriority());
+    final JsonFanout<T, M> fanout;
+    synchronized(inflightJson) {
+      final JsonFanout<T, M> current = inflightJson.get(key);
+      if(null != current && current.subscribe(request, subscriber)) {
+        if(isDebugging()) {
+          Log.d(LOG_TAG, "Coalesced with in-flight request: " + request.url);
+        }
+        current.attach(subscriber);
+        return track(request, subscriber.future);
+      }
+      fanout = new JsonFanout(
+        inflightJson,
+        key,
+        new RequestFuture(request.getPriority()),
+        isCopyingCoalescedJson
+      );
+      fanout.subscribe(request, subscriber);
+      inflightJson.put(key, fanout);
+    }
+    fanout.attach(subscriber);
+
+    final AbstractResponseWrapper<T, M> handler =
+      new JsonResponseWrapper(request, fanout) {
+
+        @Override
+        public void onCancel() {
+          super.onCancel();
+          if(!isSuperseded()) {
+            fanout.close();
+          }
+        }
+      };
+    handler.future = fanout.future;
+    track(request, subscriber.future);
+    dispatch(type, request, handler);
+    return subscriber.future;
+  }
+
+  /**
+   * Dispatches the specified request to the HTTP client and use the specified
+   * typed response instance to handle the result or any errors. The JSON
+   * response is bound directly into model objects using a cached
+   * {@link JsonBinder}, without building a JSON tree first.
+   *
+   * @param <E> type of model object which will be received
+   * @param <M> meta-data type which could be accompanying this request
+   * @param type type of request to dispatch
+   * @param request request to dispatch
+   * @param response typed handler to handle the result
+   * @return future of the dispatched request
+   */
+  public <E, M>RequestFuture<E> dispatch(
+    AbstractRequest.TYPE type,
+    AbstractRequest<M> request,
+    TypedResponse<E, M> response
+  ) {
+    return submit(
       type,
       request,
-      new JsonResponseWrapper(request, response)
+      new TypedResponseWrapper(request, response)
     );
   }
 
@@ -387,13 +1250,14 @@ public class ActivityHttpClient extends AsyncHttpClient {
    * @param type type of request to dispatch
    * @param request image request to dispatch
    * @param response image handler to handle the result
+   * @return future of the dispatched request
    */
-  public <M>void dispatch(
+  public <M>RequestFuture<Bitmap> dispatch(
     AbstractRequest.TYPE type,
     ImageRequest<M> request,
     ImageResponse<M> response
   ) {
-    dispatch(
+    return submit(
       type,
       request,
       new ImageResponseWrapper(request, response)
@@ -408,19 +1272,145 @@ public class ActivityHttpClient extends AsyncHttpClient {
    * @param type type of request to dispatch
    * @param request abstract request to dispatch
    * @param response binary handler to handle the result
+   * @return future of the dispatched request
    */
-  public <M>void dispatch(
+  public <M>RequestFuture<byte[]> dispatch(
     AbstractRequest.TYPE type,
     AbstractRequest<M> request,
     BinaryResponse<M> response
   ) {
-    dispatch(
+    return submit(
+      type,
+      request,
+      new BinaryResponseWrapper(request, response)
+    );
+  }
+
+  /**
+   * Dispatches the specified abstract request to the HTTP client and use the
+   * specified pooled response instance to handle the result or any errors.
+   * The response body is handed over in a pooled buffer which is reclaimed
+   * once the handler returns.
+   *
+   * @param <M> meta-data type which could be accompanying this request
+   * @param type type of request to dispatch
+   * @param request abstract request to dispatch
+   * @param response pooled handler to handle the result
+   * @return future of the dispatched request
+   */
+  public <M>RequestFuture<ResponseBuffer> dispatch(
+    AbstractRequest.TYPE type,
+    AbstractRequest<M> request,
+    PooledResponse<M> response
+  ) {
+    return submit(
+      type,
+      request,
+      new PooledResponseWrapper(request, response)
+    );
+  }
+
+  /**
+   * Dispatches the specified abstract request to the HTTP client and use the
+   * specified stream response instance to handle the result or any errors.
+   * The response body is streamed to the response's subscriber as fast as it
+   * asks for it, and the future completes once it has been streamed.
+   *
+   * @param <M> meta-data type which could be accompanying this request
+   * @param type type of request to dispatch
+   * @param request abstract request to dispatch
+   * @param response stream handler to handle the result
+   * @return future of the dispatched request
+   */
+  public <M>RequestFuture<Flow.Publisher<ByteBuffer>> dispatch(
+    AbstractRequest.TYPE type,
+    AbstractRequest<M> request,
+    StreamResponse<M> response
+  ) {
+    return submit(
       type,
       request,
-      (new BinaryResponseWrapper(request, response))
+      new StreamResponseWrapper(request, response)
     );
   }
 
+  private <E, M>RequestFuture<E> submit(
+    AbstractRequest.TYPE type,
+    AbstractRequest<M> request,
+    AbstractResponseWrapper<E, M> handler
+  ) {
+    dispatch(type, request, handler);
+    return handler.future;
+  }
+
+  private <E>RequestFuture<E> track(
+    AbstractRequest request,
+    RequestFuture<E> future
+  ) {
+    final String[] tags = request.getTags();
+    if(null == tags) {
+      return future;
+    }
+
+    // Index the future by each of its tags until it completes.
+    for(final String tag : tags) {
+      join(tag, future);
+    }
+    future.addListener(new RequestFuture.Listener<E>() {
+
+      @Override
+      public void onComplete(RequestFuture<E> completed) {
+        for(final String tag : tags) {
+          final Set<RequestFuture> group = groups.get(tag);
+          if(
+            null != group &&
+            group.remove(completed) &&
+            group.isEmpty() &&
+            groups.remove(tag, group)
+          ) {
+            // Requests which joined the group meanwhile need a new one.
+            for(final RequestFuture pending : group) {
+              join(tag, pending);
+            }
+          }
+        }
+      }
+    });
+    return future;
+  }
+
+  private void join(String tag, RequestFuture future) {
+    while(true) {
+      Set<RequestFuture> group = groups.get(tag);
+      if(null == group) {
+        final Set<RequestFuture> created =
+          Collections.newSetFromMap(new ConcurrentHashMap());
+        group = groups.putIfAbsent(tag, created);
+        if(null == group) {
+          group = created;
+        }
+      }
+      group.add(future);
+
+      // Try again if the group was emptied and dropped meanwhile.
+      if(group == groups.get(tag)) {
+        if(future.isDone()) {
+          group.remove(future);
+        }
+        break;
+      }
+      group.remove(future);
+    }
+  }
+
+  private static String getParserName(JsonResponse response) {
+    // Pages are parsed by their pager's consumer.
+    if(response instanceof JsonPager.PageResponse) {
+      response = ((JsonPager.PageResponse)response).getConsumer();
+    }
+    return response.getClass().getName();
+  }
+
   /**
    * Dispatches the specified generic request to the HTTP client and use the
    * specified generic response instance to handle the result or any errors.
@@ -430,40 +1420,315 @@ public class ActivityHttpClient extends AsyncHttpClient {
    * @param type type of request to dispatch
    * @param request generic request to dispatch
    * @param handler generic handler to handle the result
+   * @return handle of the dispatched request, NULL if it failed fast
    */
-  <E, M>void dispatch(
-    AbstractRequest.TYPE type,
-    AbstractRequest<M> request,
-    AbstractResponseWrapper<E, M> handler
+  <E, M>RequestHandle dispatch(
+    final AbstractRequest.TYPE type,
+    final AbstractRequest<M> request,
+    final AbstractResponseWrapper<E, M> handler
   ) {
     if(isDebugging()) {
       Log.d(LOG_TAG, "Dispatching: " + request.url);
     }
+    handler.client = this;
+    handler.type = type;
+    if(null == handler.future) {
+      handler.future = track(
+        request,
+        new RequestFuture(request.getPriority())
+      );
+    }
+    final boolean isFirst = handler.future.setHandler(handler);
+
+    // Hold back deferrable requests on mobile networks, so they are sent
+    // along with the next request which wakes up the radio anyway. Hedged
+    // and replayed copies share the future of a handler which went first,
+    // and are never held back.
+    final long maxDelay = request.getMaxDelay();
+    if(
+      isFirst &&
+      0 < maxDelay &&
+      !isWifi() &&
+      deferred.defer(handler, maxDelay)
+    ) {
+      return null;
+    }
+
+    // Only a request which was actually sent wakes up the radio.
+    final RequestHandle handle = forward(type, request, handler);
+    if(null != handle) {
+      deferred.flush();
+    }
+    return handle;
+  }
+
+  /**
+   * Dispatches the specified request which has been deferred, or was never
+   * deferred at all.
+   *
+   * @param <E> type of resources which is expected from the request
+   * @param <M> meta-data type which could be accompanying this request
+   * @param type type of request to dispatch
+   * @param request generic request to dispatch
+   * @param handler generic handler to handle the result
+   * @return handle of the dispatched request, NULL if it failed fast or was
+   * held back
+   */
+  <E, M>RequestHandle forward(
+    final AbstractRequest.TYPE type,
+    final AbstractRequest<M> request,
+    final AbstractResponseWrapper<E, M> handler
+  ) {
+    // Fail fast, on a pool thread like other callbacks, if the host's
+    // circuit is open.
+    final CircuitBreaker breaker = circuitBreaker;
+    if(null != breaker && !breaker.allowRequest(request.getHost())) {
+      final String host = request.getHost();
+      getThreadPool().execute(new Runnable() {
+
+        @Override
+        public void run() {
+          handler.onFailure(0, null, null, new CircuitOpenException(host));
+        }
+      });
+      return null;
+    }
+
+    // Should the request be cancelled while held back, the probe it may have
+    // claimed is given back.
+    handler.breaker = breaker;
+
+    // Hold the request back while its credentials are being refreshed.
+    final AuthGate auth = authGate;
+    if(null != auth && auth.hold(handler)) {
+      return null;
+    }
+
+    return proceed(type, request, handler);
+  }
+
+  /**
+   * Dispatches the specified request which has been held back while its
+   * credentials were being refreshed, or was never held back at all.
+   *
+   * @param <E> type of resources which is expected from the request
+   * @param <M> meta-data type which could be accompanying this request
+   * @param type type of request to dispatch
+   * @param request generic request to dispatch
+   * @param handler generic handler to handle the result
+   * @return handle of the dispatched request, NULL if it was held back
+   */
+  <E, M>RequestHandle proceed(
+    final AbstractRequest.TYPE type,
+    final AbstractRequest<M> request,
+    final AbstractResponseWrapper<E, M> handler
+  ) {
+    // Hold the request back if its host is over its rate limit.
+    final RateLimiter limiter = rateLimiter;
+    final long delay = null == limiter ? 0 : limiter.reserve(request);
+    if(0 < delay) {
+      if(isDebugging()) {
+        Log.d(LOG_TAG, "Rate limited for " + delay + "ms: " + request.url);
+      }
+      try {
+        getScheduler().schedule(
+          new Runnable() {
+
+            @Override
+            public void run() {
+              if(!handler.future.isDone()) {
+                admit(type, request, handler);
+              }
+            }
+          },
+          delay,
+          TimeUnit.MILLISECONDS
+        );
+      } catch(RejectedExecutionException ignored) {
+        // The client is shutting down.
+      }
+      return null;
+    }
+
+    return admit(type, request, handler);
+  }
+
+  private <E, M>RequestHandle admit(
+    final AbstractRequest.TYPE type,
+    final AbstractRequest<M> request,
+    final AbstractResponseWrapper<E, M> handler
+  ) {
+    final ConcurrencyLimiter limiter = concurrencyLimiter;
+    if(null == limiter) {
+      return send(type, request, handler, null);
+    }
+
+    // Wait for a free slot if the host has too many requests in flight.
+    final ConcurrencyLimiter.Gate gate = limiter.gateOf(request.getHost());
+    if(gate.tryAcquire()) {
+      return send(type, request, handler, gate);
+    }
+    if(isDebugging()) {
+      Log.d(LOG_TAG, "Waiting for a free slot: " + request.url);
+    }
+    gate.enqueue(new Runnable() {
+
+      @Override
+      public void run() {
+        if(handler.future.isDone()) {
+          gate.release();
+        } else {
+          send(type, request, handler, gate);
+        }
+      }
+    });
+    return null;
+  }
+
+  private <E, M>RequestHandle send(
+    AbstractRequest.TYPE type,
+    AbstractRequest<M> request,
+    AbstractResponseWrapper<E, M> handler,
+    ConcurrencyLimiter.Gate permit
+  ) {
+    final AuthGate auth = authGate;
+    handler.credentials = null == auth
+      ? null
+      : auth.authenticator.getCredentials(request);
+
+    final RequestEventListener[] listeners = eventListeners;
+    if(null != listeners) {
+      handler.events = new RequestEvents(type, request, listeners);
+      handler.events.permit = permit;
+    } else if(null != permit) {
+      // The limiter was removed meanwhile.
+      permit.release();
+    }
+
+    // Race the request against a hedged copy if its host is slow enough.
+    final HedgePolicy hedging = hedgePolicy;
+    long hedgeDelay = -1;
+    if(
+      null != hedging &&
+      null == handler.hedge &&
+      handler.isHedgeable() &&
+      HedgePolicy.isHedgeable(type)
+    ) {
+      hedgeDelay = hedging.getDelay(request.getHost());
+      if(0 <= hedgeDelay) {
+        handler.hedge = new Hedge(this, type, hedging, handler);
+      }
+    }
+
+    final RequestHandle handle;
     switch(type) {
       case HEAD:
-        headImpl(request, handler);
+        handle = headImpl(request, handler);
         break;
 
       case GET:
-        getImpl(request, handler);
+        handle = getImpl(request, handler);
         break;
 
       case POST:
-        postImpl(request, handler);
+        handle = postImpl(request, handler);
         break;
 
       case PUT:
-        putImpl(request, handler);
+        handle = putImpl(request, handler);
         break;
 
       case PATCH:
-        patchImpl(request, handler);
+        handle = patchImpl(request, handler);
         break;
 
       case DELETE:
-        deleteImpl(request, handler);
+        handle = deleteImpl(request, handler);
         break;
+
+      default:
+        handle = null;
+    }
+
+    handler.future.setHandle(handle);
+    if(0 <= hedgeDelay) {
+      handler.hedge.start(handle, hedgeDelay);
+    }
+    return handle;
+  }
+
+  @Override
+  protected RequestHandle sendRequest(
+    DefaultHttpClient client,
+    HttpContext httpContext,
+    HttpUriRequest uriRequest,
+    String contentType,
+    ResponseHandlerInterface responseHandler,
+    Context context
+  ) {
+    final RequestBudget budget = retryBudget;
+    if(null != budget) {
+      budget.deposit();
+    }
+
+    final TimeoutPolicy policy = timeoutPolicy;
+    if(
+      null != policy &&
+      responseHandler instanceof AbstractResponseWrapper
+    ) {
+      // Per-request parameters take precedence over the client's ones.
+      final AbstractRequest request =
+        ((AbstractResponseWrapper)responseHandler).request;
+      final HttpParams params = uriRequest.getParams();
+      HttpConnectionParams.setConnectionTimeout(
+        params,
+        policy.getConnectTimeout(request.getHost(), getConnectTimeout())
+      );
+      HttpConnectionParams.setSoTimeout(
+        params,
+        policy.getReadTimeout(request, getResponseTimeout())
+      );
+    }
+
+    // Let the pool queue the request by its future's priority.
+    if(responseHandler instanceof AbstractResponseWrapper) {
+      final AbstractResponseWrapper handler =
+        (AbstractResponseWrapper)responseHandler;
+      if(null != handler.credentials) {
+        uriRequest.setHeader(handler.credentials);
+      }
+      PriorityExecutor.setSubmitting(handler.future);
     }
+    try {
+      return super.sendRequest(
+        client,
+        httpContext,
+        uriRequest,
+        contentType,
+        responseHandler,
+        context
+      );
+    } finally {
+      PriorityExecutor.setSubmitting(null);
+    }
+  }
+
+  @Override
+  protected AsyncHttpRequest newAsyncHttpRequest(
+    DefaultHttpClient client,
+    HttpContext httpContext,
+    HttpUriRequest uriRequest,
+    String contentType,
+    ResponseHandlerInterface responseHandler,
+    Context context
+  ) {
+    return transport.newRequest(
+      this,
+      client,
+      httpContext,
+      uriRequest,
+      responseHandler
+    );
   }
 
   /**
@@ -471,22 +1736,25 @@ public class ActivityHttpClient extends AsyncHttpClient {
    *
    * @param request to dispatch
    * @param handler response to handle the result
+   * @return handle of the dispatched request
    * @see AbstractRequest.TYPE#HEAD
    */
-  protected void headImpl(
+  protected RequestHandle headImpl(
     AbstractRequest request,
     ResponseHandlerInterface handler
   ) {
-    head(
+    // Skip building an empty query string for requests without parameters.
+    final RequestHandle handle = head(
       ctx,
       request.url,
-      request.getHeaders(),
-      request,
+      getHeaders(request),
+      request.hasParameters() ? request : null,
       handler
     );
     if(isDebugging()) {
       Log.d(LOG_TAG, "Dispatching HEAD: " + request.url);
     }
+    return handle;
   }
 
   /**
@@ -494,22 +1762,25 @@ public class ActivityHttpClient extends AsyncHttpClient {
    *
    * @param request to dispatch
    * @param handler response to handle the result
+   * @return handle of the dispatched request
    * @see AbstractRequest.TYPE#GET
    */
-  protected void getImpl(
+  protected RequestHandle getImpl(
     AbstractRequest request,
     ResponseHandlerInterface handler
   ) {
-    get(
+    // Skip building an empty query string for requests without parameters.
+    final RequestHandle handle = get(
       ctx,
       request.url,
-      request.getHeaders(),
-      request,
+      getHeaders(request),
+      request.hasParameters() ? request : null,
       handler
     );
     if(isDebugging()) {
       Log.d(LOG_TAG, "Dispatching GET: " + request.url);
     }
+    return handle;
   }
 
   /**
@@ -517,16 +1788,17 @@ public class ActivityHttpClient extends AsyncHttpClient {
    *
    * @param request to dispatch
    * @param handler response to handle the result
+   * @return handle of the dispatched request
    * @see AbstractRequest.TYPE#POST
    */
-  protected void postImpl(
+  protected RequestHandle postImpl(
     AbstractRequest request,
     ResponseHandlerInterface handler
   ) {
-    post(
+    final RequestHandle handle = post(
       ctx,
       request.url,
-      request.getHeaders(),
+      getHeaders(request),
       getEntity(request, handler),
       request.contentType,
       handler
@@ -534,6 +1806,7 @@ public class ActivityHttpClient extends AsyncHttpClient {
     if(isDebugging()) {
       Log.d(LOG_TAG, "Dispatching POST: " + request.url);
     }
+    return handle;
   }
 
   /**
@@ -541,16 +1814,17 @@ public class ActivityHttpClient extends AsyncHttpClient {
    *
    * @param request to dispatch
    * @param handler response to handle the result
+   * @return handle of the dispatched request
    * @see AbstractRequest.TYPE#PUT
    */
-  protected void putImpl(
+  protected RequestHandle putImpl(
     AbstractRequest request,
     ResponseHandlerInterface handler
   ) {
-    put(
+    final RequestHandle handle = put(
       ctx,
       request.url,
-      request.getHeaders(),
+      getHeaders(request),
       getEntity(request, handler),
       request.contentType,
       handler
@@ -558,6 +1832,7 @@ public class ActivityHttpClient extends AsyncHttpClient {
     if(isDebugging()) {
       Log.d(LOG_TAG, "Dispatching PUT: " + request.url);
     }
+    return handle;
   }
 
   /**
@@ -565,16 +1840,17 @@ public class ActivityHttpClient extends AsyncHttpClient {
    *
    * @param request to dispatch
    * @param handler response to handle the result
+   * @return handle of the dispatched request
    * @see AbstractRequest.TYPE#PATCH
    */
-  protected void patchImpl(
+  protected RequestHandle patchImpl(
     AbstractRequest request,
     ResponseHandlerInterface handler
   ) {
-    patch(
+    final RequestHandle handle = patch(
       ctx,
       request.url,
-      request.getHeaders(),
+      getHeaders(request),
       getEntity(request, handler),
       request.contentType,
       handler
@@ -582,6 +1858,7 @@ public class ActivityHttpClient extends AsyncHttpClient {
     if(isDebugging()) {
       Log.d(LOG_TAG, "Dispatching PATCH: " + request.url);
     }
+    return handle;
   }
 
   /**
@@ -589,22 +1866,58 @@ public class ActivityHttpClient extends AsyncHttpClient {
    *
    * @param request to dispatch
    * @param handler response to handle the result
+   * @return handle of the dispatched request
    * @see AbstractRequest.TYPE#DELETE
    */
-  protected void deleteImpl(
+  protected RequestHandle deleteImpl(
     AbstractRequest request,
     ResponseHandlerInterface handler
   ) {
-    delete(
-      ctx,
-      request.url,
-      getEntity(request, handler),
+    // The underlying client has no DELETE which takes both headers and an
+    // entity, so build the request the same way it does.
+    final HttpEntityEnclosingRequestBase delete =
+      new HttpEntityEnclosingRequestBase() {
+
+        @Override
+        public String getMethod() {
+          return "DELETE";
+        }
+      };
+    delete.setURI(URI.create(request.url).normalize());
+    delete.setHeaders(getHeaders(request));
+    final HttpEntity entity = getEntity(request, handler);
+    if(null != entity) {
+      delete.setEntity(entity);
+    }
+    final RequestHandle handle = sendRequest(
+      (DefaultHttpClient)getHttpClient(),
+      getHttpContext(),
+      delete,
       request.contentType,
-      handler
+      handler,
+      ctx
     );
     if(isDebugging()) {
       Log.d(LOG_TAG, "Dispatching DELETE: " + request.url);
     }
+    return handle;
+  }
+
+  /**
+   * Returns the headers to send with the specified request, including the
+   * "Accept-Encoding" header negotiated for it. Requests without headers of
+   * their own share the same list, and the others cache theirs, so it must
+   * not be modified.
+   *
+   * @param request to dispatch
+   * @return list of all headers
+   */
+  protected Header[] getHeaders(AbstractRequest request) {
+    final Header[] defaults = defaultHeaders;
+    if(null == request.getAcceptEncoding() && request.headers.isEmpty()) {
+      return defaults;
+    }
+    return request.getHeaders(defaults[0]);
   }
 
   /**
@@ -619,7 +1932,17 @@ public class ActivityHttpClient extends AsyncHttpClient {
     ResponseHandlerInterface handler
   ) {
     try {
-      return request.getEntity(handler);
+      final HttpEntity entity = request.getEntity(handler);
+      if(
+        null != entity &&
+        handler instanceof AbstractResponseWrapper &&
+        null != ((AbstractResponseWrapper)handler).events
+      ) {
+        ((AbstractResponseWrapper)handler)
+          .events
+          .requestBytes(entity.getContentLength());
+      }
+      return entity;
     } catch(java.io.IOException error) {
       if(isDebugging()) {
         Log.e(LOG_TAG, "Cannot get HTTP entity for: " + request.url, error);
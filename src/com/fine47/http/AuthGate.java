@@ -0,0 +1,238 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.Header;
+import org.apache.http.client.HttpResponseException;
+
+/**
+ * Coalesces the credentials refreshes of an {@link Authenticator}. The first
+ * rejected request starts a refresh, and all others rejected meanwhile wait
+ * for it to be replayed. Requests dispatched during the refresh are held back
+ * until it's done, or for {@link #HOLD_TIMEOUT} at most.
+ *
+ * This is an internal class.
+ */
+final class AuthGate implements Runnable {
+
+  /**
+   * How long requests are held back while credentials are being refreshed,
+   * in milliseconds.
+   */
+  final static long HOLD_TIMEOUT = 5000;
+
+  final Authenticator authenticator;
+
+  private final ActivityHttpClient client;
+
+  private ArrayList<AbstractResponseWrapper> replays = new ArrayList();
+  private ArrayList<AbstractResponseWrapper> held = new ArrayList();
+  private boolean isRefreshing;
+  private ScheduledFuture timer;
+
+  AuthGate(ActivityHttpClient client, Authenticator authenticator) {
+    this.client = client;
+    this.authenticator = authenticator;
+  }
+
+  /**
+   * Holds back the specified handler's request if credentials are being
+   * refreshed and the request needs them.
+   *
+   * @param handler handler whose request is being dispatched
+   * @return TRUE if the request is held back, FALSE if it may proceed
+   */
+  boolean hold(AbstractResponseWrapper handler) {
+    synchronized(this) {
+      if(!isRefreshing) {
+        return false;
+      }
+    }
+    if(null == authenticator.getCredentials(handler.request)) {
+      return false;
+    }
+    synchronized(this) {
+      if(!isRefreshing) {
+        return false;
+      }
+      held.add(handler);
+
+      // Requests held back once the timer fired get a timer of their own.
+      if(null == timer) {
+        arm();
+      }
+    }
+    if(ActivityHttpClient.isDebugging()) {
+      Log.d(
+        ActivityHttpClient.LOG_TAG,
+        "Waiting for credentials: " + handler.request.url
+      );
+    }
+    return true;
+  }
+
+  /**
+   * Replays the specified handler's request, whose credentials were rejected,
+   * once they've been refreshed. The refresh runs on the calling thread if
+   * none is running yet.
+   *
+   * @param handler handler whose request was rejected
+   */
+  void reject(AbstractResponseWrapper handler) {
+    final AbstractResponseWrapper copy = handler.newReplay();
+
+    // Another request may have refreshed the credentials already.
+    final Header current = authenticator.getCredentials(handler.request);
+    final boolean isStale =
+      null != current && !isSame(current, handler.credentials);
+    synchronized(this) {
+      if(isRefreshing) {
+        replays.add(copy);
+        return;
+      }
+      if(!isStale) {
+        isRefreshing = true;
+        replays.add(copy);
+        arm();
+      }
+    }
+    if(isStale) {
+      replay(copy);
+      return;
+    }
+
+    if(ActivityHttpClient.isDebugging()) {
+      Log.d(
+        ActivityHttpClient.LOG_TAG,
+        "Refreshing credentials: " + handler.request.url
+      );
+    }
+    boolean isRefreshed = false;
+    try {
+      isRefreshed = authenticator.refresh(
+        handler.request,
+        handler.credentials
+      );
+    } catch(IOException error) {
+      if(ActivityHttpClient.isDebugging()) {
+        Log.e(
+          ActivityHttpClient.LOG_TAG,
+          "Error while refreshing credentials.",
+          error
+        );
+      }
+    } finally {
+      finish(isRefreshed);
+    }
+  }
+
+  @Override
+  public void run() {
+    // Requests held back for too long go out with the current credentials;
+    // should they be rejected, they'll wait for the pending refresh.
+    final ArrayList<AbstractResponseWrapper> released;
+    synchronized(this) {
+      timer = null;
+      released = held;
+      held = new ArrayList();
+    }
+    release(released);
+  }
+
+  private void arm() {
+    // Called while holding the lock.
+    try {
+      timer = client.getScheduler().schedule(
+        this,
+        HOLD_TIMEOUT,
+        TimeUnit.MILLISECONDS
+      );
+    } catch(RejectedExecutionException ignored) {
+      // The client is shutting down.
+    }
+  }
+
+  private void finish(boolean isRefreshed) {
+    final ArrayList<AbstractResponseWrapper> rejected;
+    final ArrayList<AbstractResponseWrapper> released;
+    synchronized(this) {
+      isRefreshing = false;
+      if(null != timer) {
+        timer.cancel(false);
+        timer = null;
+      }
+      rejected = replays;
+      released = held;
+      replays = new ArrayList();
+      held = new ArrayList();
+    }
+
+    for(final AbstractResponseWrapper copy : rejected) {
+      if(isRefreshed) {
+        replay(copy);
+      } else if(!copy.future.isDone()) {
+        copy.onFailure(
+          401,
+          null,
+          null,
+          new HttpResponseException(401, "Unauthorized")
+        );
+      }
+    }
+    release(released);
+  }
+
+  private void replay(AbstractResponseWrapper copy) {
+    if(!copy.future.isDone()) {
+      if(ActivityHttpClient.isDebugging()) {
+        Log.d(ActivityHttpClient.LOG_TAG, "Replaying: " + copy.request.url);
+      }
+      client.dispatch(copy.type, copy.request, copy);
+    }
+  }
+
+  private void release(ArrayList<AbstractResponseWrapper> released) {
+    for(final AbstractResponseWrapper handler : released) {
+      if(!handler.future.isDone()) {
+        client.proceed(handler.type, handler.request, handler);
+      }
+    }
+  }
+
+  private static boolean isSame(Header header, Header other) {
+    return null != other &&
+      header.getName().equalsIgnoreCase(other.getName()) &&
+      header.getValue().equals(other.getValue());
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.request.AbstractRequest;
+import java.io.IOException;
+import org.apache.http.Header;
+
+/**
+ * Supplies the credentials of requests, and refreshes them once a server
+ * rejects them with "401 Unauthorized".
+ *
+ * All requests rejected while credentials are being refreshed share the same
+ * refresh, and are replayed with the new credentials once it's done. Requests
+ * dispatched meanwhile are held back for a short while, so they don't go out
+ * with credentials that are known to be stale.
+ *
+ * Requests for which no credentials are supplied, such as the one which
+ * refreshes them, are never held back nor replayed.
+ *
+ * @see ActivityHttpClient#setAuthenticator(Authenticator)
+ */
+public interface Authenticator {
+
+  /**
+   * Returns the credentials to send with the specified request, replacing any
+   * header of the same name which the request has. Called right before each
+   * time the request is sent, so it must not block.
+   *
+   * @param request to authenticate
+   * @return credentials header (ex. "Authorization: Bearer ..."), NULL if the
+   * request needs none
+   */
+  public Header getCredentials(AbstractRequest request);
+
+  /**
+   * Refreshes the credentials which the server rejected. Called on a
+   * background thread, once for all requests rejected meanwhile, and may
+   * block until done.
+   *
+   * @param request the first request which was rejected
+   * @param rejected credentials which were rejected
+   * @return TRUE if new credentials are available and rejected requests
+   * should be replayed, FALSE if they should fail
+   * @throws IOException when the credentials cannot be refreshed
+   */
+  public boolean refresh(AbstractRequest request, Header rejected)
+    throws IOException;
+}
@@ -0,0 +1,174 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Retry policy with exponential backoff and full jitter: the n-th retry waits
+ * a random delay between zero and the base delay times two to the power of
+ * n - 1, capped at a maximum delay. Randomizing the whole delay keeps devices
+ * which failed at the same time from retrying in lockstep.
+ *
+ * Idempotent methods (GET, HEAD, PUT, DELETE and OPTIONS) are retried on any
+ * retriable error, while the rest are only retried if the request never
+ * reached the server. Unknown hosts and rejected certificates are never
+ * retried, as retrying them won't change the outcome.
+ */
+public class BackoffRetryPolicy implements RetryPolicy {
+
+  /**
+   * Default base delay of retries, in milliseconds.
+   */
+  public final static int DEFAULT_BASE_DELAY = 250;
+
+  /**
+   * Default maximum delay of retries, in milliseconds.
+   */
+  public final static int DEFAULT_MAX_DELAY = 10000;
+
+  private final static Random random = new Random();
+
+  private final int maxRetries;
+  private final int baseDelay;
+  private final int maxDelay;
+
+  /**
+   * Create a new backoff retry policy using the default delays.
+   *
+   * @param maxRetries maximum number of retries per request
+   */
+  public BackoffRetryPolicy(int maxRetries) {
+    this(maxRetries, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+  }
+
+  /**
+   * Create a new backoff retry policy.
+   *
+   * @param maxRetries maximum number of retries per request
+   * @param baseDelay delay ceiling of the first retry, in milliseconds
+   * @param maxDelay delay ceiling of any retry, in milliseconds
+   */
+  public BackoffRetryPolicy(int maxRetries, int baseDelay, int maxDelay) {
+    if(0 > maxRetries || 0 >= baseDelay || baseDelay > maxDelay) {
+      throw new IllegalArgumentException("Invalid retry parameters.");
+    }
+    this.maxRetries = maxRetries;
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+  }
+
+  /**
+   * Returns the maximum number of retries per request.
+   *
+   * @return maximum number of retries
+   */
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  @Override
+  public long getRetryDelay(
+    String method,
+    IOException error,
+    int executionCount,
+    boolean isRequestSent
+  ) {
+    if(
+      executionCount > maxRetries ||
+      !isRetriable(error) ||
+      (isRequestSent && !isIdempotent(method))
+    ) {
+      return -1;
+    }
+
+    // Full jitter: anywhere between zero and the exponential ceiling.
+    final int shift = Math.min(30, Math.max(0, executionCount - 1));
+    final long ceiling = Math.min((long)maxDelay, (long)baseDelay << shift);
+    final double factor;
+    synchronized(random) {
+      factor = random.nextDouble();
+    }
+    return (long)(ceiling * factor);
+  }
+
+  /**
+   * Returns whether the specified HTTP method may safely be sent more than
+   * once.
+   *
+   * @param method HTTP method
+   * @return TRUE if the method is idempotent, FALSE otherwise
+   */
+  protected boolean isIdempotent(String method) {
+    return "GET".equals(method) ||
+      "HEAD".equals(method) ||
+      "PUT".equals(method) ||
+      "DELETE".equals(method) ||
+      "OPTIONS".equals(method);
+  }
+
+  /**
+   * Returns whether the specified error is worth retrying. Interruptions,
+   * including cancellations, are not retried, but time-outs are. Neither are
+   * unknown hosts, nor certificate and peer verification failures.
+   *
+   * @param error error which caused the failure
+   * @return TRUE if the request may be retried, FALSE otherwise
+   */
+  protected boolean isRetriable(IOException error) {
+    if(error instanceof InterruptedIOException) {
+      return error instanceof SocketTimeoutException ||
+        error instanceof ConnectTimeoutException;
+    }
+    if(
+      error instanceof UnknownHostException ||
+      error instanceof SSLPeerUnverifiedException
+    ) {
+      return false;
+    }
+    if(error instanceof SSLException) {
+      // Handshakes fail due to certificates, or due to the network.
+      Throwable cause = error.getCause();
+      while(null != cause) {
+        if(cause instanceof GeneralSecurityException) {
+          return false;
+        }
+        cause = cause.getCause();
+      }
+    }
+    return true;
+  }
+}
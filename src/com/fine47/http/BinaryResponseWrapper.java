@@ -13,7 +13,8 @@ class BinaryResponseWrapper<M> extends AbstractResponseWrapper<byte[], M> {
   }
 
   @Override
-  byte[] bytesToValue(byte[] bytes) {
-    return bytes;
+  byte[] bufferToValue(ResponseBuffer buffer) {
+    // The response owns the bytes, so they can't stay in the pooled buffer.
+    return buffer.toByteArray();
   }
 }
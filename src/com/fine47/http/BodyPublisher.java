@@ -0,0 +1,287 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.response.Flow;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
+/**
+ * Publishes a response body as a flow of chunks, reading each chunk from the
+ * network only once the subscriber has asked for it. The reading thread
+ * blocks while there's no demand, up to a timeout, and delivers all signals
+ * itself.
+ *
+ * This is an internal class.
+ */
+final class BodyPublisher
+  implements Flow.Publisher<ByteBuffer>, Flow.Subscription
+{
+
+  private final static Flow.Subscription REJECTED = new Flow.Subscription() {
+
+    @Override
+    public void request(long count) {
+    }
+
+    @Override
+    public void cancel() {
+    }
+  };
+
+  private final InputStream content;
+  private final long timeout;
+
+  private boolean isClaimed;
+  private Flow.Subscriber<? super ByteBuffer> subscriber;
+  private long demand;
+  private boolean isCancelled;
+  private boolean isDone;
+  private Throwable error;
+
+  /**
+   * Creates a publisher for the specified raw content of a response.
+   *
+   * @param content raw content of the response, as read from the connection
+   * @param timeout how long to wait for a subscriber, or for its demand, in
+   * milliseconds
+   */
+  BodyPublisher(InputStream content, long timeout) {
+    this.content = content;
+    this.timeout = timeout;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    if(null == subscriber) {
+      throw new NullPointerException("Invalid subscriber.");
+    }
+
+    final boolean isAccepted;
+    synchronized(this) {
+      isAccepted = !isClaimed && !isDone;
+      isClaimed = true;
+    }
+    if(!isAccepted) {
+      subscriber.onSubscribe(REJECTED);
+      subscriber.onError(
+        new IllegalStateException("Response body can be subscribed once.")
+      );
+      return;
+    }
+
+    // Only start reading once the subscriber is set up.
+    subscriber.onSubscribe(this);
+    synchronized(this) {
+      this.subscriber = subscriber;
+      notifyAll();
+    }
+  }
+
+  @Override
+  public void request(long count) {
+    synchronized(this) {
+      if(0 >= count) {
+        if(null == error) {
+          error = new IllegalArgumentException("Invalid demand: " + count);
+        }
+      } else {
+        demand += count;
+        if(0 > demand) {
+          demand = Long.MAX_VALUE;
+        }
+      }
+      notifyAll();
+    }
+  }
+
+  @Override
+  public void cancel() {
+    synchronized(this) {
+      if(isCancelled || isDone) {
+        return;
+      }
+      isCancelled = true;
+      notifyAll();
+    }
+
+    // Unblock a pending read.
+    abortConnection();
+  }
+
+  /**
+   * Aborts the flow due to the specified error, ex. when the request has
+   * been cancelled. The subscriber receives the error.
+   *
+   * @param cause of the abort
+   */
+  void abort(Throwable cause) {
+    synchronized(this) {
+      if(isDone || null != error) {
+        return;
+      }
+      error = cause;
+      notifyAll();
+    }
+    abortConnection();
+  }
+
+  /**
+   * Returns whether the subscriber has cancelled its subscription.
+   *
+   * @return TRUE if cancelled by the subscriber, FALSE otherwise
+   */
+  synchronized boolean isCancelled() {
+    return isCancelled;
+  }
+
+  /**
+   * Reads the specified (decoded) input and delivers it to the subscriber in
+   * chunks, as they are asked for. Returns once the input is exhausted, the
+   * subscription is cancelled or an error occurs.
+   *
+   * @param input to read
+   * @param chunk buffer to read each chunk into
+   * @return error which ended the flow, NULL if completed or cancelled by
+   * the subscriber
+   */
+  Throwable publish(InputStream input, ByteBuffer chunk) {
+    final byte[] array = chunk.array();
+    Flow.Subscriber<? super ByteBuffer> target = null;
+    try {
+      target = awaitSubscriber();
+      if(null == target) {
+        return finish(
+          new SocketTimeoutException("Response body wasn't subscribed to.")
+        );
+      }
+      while(true) {
+        if(!awaitDemand()) {
+          abort(new SocketTimeoutException("Response body wasn't requested."));
+        }
+        synchronized(this) {
+          if(null != error || isCancelled) {
+            break;
+          }
+          demand--;
+        }
+
+        int count;
+        do {
+          count = input.read(array, 0, array.length);
+        } while(0 == count);
+
+        if(-1 == count) {
+          finish(null);
+          target.onComplete();
+          return null;
+        }
+
+        chunk.clear();
+        chunk.limit(count);
+        target.onNext(chunk);
+      }
+    } catch(InterruptedException error) {
+      abort(new InterruptedIOException("Response body reading interrupted."));
+      Thread.currentThread().interrupt();
+    } catch(IOException error) {
+      abort(error);
+    } catch(RuntimeException error) {
+      // The subscriber failed, so it can't be signalled anymore.
+      return finish(error);
+    }
+
+    final Throwable cause = finish(null);
+    if(null != cause && null != target) {
+      target.onError(cause);
+    }
+    return cause;
+  }
+
+  private synchronized Flow.Subscriber<? super ByteBuffer> awaitSubscriber()
+    throws InterruptedException
+  {
+    final long deadline = System.currentTimeMillis() + timeout;
+    long remaining = timeout;
+    while(null == subscriber && null == error && 0 < remaining) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return subscriber;
+  }
+
+  private synchronized boolean awaitDemand() throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeout;
+    long remaining = timeout;
+    while(0 == demand && null == error && !isCancelled) {
+      if(0 >= remaining) {
+        return false;
+      }
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return true;
+  }
+
+  private Throwable finish(Throwable cause) {
+    final boolean isAborted;
+    final Throwable result;
+    synchronized(this) {
+      if(null == error && !isCancelled) {
+        error = cause;
+      }
+      isAborted = null != error || isCancelled;
+      isDone = true;
+      result = isCancelled && !(error instanceof CancellationException)
+        ? null
+        : error;
+    }
+    if(isAborted) {
+      abortConnection();
+    }
+    return result;
+  }
+
+  private void abortConnection() {
+    // Closing the content would drain the rest of the body, so drop the
+    // connection instead.
+    try {
+      if(content instanceof ConnectionReleaseTrigger) {
+        ((ConnectionReleaseTrigger)content).abortConnection();
+      } else {
+        content.close();
+      }
+    } catch(IOException ignored) {
+    }
+  }
+}
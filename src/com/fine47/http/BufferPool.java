@@ -0,0 +1,183 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of byte arrays used to receive response bodies. Arrays are handed
+ * out in power-of-two size classes so that they can be reused by responses of
+ * different, but similar, sizes. The pool retains at most a configurable
+ * number of bytes; arrays released beyond that limit are left to the garbage
+ * collector.
+ */
+public class BufferPool {
+
+  /**
+   * Size of the smallest size class (4 KB).
+   */
+  public final static int MIN_SIZE = 1 << 12;
+
+  /**
+   * Size of the largest size class (1 MB). Larger arrays are never pooled.
+   */
+  public final static int MAX_SIZE = 1 << 20;
+
+  /**
+   * Default size of a receive buffer when the response size is not known.
+   */
+  public final static int DEFAULT_SIZE = 1 << 14;
+
+  /**
+   * Default number of bytes which a pool retains (4 MB).
+   */
+  public final static long DEFAULT_MAX_RETAINED = 1 << 22;
+
+  private final static int MIN_SHIFT = 12;
+  private final static int MAX_SHIFT = 20;
+
+  private final ConcurrentLinkedQueue<byte[]>[] sizeClasses;
+  private final AtomicLong retained = new AtomicLong();
+
+  private volatile long maxRetained;
+
+  /**
+   * Create a new buffer pool which retains up to the default number of bytes.
+   */
+  public BufferPool() {
+    this(DEFAULT_MAX_RETAINED);
+  }
+
+  /**
+   * Create a new buffer pool which retains up to the specified number of
+   * bytes.
+   *
+   * @param maxRetained maximum number of bytes to retain
+   */
+  public BufferPool(long maxRetained) {
+    this.maxRetained = maxRetained;
+    sizeClasses = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+    for(int index = 0; index < sizeClasses.length; index++) {
+      sizeClasses[index] = new ConcurrentLinkedQueue();
+    }
+  }
+
+  /**
+   * Returns the maximum number of bytes this pool retains.
+   *
+   * @return maximum number of retained bytes
+   */
+  public long getMaxRetained() {
+    return maxRetained;
+  }
+
+  /**
+   * Sets the maximum number of bytes this pool retains. Lowering the limit
+   * does not drop arrays which are already retained; use {@link #clear()} for
+   * that.
+   *
+   * @param value maximum number of bytes to retain
+   */
+  public void setMaxRetained(long value) {
+    maxRetained = value;
+  }
+
+  /**
+   * Returns the number of bytes currently retained by this pool.
+   *
+   * @return number of retained bytes
+   */
+  public long getRetained() {
+    return retained.get();
+  }
+
+  /**
+   * Returns an array which can hold at least the specified number of bytes.
+   * The array may be larger than requested and its contents are undefined.
+   *
+   * @param capacity minimum number of bytes the array must hold
+   * @return an array from the pool or a newly-allocated one
+   */
+  public byte[] acquire(int capacity) {
+    if(MAX_SIZE < capacity) {
+      return new byte[capacity];
+    }
+    final int sizeClass = sizeClassOf(capacity);
+    final byte[] buffer = sizeClasses[sizeClass].poll();
+    if(null == buffer) {
+      return new byte[MIN_SIZE << sizeClass];
+    }
+    retained.addAndGet(-buffer.length);
+    return buffer;
+  }
+
+  /**
+   * Returns the specified array to the pool. The caller must not use the
+   * array afterwards.
+   *
+   * @param buffer array to return to the pool
+   */
+  public void release(byte[] buffer) {
+    final int size = buffer.length;
+
+    // Only arrays which match a size class exactly are pooled.
+    if(MIN_SIZE > size || MAX_SIZE < size || 0 != (size & (size - 1))) {
+      return;
+    }
+
+    long current;
+    do {
+      current = retained.get();
+      if(current + size > maxRetained) {
+        return;
+      }
+    } while(!retained.compareAndSet(current, current + size));
+
+    sizeClasses[sizeClassOf(size)].offer(buffer);
+  }
+
+  /**
+   * Drops all arrays retained by this pool.
+   */
+  public void clear() {
+    for(final ConcurrentLinkedQueue<byte[]> sizeClass : sizeClasses) {
+      byte[] buffer;
+      while(null != (buffer = sizeClass.poll())) {
+        retained.addAndGet(-buffer.length);
+      }
+    }
+  }
+
+  private static int sizeClassOf(int capacity) {
+    if(MIN_SIZE >= capacity) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+  }
+}
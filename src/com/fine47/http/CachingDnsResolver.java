@@ -0,0 +1,273 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.Log;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of another {@link DnsResolver}, successful and failed
+ * ones alike, each for its own time-to-live.
+ *
+ * Hosts which are looked up often are resolved again in the background
+ * shortly before their results expire, so lookups of hot hosts rarely block.
+ * When a fresh lookup fails, expired addresses are served for a while longer
+ * rather than failing the connection.
+ *
+ * This class is thread-safe.
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+  /**
+   * Default time-to-live of resolved addresses, in milliseconds.
+   */
+  public final static long DEFAULT_TTL = 60000;
+
+  /**
+   * Default time-to-live of failed lookups, in milliseconds.
+   */
+  public final static long DEFAULT_NEGATIVE_TTL = 5000;
+
+  /**
+   * Default time for which expired addresses may be served when a fresh
+   * lookup fails, in milliseconds.
+   */
+  public final static long DEFAULT_MAX_STALE = 600000;
+
+  // Number of lookups within a record's lifetime which make its host hot.
+  private final static int HOT_LOOKUPS = 2;
+
+  private final ConcurrentHashMap<String, Record> records =
+    new ConcurrentHashMap();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong staleHits = new AtomicLong();
+
+  private final DnsResolver resolver;
+  private final Executor executor;
+  private final long ttl;
+  private final long negativeTtl;
+  private final long maxStale;
+
+  /**
+   * Create a new caching resolver using the default time-to-live values.
+   *
+   * @param resolver resolver whose results are cached
+   * @param executor executor to resolve hot hosts in the background
+   */
+  public CachingDnsResolver(DnsResolver resolver, Executor executor) {
+    this(
+      resolver,
+      executor,
+      DEFAULT_TTL,
+      DEFAULT_NEGATIVE_TTL,
+      DEFAULT_MAX_STALE
+    );
+  }
+
+  /**
+   * Create a new caching resolver.
+   *
+   * @param resolver resolver whose results are cached
+   * @param executor executor to resolve hot hosts in the background
+   * @param ttl time-to-live of resolved addresses, in milliseconds
+   * @param negativeTtl time-to-live of failed lookups, in milliseconds
+   * @param maxStale time for which expired addresses may be served when a
+   * fresh lookup fails, in milliseconds
+   */
+  public CachingDnsResolver(
+    DnsResolver resolver,
+    Executor executor,
+    long ttl,
+    long negativeTtl,
+    long maxStale
+  ) {
+    if(
+      null == resolver ||
+      null == executor ||
+      0 >= ttl ||
+      0 > negativeTtl ||
+      0 > maxStale
+    ) {
+      throw new IllegalArgumentException("Invalid resolver parameters.");
+    }
+    this.resolver = resolver;
+    this.executor = executor;
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl;
+    this.maxStale = maxStale;
+  }
+
+  @Override
+  public InetAddress[] resolve(String host) throws UnknownHostException {
+    final long now = System.currentTimeMillis();
+    final Record record = records.get(host);
+    if(null != record && now < record.expiresAt) {
+      hits.incrementAndGet();
+      if(null == record.addresses) {
+        throw new UnknownHostException(host);
+      }
+      if(
+        HOT_LOOKUPS <= record.lookups.incrementAndGet() &&
+        now >= record.refreshAt &&
+        record.isRefreshing.compareAndSet(false, true)
+      ) {
+        prefetch(host);
+      }
+      return record.addresses;
+    }
+
+    misses.incrementAndGet();
+    return lookup(host, record);
+  }
+
+  /**
+   * Returns the time-to-live of the specified host's addresses. Override it
+   * when the underlying resolver knows the actual TTL of the records.
+   *
+   * @param host name which was resolved
+   * @param addresses addresses of the host
+   * @return time-to-live in milliseconds
+   */
+  protected long getTtl(String host, InetAddress[] addresses) {
+    return ttl;
+  }
+
+  /**
+   * Removes all cached results, for example when the device switches to
+   * another network.
+   */
+  public void clear() {
+    records.clear();
+  }
+
+  /**
+   * Returns the number of lookups served from the cache.
+   *
+   * @return number of cache hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of lookups which went to the underlying resolver.
+   *
+   * @return number of cache misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of failed lookups which were served expired
+   * addresses.
+   *
+   * @return number of stale hits
+   */
+  public long getStaleHits() {
+    return staleHits.get();
+  }
+
+  private InetAddress[] lookup(String host, Record previous)
+    throws UnknownHostException
+  {
+    try {
+      final InetAddress[] addresses = resolver.resolve(host);
+      final long now = System.currentTimeMillis();
+      final long lifetime = Math.max(1, getTtl(host, addresses));
+      records.put(host, new Record(
+        addresses,
+        now + lifetime,
+        now + lifetime - (lifetime >> 2)
+      ));
+      return addresses;
+    } catch(UnknownHostException error) {
+      // Serve the last known addresses rather than failing outright.
+      final long now = System.currentTimeMillis();
+      if(
+        null != previous &&
+        null != previous.addresses &&
+        now < previous.expiresAt + maxStale
+      ) {
+        staleHits.incrementAndGet();
+        if(ActivityHttpClient.isDebugging()) {
+          Log.w(ActivityHttpClient.LOG_TAG, "Serving stale DNS for: " + host);
+        }
+        return previous.addresses;
+      }
+      if(0 < negativeTtl) {
+        records.put(host, new Record(null, now + negativeTtl, Long.MAX_VALUE));
+      }
+      throw error;
+    }
+  }
+
+  private void prefetch(final String host) {
+    try {
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            lookup(host, records.get(host));
+          } catch(UnknownHostException ignored) {
+            // The current addresses stay until they expire.
+          }
+        }
+      });
+    } catch(RejectedExecutionException ignored) {
+      // Resolve on demand instead.
+    }
+  }
+
+  /**
+   * A cached lookup result, having NULL addresses for a failed lookup.
+   */
+  private final static class Record {
+
+    final InetAddress[] addresses;
+    final long expiresAt;
+    final long refreshAt;
+    final AtomicInteger lookups = new AtomicInteger();
+    final AtomicBoolean isRefreshing = new AtomicBoolean();
+
+    Record(InetAddress[] addresses, long expiresAt, long refreshAt) {
+      this.addresses = addresses;
+      this.expiresAt = expiresAt;
+      this.refreshAt = refreshAt;
+    }
+  }
+}
@@ -0,0 +1,408 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stops sending requests to hosts which keep failing. Each host has a circuit
+ * which opens on its own once the rate of failed requests within a sliding
+ * window exceeds a threshold. While a circuit is open, requests to its host
+ * fail fast with a {@link CircuitOpenException}. Once the open period is
+ * over, a limited number of probe requests go through; the circuit closes if
+ * they all succeed, and opens again if any of them fails. Cancelled probes
+ * are given back, and a circuit whose probes never report back opens again
+ * once the open period has passed, so new probes can go out.
+ *
+ * Network errors and server errors (5xx) count as failures, while client
+ * errors (4xx) and cancellations don't.
+ *
+ * @see ActivityHttpClient#setCircuitBreaker(CircuitBreaker)
+ */
+public class CircuitBreaker extends RequestEventAdapter {
+
+  /**
+   * States of a circuit.
+   */
+  public static enum State {
+    /**
+     * Requests go through.
+     */
+    CLOSED,
+
+    /**
+     * Requests fail fast.
+     */
+    OPEN,
+
+    /**
+     * A limited number of probe requests go through.
+     */
+    HALF_OPEN
+  }
+
+  /**
+   * A listener which is notified when the circuit of a host changes state.
+   * Notifications run on whichever thread caused the change.
+   */
+  public static interface Listener {
+
+    /**
+     * Called when the circuit of the specified host changes state.
+     *
+     * @param host host name
+     * @param from previous state
+     * @param to new state
+     */
+    public void onStateChanged(String host, State from, State to);
+  }
+
+  /**
+   * Default length of the sliding window, in milliseconds.
+   */
+  public final static int DEFAULT_WINDOW = 30000;
+
+  /**
+   * Default minimum number of requests within the window before a circuit
+   * may open.
+   */
+  public final static int DEFAULT_MIN_REQUESTS = 20;
+
+  /**
+   * Default failure rate above which a circuit opens.
+   */
+  public final static double DEFAULT_FAILURE_RATE = 0.5;
+
+  /**
+   * Default time a circuit stays open, in milliseconds.
+   */
+  public final static int DEFAULT_OPEN_DURATION = 30000;
+
+  /**
+   * Default number of probe requests while a circuit is half-open.
+   */
+  public final static int DEFAULT_PROBES = 3;
+
+  // Number of buckets the sliding window is divided into.
+  private final static int BUCKETS = 10;
+
+  private final ConcurrentHashMap<String, Circuit> circuits =
+    new ConcurrentHashMap();
+
+  private final int window;
+  private final int minRequests;
+  private final double failureRate;
+  private final int openDuration;
+  private final int probes;
+
+  private volatile Listener listener;
+
+  /**
+   * Create a new circuit breaker using the default parameters.
+   */
+  public CircuitBreaker() {
+    this(
+      DEFAULT_WINDOW,
+      DEFAULT_MIN_REQUESTS,
+      DEFAULT_FAILURE_RATE,
+      DEFAULT_OPEN_DURATION,
+      DEFAULT_PROBES
+    );
+  }
+
+  /**
+   * Create a new circuit breaker.
+   *
+   * @param window length of the sliding window, in milliseconds
+   * @param minRequests minimum number of requests within the window before a
+   * circuit may open
+   * @param failureRate failure rate above which a circuit opens, between 0.0
+   * and 1.0
+   * @param openDuration time a circuit stays open, in milliseconds
+   * @param probes number of probe requests while a circuit is half-open
+   */
+  public CircuitBreaker(
+    int window,
+    int minRequests,
+    double failureRate,
+    int openDuration,
+    int probes
+  ) {
+    if(
+      BUCKETS > window ||
+      0 >= minRequests ||
+      0 >= failureRate ||
+      1 < failureRate ||
+      0 >= openDuration ||
+      0 >= probes
+    ) {
+      throw new IllegalArgumentException("Invalid circuit parameters.");
+    }
+    this.window = window;
+    this.minRequests = minRequests;
+    this.failureRate = failureRate;
+    this.openDuration = openDuration;
+    this.probes = probes;
+  }
+
+  /**
+   * Sets the listener which is notified of state changes.
+   *
+   * @param listener state listener, NULL to stop notifications
+   */
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Returns the listener which is notified of state changes.
+   *
+   * @return state listener, NULL if none is set
+   */
+  public Listener getListener() {
+    return listener;
+  }
+
+  /**
+   * Returns the state of the specified host's circuit.
+   *
+   * @param host host name
+   * @return state of the circuit
+   */
+  public State getState(String host) {
+    final Circuit circuit = circuits.get(host);
+    return null == circuit ? State.CLOSED : circuit.getState();
+  }
+
+  /**
+   * Returns whether a request to the specified host may be sent now. While
+   * the host's circuit is half-open, this claims one of its probes.
+   *
+   * @param host host name
+   * @return TRUE if the request may be sent, FALSE if it must fail fast
+   */
+  public boolean allowRequest(String host) {
+    final Circuit circuit = circuits.get(host);
+    return null == circuit || circuit.allowRequest();
+  }
+
+  /**
+   * Gives back the probe claimed by {@link #allowRequest(String)} for a
+   * request to the specified host which was cancelled before being sent, so
+   * that another request probes the host instead.
+   *
+   * @param host host name
+   */
+  public void release(String host) {
+    final Circuit circuit = circuits.get(host);
+    if(null != circuit) {
+      circuit.release();
+    }
+  }
+
+  @Override
+  public void onRequestEnd(RequestEvents events) {
+    if(events.isCancelled()) {
+      // Let another request probe the host instead.
+      release(events.request.getHost());
+      return;
+    }
+    final Throwable error = events.getError();
+    if(error instanceof CircuitOpenException) {
+      return;
+    }
+
+    final int statusCode = events.getStatusCode();
+    final boolean isFailure = null != error &&
+      (0 == statusCode || 500 <= statusCode);
+
+    final String host = events.request.getHost();
+    Circuit circuit = circuits.get(host);
+    if(null == circuit) {
+      if(!isFailure) {
+        // Healthy hosts don't need a circuit.
+        return;
+      }
+      circuit = new Circuit(host);
+      final Circuit current = circuits.putIfAbsent(host, circuit);
+      if(null != current) {
+        circuit = current;
+      }
+    }
+    circuit.record(isFailure);
+  }
+
+  private void fireStateChanged(String host, State from, State to) {
+    final Listener current = listener;
+    if(null != current) {
+      current.onStateChanged(host, from, to);
+    }
+  }
+
+  private final class Circuit {
+
+    private final String host;
+    private final long[] epochs = new long[BUCKETS];
+    private final int[] totals = new int[BUCKETS];
+    private final int[] failures = new int[BUCKETS];
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private long probeUntil;
+    private int probesLeft;
+    private int probesPassed;
+
+    Circuit(String host) {
+      this.host = host;
+    }
+
+    synchronized State getState() {
+      return state;
+    }
+
+    boolean allowRequest() {
+      State from = null;
+      boolean isReopened = false;
+      boolean isAllowed;
+      synchronized(this) {
+        final long now = System.currentTimeMillis();
+        if(State.HALF_OPEN == state && 0 == probesLeft && now >= probeUntil) {
+          // The probes never reported back; open again to send new ones.
+          state = State.OPEN;
+          openUntil = now;
+          isReopened = true;
+        }
+        switch(state) {
+          case OPEN:
+            if(now < openUntil) {
+              return false;
+            }
+            from = state;
+            state = State.HALF_OPEN;
+            probeUntil = now + openDuration;
+            probesLeft = probes;
+            probesPassed = 0;
+            // Fall through to claim a probe.
+
+          case HALF_OPEN:
+            isAllowed = 0 < probesLeft;
+            if(isAllowed) {
+              probesLeft--;
+            }
+            break;
+
+          default:
+            isAllowed = true;
+        }
+      }
+      if(isReopened) {
+        fireStateChanged(host, State.HALF_OPEN, State.OPEN);
+      }
+      if(null != from) {
+        fireStateChanged(host, from, State.HALF_OPEN);
+      }
+      return isAllowed;
+    }
+
+    synchronized void release() {
+      if(State.HALF_OPEN == state && probes > probesLeft + probesPassed) {
+        probesLeft++;
+      }
+    }
+
+    void record(boolean isFailure) {
+      final State from;
+      final State to;
+      synchronized(this) {
+        from = state;
+        switch(state) {
+          case HALF_OPEN:
+            if(isFailure) {
+              open();
+            } else if(probes <= ++probesPassed) {
+              state = State.CLOSED;
+              reset();
+            }
+            break;
+
+          case CLOSED:
+            add(isFailure);
+            int total = 0;
+            int failed = 0;
+            final long oldest =
+              System.currentTimeMillis() / (window / BUCKETS) - BUCKETS;
+            for(int index = 0; index < BUCKETS; index++) {
+              if(oldest < epochs[index]) {
+                total += totals[index];
+                failed += failures[index];
+              }
+            }
+            if(minRequests <= total && failureRate < failed / (double)total) {
+              open();
+            }
+            break;
+
+          default:
+            // Requests which were sent before the circuit opened.
+        }
+        to = state;
+      }
+      if(from != to) {
+        fireStateChanged(host, from, to);
+      }
+    }
+
+    private void add(boolean isFailure) {
+      final long epoch = System.currentTimeMillis() / (window / BUCKETS);
+      final int index = (int)(epoch % BUCKETS);
+      if(epoch != epochs[index]) {
+        epochs[index] = epoch;
+        totals[index] = 0;
+        failures[index] = 0;
+      }
+      totals[index]++;
+      if(isFailure) {
+        failures[index]++;
+      }
+    }
+
+    private void open() {
+      state = State.OPEN;
+      openUntil = System.currentTimeMillis() + openDuration;
+      reset();
+    }
+
+    private void reset() {
+      for(int index = 0; index < BUCKETS; index++) {
+        epochs[index] = 0;
+        totals[index] = 0;
+        failures[index] = 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,367 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of in-flight requests per host to a limit which adapts
+ * to the host's behavior (additive increase, multiplicative decrease). While
+ * the latency stays close to the host's usual one, a long-window average of
+ * every request's latency, the limit grows by about one request per
+ * round-trip. When the latency grows well beyond it, or
+ * requests fail, the limit is cut.
+ *
+ * Requests over the limit wait in the host's queue, and are sent in order as
+ * earlier requests end. Network errors and server errors (5xx) count as
+ * failures, while client errors (4xx) and cancellations don't.
+ *
+ * @see ActivityHttpClient#setConcurrencyLimiter(ConcurrencyLimiter)
+ */
+public class ConcurrencyLimiter extends RequestEventAdapter {
+
+  /**
+   * Default limit of a host which has no requests yet.
+   */
+  public final static int DEFAULT_INITIAL_LIMIT = 4;
+
+  /**
+   * Default lowest limit.
+   */
+  public final static int DEFAULT_MIN_LIMIT = 1;
+
+  /**
+   * Default highest limit.
+   */
+  public final static int DEFAULT_MAX_LIMIT = 32;
+
+  /**
+   * Default factor by which the usual latency may grow before the limit is
+   * cut.
+   */
+  public final static double DEFAULT_TOLERANCE = 2.0;
+
+  /**
+   * Default factor by which the limit is cut.
+   */
+  public final static double DEFAULT_BACKOFF = 0.75;
+
+  // Weight of each sample in the host's usual latency.
+  private final static double SMOOTHING = 1.0 / 32;
+
+  private final ConcurrentHashMap<String, Gate> gates =
+    new ConcurrentHashMap();
+
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private final double backoff;
+
+  /**
+   * Create a new concurrency limiter using the default parameters.
+   */
+  public ConcurrencyLimiter() {
+    this(
+      DEFAULT_INITIAL_LIMIT,
+      DEFAULT_MIN_LIMIT,
+      DEFAULT_MAX_LIMIT,
+      DEFAULT_TOLERANCE,
+      DEFAULT_BACKOFF
+    );
+  }
+
+  /**
+   * Create a new concurrency limiter.
+   *
+   * @param initialLimit limit of a host which has no requests yet
+   * @param minLimit lowest limit
+   * @param maxLimit highest limit
+   * @param tolerance factor by which the usual latency may grow before the
+   * limit is cut, above 1.0
+   * @param backoff factor by which the limit is cut, between 0.0 and 1.0
+   */
+  public ConcurrencyLimiter(
+    int initialLimit,
+    int minLimit,
+    int maxLimit,
+    double tolerance,
+    double backoff
+  ) {
+    if(
+      0 >= minLimit ||
+      minLimit > initialLimit ||
+      initialLimit > maxLimit ||
+      1 >= tolerance ||
+      0 >= backoff ||
+      1 <= backoff
+    ) {
+      throw new IllegalArgumentException("Invalid limiter parameters.");
+    }
+    this.initialLimit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.tolerance = tolerance;
+    this.backoff = backoff;
+  }
+
+  /**
+   * Returns the current limit of the specified host.
+   *
+   * @param host host name
+   * @return number of requests which may be in flight at once
+   */
+  public int getLimit(String host) {
+    final Gate gate = gates.get(host);
+    return null == gate ? initialLimit : gate.getLimit();
+  }
+
+  /**
+   * Returns the number of in-flight requests to the specified host.
+   *
+   * @param host host name
+   * @return number of in-flight requests
+   */
+  public int getInFlight(String host) {
+    final Gate gate = gates.get(host);
+    return null == gate ? 0 : gate.inFlight.get();
+  }
+
+  /**
+   * Returns a snapshot of the state of every host, sorted by host name.
+   *
+   * @return snapshot of every host's state
+   */
+  public Map<String, Snapshot> snapshot() {
+    final TreeMap<String, Snapshot> snapshots = new TreeMap();
+    for(final Map.Entry<String, Gate> entry : gates.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots;
+  }
+
+  /**
+   * Exports a snapshot of the state of every host as plain text, one line
+   * per host.
+   *
+   * @return state as plain text
+   */
+  public String toText() {
+    final StringBuilder text = new StringBuilder(256);
+    for(final Map.Entry<String, Snapshot> entry : snapshot().entrySet()) {
+      final Snapshot snapshot = entry.getValue();
+      text
+        .append("limit ").append(entry.getKey())
+        .append(" limit=").append(snapshot.limit)
+        .append(" inflight=").append(snapshot.inFlight)
+        .append(" queued=").append(snapshot.queued)
+        .append(" rtt_us=").append(snapshot.rttMicros)
+        .append('\n');
+    }
+    return text.toString();
+  }
+
+  @Override
+  public void onRequestEnd(RequestEvents events) {
+    final Gate gate = events.permit;
+    if(null == gate) {
+      return;
+    }
+    events.permit = null;
+
+    if(!events.isCancelled()) {
+      final long end = 0 == events.getResponseHeadersNanos()
+        ? events.getEndNanos()
+        : events.getResponseHeadersNanos();
+      final int statusCode = events.getStatusCode();
+      gate.sample(
+        end - events.getStartNanos(),
+        null != events.getError() && (0 == statusCode || 500 <= statusCode)
+      );
+    }
+    gate.release();
+  }
+
+  /**
+   * Returns the gate which admits requests to the specified host.
+   *
+   * @param host host name
+   * @return gate of the host
+   */
+  Gate gateOf(String host) {
+    Gate gate = gates.get(host);
+    if(null == gate) {
+      final Gate created = new Gate();
+      gate = gates.putIfAbsent(host, created);
+      if(null == gate) {
+        gate = created;
+      }
+    }
+    return gate;
+  }
+
+  /**
+   * The state of a host at the time a snapshot was taken.
+   */
+  public final static class Snapshot {
+
+    /**
+     * Number of requests which may be in flight at once.
+     */
+    public final int limit;
+
+    /**
+     * Number of in-flight requests.
+     */
+    public final int inFlight;
+
+    /**
+     * Number of requests waiting for their turn.
+     */
+    public final int queued;
+
+    /**
+     * Usual latency of the host, in microseconds.
+     */
+    public final long rttMicros;
+
+    Snapshot(int limit, int inFlight, int queued, long rttMicros) {
+      this.limit = limit;
+      this.inFlight = inFlight;
+      this.queued = queued;
+      this.rttMicros = rttMicros;
+    }
+  }
+
+  /**
+   * Admits requests to a host while they're within its limit.
+   */
+  final class Gate {
+
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    private final ConcurrentLinkedQueue<Runnable> waiting =
+      new ConcurrentLinkedQueue();
+
+    private volatile double limit = initialLimit;
+
+    // Guarded by "this".
+    private double rtt;
+    private long lastCut;
+
+    int getLimit() {
+      return (int)limit;
+    }
+
+    /**
+     * Takes a slot if one is free.
+     *
+     * @return TRUE if a slot was taken, FALSE otherwise
+     */
+    boolean tryAcquire() {
+      while(true) {
+        final int current = inFlight.get();
+        if(current >= (int)limit) {
+          return false;
+        }
+        if(inFlight.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Queues the specified task, which runs once it takes a free slot.
+     *
+     * @param task to run holding a slot
+     */
+    void enqueue(Runnable task) {
+      waiting.offer(task);
+      drain();
+    }
+
+    /**
+     * Frees a slot, letting the next queued task take it.
+     */
+    void release() {
+      inFlight.decrementAndGet();
+      drain();
+    }
+
+    synchronized void sample(long nanos, boolean isFailed) {
+      final long now = System.nanoTime();
+      final double usual = rtt;
+
+      // Every completed request moves the usual latency, slow ones included,
+      // so it follows a lasting change (ex. from WiFi to mobile) rather than
+      // keeping the limit at its minimum for good.
+      if(!isFailed) {
+        rtt = 0 == usual ? nanos : usual + (nanos - usual) * SMOOTHING;
+      }
+
+      if(isFailed || (0 < usual && nanos > usual * tolerance)) {
+        // Cut once per round-trip at most, a burst of bad samples being a
+        // single congestion event.
+        if(0 == lastCut || now - lastCut > usual) {
+          limit = Math.max(minLimit, limit * backoff);
+          lastCut = now;
+        }
+        return;
+      }
+
+      if(inFlight.get() * 2 >= (int)limit) {
+        // Only grow while the limit is being used.
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+    }
+
+    synchronized Snapshot snapshot() {
+      return new Snapshot(
+        (int)limit,
+        inFlight.get(),
+        waiting.size(),
+        (long)rtt / 1000
+      );
+    }
+
+    private void drain() {
+      while(!waiting.isEmpty() && tryAcquire()) {
+        final Runnable task = waiting.poll();
+        if(null == task) {
+          inFlight.decrementAndGet();
+        } else {
+          task.run();
+        }
+      }
+    }
+  }
+}
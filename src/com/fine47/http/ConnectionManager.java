@@ -0,0 +1,96 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+
+/**
+ * A thread-safe connection manager which opens connections through a
+ * {@link ConnectionOperator}. This is an internal class.
+ */
+class ConnectionManager extends ThreadSafeClientConnManager {
+
+  ConnectionManager(HttpParams params, SchemeRegistry schemeRegistry) {
+    super(params, schemeRegistry);
+  }
+
+  @Override
+  protected ClientConnectionOperator createConnectionOperator(
+    SchemeRegistry schemeRegistry
+  ) {
+    return new ConnectionOperator(schemeRegistry);
+  }
+
+  /**
+   * Opens a connection for the specified route, unless an idle one is pooled
+   * already, and parks it in the pool for a limited time.
+   *
+   * @param route route to open the connection for
+   * @param params parameters of the connection
+   * @param idleTimeout how long the connection may stay idle in the pool, in
+   * milliseconds
+   * @throws IOException if the connection cannot be opened
+   * @throws InterruptedException if interrupted while waiting for the pool
+   */
+  void preconnect(HttpRoute route, HttpParams params, long idleTimeout)
+    throws IOException, InterruptedException
+  {
+    final ManagedClientConnection conn = requestConnection(route, null)
+      .getConnection(
+        HttpConnectionParams.getConnectionTimeout(params),
+        TimeUnit.MILLISECONDS
+      );
+    try {
+      if(!conn.isOpen()) {
+        conn.open(route, new BasicHttpContext(), params);
+      }
+      conn.markReusable();
+    } finally {
+      // Connections which failed to open aren't reusable, so they're closed.
+      releaseConnection(conn, idleTimeout, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Returns the operator which opens this manager's connections.
+   *
+   * @return connection operator
+   */
+  ConnectionOperator getOperator() {
+    return (ConnectionOperator)connOperator;
+  }
+}
@@ -0,0 +1,260 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import javax.net.ssl.SSLSocket;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Opens connections in distinct, observable steps: host name resolution, TCP
+ * connect and, for secure schemes, the TLS handshake over the connected
+ * socket. Each step is reported to the {@link RequestEvents} of the request
+ * running on the current thread, if any. This is an internal class.
+ */
+class ConnectionOperator extends DefaultClientConnectionOperator {
+
+  private volatile DnsResolver resolver = DnsResolver.SYSTEM;
+
+  ConnectionOperator(SchemeRegistry schemeRegistry) {
+    super(schemeRegistry);
+  }
+
+  @Override
+  public void openConnection(
+    OperatedClientConnection conn,
+    HttpHost target,
+    InetAddress local,
+    HttpContext context,
+    HttpParams params
+  ) throws IOException {
+    if(null == conn || null == target || null == params) {
+      throw new IllegalArgumentException(
+        "Connection, target host and parameters must not be null.");
+    }
+
+    final Scheme scheme = schemeRegistry.getScheme(target.getSchemeName());
+    final SocketFactory factory = scheme.getSocketFactory();
+    final String host = target.getHostName();
+    final int port = scheme.resolvePort(target.getPort());
+    final RequestEvents events = RequestEvents.current();
+
+    if(null != events) {
+      events.dnsStart();
+    }
+    final InetAddress[] addresses = resolve(host);
+    if(null != events) {
+      events.dnsEnd();
+    }
+
+    for(int index = 0; index < addresses.length; index++) {
+      try {
+        if(factory instanceof LayeredSocketFactory) {
+          openSecure(
+            conn,
+            target,
+            (LayeredSocketFactory)factory,
+            addresses[index],
+            port,
+            local,
+            context,
+            params,
+            events
+          );
+        } else {
+          openPlain(
+            conn,
+            target,
+            factory,
+            addresses[index],
+            port,
+            local,
+            context,
+            params,
+            events
+          );
+        }
+        return;
+      } catch(ConnectException error) {
+        if(addresses.length - 1 == index) {
+          throw error;
+        }
+      } catch(ConnectTimeoutException error) {
+        if(addresses.length - 1 == index) {
+          throw error;
+        }
+      }
+    }
+  }
+
+  /**
+   * Resolves the specified host name to its addresses.
+   *
+   * @param host name to resolve
+   * @return addresses of the host
+   * @throws IOException when the host name cannot be resolved
+   */
+  InetAddress[] resolve(String host) throws IOException {
+    return resolver.resolve(host);
+  }
+
+  /**
+   * Sets the resolver which resolves host names of new connections.
+   *
+   * @param resolver DNS resolver
+   */
+  void setResolver(DnsResolver resolver) {
+    this.resolver = resolver;
+  }
+
+  /**
+   * Returns the resolver which resolves host names of new connections.
+   *
+   * @return DNS resolver
+   */
+  DnsResolver getResolver() {
+    return resolver;
+  }
+
+  private void openPlain(
+    OperatedClientConnection conn,
+    HttpHost target,
+    SocketFactory factory,
+    InetAddress address,
+    int port,
+    InetAddress local,
+    HttpContext context,
+    HttpParams params,
+    RequestEvents events
+  ) throws IOException {
+    Socket socket = factory.createSocket();
+    conn.opening(socket, target);
+
+    if(null != events) {
+      events.connectStart();
+    }
+    final Socket connected = factory.connectSocket(
+      socket,
+      address.getHostAddress(),
+      port,
+      local,
+      0,
+      params
+    );
+    if(null != events) {
+      events.connectEnd();
+    }
+
+    if(socket != connected) {
+      socket = connected;
+      conn.opening(socket, target);
+    }
+    prepareSocket(socket, context, params);
+    conn.openCompleted(factory.isSecure(socket), params);
+  }
+
+  private void openSecure(
+    OperatedClientConnection conn,
+    HttpHost target,
+    LayeredSocketFactory factory,
+    InetAddress address,
+    int port,
+    InetAddress local,
+    HttpContext context,
+    HttpParams params,
+    RequestEvents events
+  ) throws IOException {
+    // Connect a plain socket first, so the TCP connect and the TLS handshake
+    // can be told apart.
+    final PlainSocketFactory plainFactory =
+      PlainSocketFactory.getSocketFactory();
+    Socket socket = plainFactory.createSocket();
+    conn.opening(socket, target);
+
+    if(null != events) {
+      events.connectStart();
+    }
+    final Socket connected = plainFactory.connectSocket(
+      socket,
+      address.getHostAddress(),
+      port,
+      local,
+      0,
+      params
+    );
+    if(null != events) {
+      events.connectEnd();
+    }
+
+    if(socket != connected) {
+      socket = connected;
+      conn.opening(socket, target);
+    }
+
+    // Don't let a stalled peer hold the handshake up forever.
+    socket.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+
+    if(null != events) {
+      events.tlsStart();
+    }
+    final String host = target.getHostName();
+    final Socket secure = factory.createSocket(socket, host, port, true);
+    conn.opening(secure, target);
+    if(secure instanceof SSLSocket) {
+      ((SSLSocket)secure).startHandshake();
+
+      // Layering alone doesn't verify the host name for all factories.
+      if(factory instanceof SSLSocketFactory) {
+        ((SSLSocketFactory)factory)
+          .getHostnameVerifier()
+          .verify(host, (SSLSocket)secure);
+      }
+    }
+    if(null != events) {
+      events.tlsEnd();
+    }
+
+    prepareSocket(secure, context, params);
+    conn.openCompleted(factory.isSecure(secure), params);
+  }
+}
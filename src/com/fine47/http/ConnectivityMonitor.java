@@ -0,0 +1,306 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executor;
+
+/**
+ * Tracks the device's network state by listening for connectivity changes,
+ * rather than querying the system on every call. The current state is an
+ * immutable {@link NetworkState} which is swapped atomically on each change,
+ * so reading it is as cheap as reading a volatile field.
+ *
+ * Listeners are notified of changes on the thread which detected them: the
+ * main thread for system broadcasts, the thread which called
+ * {@link #refresh()} or {@link #start()}, or the executor passed to
+ * {@link #start(Executor)}.
+ *
+ * A network which is still connecting counts as connected already, so
+ * requests may be sent as soon as it's up.
+ *
+ * The system only holds on to the monitor weakly, so a monitor which is no
+ * longer used (along with its listeners) can be collected even if it was
+ * never stopped.
+ */
+public class ConnectivityMonitor {
+
+  /**
+   * A listener which is notified when the network state changes.
+   */
+  public static interface Listener {
+
+    /**
+     * Called when the network state changes.
+     *
+     * @param previous previous network state
+     * @param current current network state
+     */
+    public void onNetworkChanged(NetworkState previous, NetworkState current);
+  }
+
+  private final Context ctx;
+  private final BroadcastReceiver receiver;
+
+  private volatile NetworkState state = NetworkState.OFFLINE;
+  private volatile Listener[] listeners;
+  private boolean isStarted;
+
+  /**
+   * Create a new connectivity monitor for the specified context. Without a
+   * context, the network state is never known and remains offline.
+   *
+   * @param ctx context to monitor the network state for, may be NULL
+   */
+  public ConnectivityMonitor(Context ctx) {
+    final Context appCtx = null == ctx ? null : ctx.getApplicationContext();
+    this.ctx = null == appCtx ? ctx : appCtx;
+    receiver = new Receiver(this.ctx, this);
+  }
+
+  /**
+   * Starts listening for connectivity changes, and queries the current
+   * network state right away on the calling thread.
+   */
+  public void start() {
+    if(register()) {
+      // Don't report being offline until the first broadcast arrives.
+      refresh();
+    }
+  }
+
+  /**
+   * Starts listening for connectivity changes, and queries the current
+   * network state right away on the specified executor, so as not to block
+   * the calling thread (ex. the main thread).
+   *
+   * @param executor to query the current network state on
+   */
+  public void start(Executor executor) {
+    if(register()) {
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          refresh();
+        }
+      });
+    }
+  }
+
+  private synchronized boolean register() {
+    if(isStarted || null == ctx) {
+      return false;
+    }
+    ctx.registerReceiver(
+      receiver,
+      new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION)
+    );
+    isStarted = true;
+    return true;
+  }
+
+  /**
+   * Stops listening for connectivity changes.
+   */
+  public synchronized void stop() {
+    if(isStarted) {
+      ctx.unregisterReceiver(receiver);
+      isStarted = false;
+    }
+  }
+
+  /**
+   * Returns the current network state.
+   *
+   * @return current network state
+   */
+  public NetworkState getState() {
+    return state;
+  }
+
+  /**
+   * Adds a listener to be notified of network state changes.
+   *
+   * @param listener listener to add
+   */
+  public synchronized void addListener(Listener listener) {
+    final Listener[] current = listeners;
+    final int count = null == current ? 0 : current.length;
+    final Listener[] updated = new Listener[count + 1];
+    if(0 < count) {
+      System.arraycopy(current, 0, updated, 0, count);
+    }
+    updated[count] = listener;
+    listeners = updated;
+  }
+
+  /**
+   * Removes a previously-added listener.
+   *
+   * @param listener listener to remove
+   */
+  public synchronized void removeListener(Listener listener) {
+    final Listener[] current = listeners;
+    if(null == current) {
+      return;
+    }
+    for(int index = 0; index < current.length; index++) {
+      if(listener == current[index]) {
+        if(1 == current.length) {
+          listeners = null;
+        } else {
+          final Listener[] updated = new Listener[current.length - 1];
+          System.arraycopy(current, 0, updated, 0, index);
+          System.arraycopy(
+            current,
+            index + 1,
+            updated,
+            index,
+            updated.length - index
+          );
+          listeners = updated;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Queries the system for the network state, and notifies listeners if it
+   * has changed.
+   *
+   * @return current network state
+   */
+  public NetworkState refresh() {
+    final NetworkState current = query();
+    final NetworkState previous;
+    synchronized(this) {
+      previous = state;
+      state = current;
+    }
+
+    if(!current.equals(previous)) {
+      if(ActivityHttpClient.isDebugging()) {
+        Log.d(ActivityHttpClient.LOG_TAG, "Network changed: " + current);
+      }
+      final Listener[] targets = listeners;
+      if(null != targets) {
+        for(final Listener listener : targets) {
+          listener.onNetworkChanged(previous, current);
+        }
+      }
+    }
+
+    return current;
+  }
+
+  private NetworkState query() {
+    try {
+      final ConnectivityManager cm = (ConnectivityManager)ctx
+        .getSystemService(Context.CONNECTIVITY_SERVICE);
+      final NetworkInfo info = cm.getActiveNetworkInfo();
+      if(
+        null == info ||
+        !info.isAvailable() ||
+        !info.isConnectedOrConnecting()
+      ) {
+        return NetworkState.OFFLINE;
+      }
+
+      final NetworkState.TYPE type;
+      switch(info.getType()) {
+        case ConnectivityManager.TYPE_WIFI:
+          type = NetworkState.TYPE.WIFI;
+          break;
+
+        case ConnectivityManager.TYPE_MOBILE:
+          type = NetworkState.TYPE.MOBILE;
+          break;
+
+        default:
+          type = NetworkState.TYPE.OTHER;
+      }
+
+      // Metered networks are only reported since Jelly Bean; assume mobile
+      // networks are metered before that.
+      final boolean isMetered = 16 <= android.os.Build.VERSION.SDK_INT
+        ? cm.isActiveNetworkMetered()
+        : NetworkState.TYPE.MOBILE == type;
+
+      return new NetworkState(type, isMetered, info.isRoaming());
+    } catch(Throwable error) {
+      if(ActivityHttpClient.isDebugging()) {
+        Log.e(
+          ActivityHttpClient.LOG_TAG,
+          "Error while detecting network status.",
+          error
+        );
+      }
+      return state;
+    }
+  }
+
+  /**
+   * Receives connectivity broadcasts for a monitor, without keeping it (and
+   * whatever its listeners reference, ex. an Activity) from being collected.
+   */
+  private final static class Receiver extends BroadcastReceiver {
+
+    private final Context ctx;
+    private final WeakReference<ConnectivityMonitor> monitor;
+
+    Receiver(Context ctx, ConnectivityMonitor monitor) {
+      this.ctx = ctx;
+      this.monitor = new WeakReference(monitor);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+      final ConnectivityMonitor current = monitor.get();
+      if(null != current) {
+        current.refresh();
+        return;
+      }
+
+      // The monitor is gone without having been stopped.
+      try {
+        ctx.unregisterReceiver(this);
+      } catch(IllegalArgumentException ignored) {
+        // Already unregistered.
+      }
+    }
+  }
+}
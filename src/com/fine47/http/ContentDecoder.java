@@ -0,0 +1,61 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes response bodies which have been encoded using a specific content
+ * coding (the value of the "Content-Encoding" header). Decoders registered
+ * with {@link ActivityHttpClient#registerContentDecoder(ContentDecoder)} are
+ * advertised in the "Accept-Encoding" header of every request, and responses
+ * are decoded while they are being received.
+ *
+ * GZIP is always supported by the underlying HTTP client and needs no
+ * decoder.
+ */
+public interface ContentDecoder {
+
+  /**
+   * Returns the content coding which this decoder handles, as advertised in
+   * the "Accept-Encoding" header (ex. "br").
+   *
+   * @return content coding token
+   */
+  public String getEncoding();
+
+  /**
+   * Returns a stream which decodes the specified encoded stream.
+   *
+   * @param input encoded stream
+   * @return decoded stream
+   * @throws IOException when the stream cannot be decoded
+   */
+  public InputStream decode(InputStream input) throws IOException;
+}
@@ -0,0 +1,148 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds back deferrable requests on mobile networks, so they are sent in
+ * batches rather than waking up the radio one by one. A batch is sent along
+ * with the next request which wakes up the radio anyway, once the earliest
+ * deadline of its requests expires, or when WiFi becomes available.
+ *
+ * This is an internal class.
+ */
+final class DeferredQueue implements Runnable {
+
+  private final ActivityHttpClient client;
+
+  private ArrayList<AbstractResponseWrapper> pending = new ArrayList();
+  private ScheduledFuture timer;
+  private long deadline;
+
+  DeferredQueue(ActivityHttpClient client) {
+    this.client = client;
+  }
+
+  /**
+   * Holds back the specified handler's request for the specified delay at
+   * most.
+   *
+   * @param handler handler whose request is being dispatched
+   * @param maxDelay maximum delay of the request, in milliseconds
+   * @return TRUE if the request is held back, FALSE if it must be sent now
+   */
+  boolean defer(AbstractResponseWrapper handler, long maxDelay) {
+    final long due =
+      System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+    synchronized(this) {
+      pending.add(handler);
+      if(null != timer && 0 <= due - deadline) {
+        return true;
+      }
+      if(null != timer) {
+        timer.cancel(false);
+      }
+      try {
+        timer = client.getScheduler().schedule(
+          this,
+          maxDelay,
+          TimeUnit.MILLISECONDS
+        );
+        deadline = due;
+      } catch(RejectedExecutionException ignored) {
+        // The client is shutting down.
+        timer = null;
+        pending.remove(pending.size() - 1);
+        return false;
+      }
+    }
+    if(ActivityHttpClient.isDebugging()) {
+      Log.d(
+        ActivityHttpClient.LOG_TAG,
+        "Deferred for " + maxDelay + "ms at most: " + handler.request.url
+      );
+    }
+    return true;
+  }
+
+  @Override
+  public void run() {
+    flush();
+  }
+
+  /**
+   * Sends all held back requests right away.
+   */
+  void flush() {
+    final ArrayList<AbstractResponseWrapper> batch = take();
+    if(null == batch) {
+      return;
+    }
+    if(ActivityHttpClient.isDebugging()) {
+      Log.d(
+        ActivityHttpClient.LOG_TAG,
+        "Sending " + batch.size() + " deferred request(s)."
+      );
+    }
+    for(final AbstractResponseWrapper handler : batch) {
+      if(!handler.future.isDone()) {
+        client.forward(handler.type, handler.request, handler);
+      }
+    }
+  }
+
+  /**
+   * Cancels all held back requests.
+   */
+  void cancel() {
+    final ArrayList<AbstractResponseWrapper> batch = take();
+    if(null != batch) {
+      for(final AbstractResponseWrapper handler : batch) {
+        handler.future.cancel(false);
+      }
+    }
+  }
+
+  private synchronized ArrayList<AbstractResponseWrapper> take() {
+    if(pending.isEmpty()) {
+      return null;
+    }
+    final ArrayList<AbstractResponseWrapper> batch = pending;
+    pending = new ArrayList();
+    if(null != timer) {
+      timer.cancel(false);
+      timer = null;
+    }
+    return batch;
+  }
+}
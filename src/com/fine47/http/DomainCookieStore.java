@@ -0,0 +1,658 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A cookie store which indexes cookies by registrable domain (ex.
+ * "example.co.uk" for "www.example.co.uk") and orders them by path. While a
+ * request is being prepared, only the cookies of its host's domain whose
+ * path matches are handed to the HTTP client, instead of every cookie in the
+ * store. Lookups don't lock, so any number of requests can read at once.
+ *
+ * Expiry dates are kept in a min-heap, so expired cookies are purged a few at
+ * a time along with lookups, and {@link #clearExpired(Date)} only visits the
+ * expired ones.
+ *
+ * Optionally, persistent cookies are saved to a file. Changes are written
+ * behind, in batches, a short while after they happen.
+ *
+ * The registrable domain is approximated without a public suffix list; it
+ * only affects how cookies are grouped, as the HTTP client's cookie spec
+ * still decides which cookies match a request.
+ */
+public class DomainCookieStore implements CookieStore {
+
+  /**
+   * Default time after a change until persistent cookies are saved, in
+   * milliseconds.
+   */
+  public final static int DEFAULT_WRITE_DELAY = 2000;
+
+  // Expired cookies purged along with each lookup, at most.
+  private final static int PURGE_BATCH = 8;
+
+  private final static int VERSION = 1;
+
+  private final static Cookie[] NO_COOKIES = new Cookie[0];
+
+  // Second-level labels under which country domains are registered.
+  private final static String[] SECOND_LEVELS = {
+    "ac", "co", "com", "edu", "go", "gov", "ne", "net", "or", "org"
+  };
+
+  private final static Comparator<Cookie> EXPIRY_ORDER =
+    new Comparator<Cookie>() {
+
+      @Override
+      public int compare(Cookie first, Cookie second) {
+        final long left = first.getExpiryDate().getTime();
+        final long right = second.getExpiryDate().getTime();
+        return left < right ? -1 : (left == right ? 0 : 1);
+      }
+    };
+
+  // The host and path of the request which is being prepared.
+  private final static ThreadLocal<String[]> origin = new ThreadLocal();
+
+  /**
+   * Interceptor which tells the store the origin of the request which is
+   * about to ask for its cookies. It must run before the HTTP client's own
+   * cookie interceptor.
+   */
+  final static HttpRequestInterceptor ORIGIN = new HttpRequestInterceptor() {
+
+    @Override
+    public void process(HttpRequest request, HttpContext context)
+      throws HttpException, IOException
+    {
+      final HttpHost target =
+        (HttpHost)context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+      if(null == target) {
+        origin.remove();
+        return;
+      }
+      final String path = request instanceof HttpUriRequest
+        ? ((HttpUriRequest)request).getURI().getPath()
+        : null;
+      origin.set(new String[] {
+        target.getHostName().toLowerCase(Locale.US),
+        null == path || 0 == path.length() ? "/" : path
+      });
+    }
+  };
+
+  private final ConcurrentHashMap<String, Domain> domains =
+    new ConcurrentHashMap();
+
+  private final ReentrantLock expiryLock = new ReentrantLock();
+  private final PriorityQueue<Cookie> expiries =
+    new PriorityQueue(64, EXPIRY_ORDER);
+  private int expiring;
+
+  private final File file;
+  private final int writeDelay;
+  private final Object saving = new Object();
+  private ScheduledExecutorService writer;
+  private boolean isWriting;
+
+  /**
+   * Create a new cookie store which keeps cookies in memory only.
+   */
+  public DomainCookieStore() {
+    this(null, DEFAULT_WRITE_DELAY);
+  }
+
+  /**
+   * Create a new cookie store which saves persistent cookies to the
+   * specified file, after the default delay.
+   *
+   * @param file to load and save persistent cookies
+   */
+  public DomainCookieStore(File file) {
+    this(file, DEFAULT_WRITE_DELAY);
+  }
+
+  /**
+   * Create a new cookie store which saves persistent cookies to the
+   * specified file, after the specified delay.
+   *
+   * @param file to load and save persistent cookies, NULL to keep them in
+   * memory only
+   * @param writeDelay time after a change until cookies are saved, in
+   * milliseconds
+   */
+  public DomainCookieStore(File file, int writeDelay) {
+    if(0 > writeDelay) {
+      throw new IllegalArgumentException("Invalid cookie store parameters.");
+    }
+    this.file = file;
+    this.writeDelay = writeDelay;
+    if(null != file) {
+      load();
+    }
+  }
+
+  @Override
+  public void addCookie(Cookie cookie) {
+    if(null == cookie) {
+      return;
+    }
+    put(cookie);
+    if(cookie.isPersistent()) {
+      changed();
+    }
+  }
+
+  /**
+   * Returns the cookies of the request which is being prepared on this
+   * thread, if any, or all cookies of the store otherwise.
+   *
+   * @return list of cookies
+   */
+  @Override
+  public List<Cookie> getCookies() {
+    final String[] request = origin.get();
+    if(null == request) {
+      final ArrayList<Cookie> cookies = new ArrayList();
+      for(final Domain domain : domains.values()) {
+        Collections.addAll(cookies, domain.cookies);
+      }
+      return cookies;
+    }
+
+    // The origin is only good for the lookup it was meant for.
+    origin.remove();
+    final long now = System.currentTimeMillis();
+    purge(now, PURGE_BATCH, false);
+
+    final Domain domain = domains.get(getRegistrableDomain(request[0]));
+    if(null == domain) {
+      return Collections.emptyList();
+    }
+    final String path = request[1];
+    final ArrayList<Cookie> cookies = new ArrayList();
+    for(final Cookie cookie : domain.cookies) {
+      final String cookiePath = cookie.getPath();
+      final Date expiry = cookie.getExpiryDate();
+      if(
+        (null == cookiePath || path.startsWith(cookiePath)) &&
+        (null == expiry || expiry.getTime() > now)
+      ) {
+        cookies.add(cookie);
+      }
+    }
+    return cookies;
+  }
+
+  @Override
+  public boolean clearExpired(Date date) {
+    if(null == date) {
+      return false;
+    }
+    return purge(date.getTime(), Integer.MAX_VALUE, true);
+  }
+
+  @Override
+  public void clear() {
+    expiryLock.lock();
+    try {
+      domains.clear();
+      expiries.clear();
+      expiring = 0;
+    } finally {
+      expiryLock.unlock();
+    }
+    changed();
+  }
+
+  /**
+   * Returns the number of cookies in this store.
+   *
+   * @return number of cookies
+   */
+  public int size() {
+    int size = 0;
+    for(final Domain domain : domains.values()) {
+      size += domain.cookies.length;
+    }
+    return size;
+  }
+
+  /**
+   * Saves persistent cookies right away, if this store has a file.
+   */
+  public void flush() {
+    if(null == file) {
+      return;
+    }
+    synchronized(this) {
+      isWriting = false;
+    }
+    save();
+  }
+
+  /**
+   * Saves any pending changes and stops the background writer.
+   */
+  public void close() {
+    flush();
+    synchronized(this) {
+      if(null != writer) {
+        writer.shutdown();
+        writer = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the registrable domain of the specified host name or cookie
+   * domain, approximated by its last two labels, or three for registrations
+   * under a country's second level (ex. "co.uk").
+   *
+   * @param host host name or cookie domain
+   * @return registrable domain, in lower case
+   */
+  public static String getRegistrableDomain(String host) {
+    if(null == host) {
+      return "";
+    }
+    final int start = host.startsWith(".") ? 1 : 0;
+    final int last = host.lastIndexOf('.');
+    if(last <= start || -1 != host.indexOf(':') || isNumeric(host, last)) {
+      // No dots, an IPv6 or an IPv4 address.
+      return host.substring(start).toLowerCase(Locale.US);
+    }
+    final int second = host.lastIndexOf('.', last - 1);
+    if(second < start) {
+      return host.substring(start).toLowerCase(Locale.US);
+    }
+    int from = second + 1;
+    if(2 == host.length() - last - 1) {
+      final String label = host.substring(second + 1, last);
+      for(final String secondLevel : SECOND_LEVELS) {
+        if(secondLevel.equalsIgnoreCase(label)) {
+          from = Math.max(start, host.lastIndexOf('.', second - 1) + 1);
+          break;
+        }
+      }
+    }
+    return host.substring(from).toLowerCase(Locale.US);
+  }
+
+  private void put(Cookie cookie) {
+    final String key = getRegistrableDomain(cookie.getDomain());
+    Domain domain = domains.get(key);
+    if(null == domain) {
+      final Domain created = new Domain();
+      domain = domains.putIfAbsent(key, created);
+      if(null == domain) {
+        domain = created;
+      }
+    }
+
+    // An expired cookie only removes the one it replaces.
+    final Date expiry = cookie.getExpiryDate();
+    final boolean isExpired =
+      null != expiry && expiry.getTime() <= System.currentTimeMillis();
+    final Cookie replaced = domain.put(cookie, isExpired);
+    final boolean wasExpiring =
+      null != replaced && null != replaced.getExpiryDate();
+    final boolean isExpiring = null != expiry && !isExpired;
+    if(wasExpiring || isExpiring) {
+      expiryLock.lock();
+      try {
+        // The replaced cookie stays in the heap, but no longer counts.
+        if(wasExpiring) {
+          expiring--;
+        }
+        if(isExpiring) {
+          expiries.offer(cookie);
+          expiring++;
+          compactExpiries();
+        }
+      } finally {
+        expiryLock.unlock();
+      }
+    }
+  }
+
+  private boolean purge(long now, int limit, boolean isWaiting) {
+    if(isWaiting) {
+      expiryLock.lock();
+    } else if(!expiryLock.tryLock()) {
+      // Someone else is purging already.
+      return false;
+    }
+
+    boolean isPurged = false;
+    try {
+      Cookie cookie;
+      while(
+        0 < limit-- &&
+        null != (cookie = expiries.peek()) &&
+        cookie.getExpiryDate().getTime() <= now
+      ) {
+        expiries.poll();
+        final Domain domain =
+          domains.get(getRegistrableDomain(cookie.getDomain()));
+        if(null != domain && domain.remove(cookie)) {
+          expiring--;
+          isPurged = true;
+        }
+      }
+    } finally {
+      expiryLock.unlock();
+    }
+    return isPurged;
+  }
+
+  private void compactExpiries() {
+    // Replaced cookies stay in the heap until they expire; rebuild it when
+    // they outnumber the live ones.
+    if(expiries.size() <= (expiring << 1) + 64) {
+      return;
+    }
+    expiries.clear();
+    expiring = 0;
+    for(final Domain domain : domains.values()) {
+      for(final Cookie cookie : domain.cookies) {
+        if(null != cookie.getExpiryDate()) {
+          expiries.offer(cookie);
+          expiring++;
+        }
+      }
+    }
+  }
+
+  private void changed() {
+    if(null == file) {
+      return;
+    }
+    synchronized(this) {
+      if(isWriting) {
+        return;
+      }
+      isWriting = true;
+      if(null == writer) {
+        writer = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              final Thread thread = new Thread(
+                runnable,
+                ActivityHttpClient.LOG_TAG + "-cookies"
+              );
+              thread.setDaemon(true);
+              return thread;
+            }
+          }
+        );
+      }
+      writer.schedule(
+        new Runnable() {
+
+          @Override
+          public void run() {
+            flush();
+          }
+        },
+        writeDelay,
+        TimeUnit.MILLISECONDS
+      );
+    }
+  }
+
+  private void save() {
+    synchronized(saving) {
+      write();
+    }
+  }
+
+  private void write() {
+    final long now = System.currentTimeMillis();
+    final ArrayList<Cookie> cookies = new ArrayList();
+    for(final Domain domain : domains.values()) {
+      for(final Cookie cookie : domain.cookies) {
+        final Date expiry = cookie.getExpiryDate();
+        if(null != expiry && expiry.getTime() > now) {
+          cookies.add(cookie);
+        }
+      }
+    }
+
+    final File temp = new File(file.getPath() + ".tmp");
+    try {
+      final FileOutputStream tempFile = new FileOutputStream(temp);
+      final DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(tempFile)
+      );
+      try {
+        output.writeInt(VERSION);
+        output.writeInt(cookies.size());
+        for(final Cookie cookie : cookies) {
+          output.writeUTF(cookie.getName());
+          writeString(output, cookie.getValue());
+          writeString(output, cookie.getDomain());
+          writeString(output, cookie.getPath());
+          writeString(output, cookie.getComment());
+          output.writeLong(cookie.getExpiryDate().getTime());
+          output.writeBoolean(cookie.isSecure());
+          output.writeInt(cookie.getVersion());
+        }
+        output.flush();
+        tempFile.getFD().sync();
+      } finally {
+        output.close();
+      }
+      if(!temp.renameTo(file)) {
+        throw new IOException("Cannot replace cookie file: " + file);
+      }
+    } catch(IOException error) {
+      if(ActivityHttpClient.isDebugging()) {
+        Log.e(ActivityHttpClient.LOG_TAG, "Cannot save cookies.", error);
+      }
+    }
+  }
+
+  private void load() {
+    if(!file.exists()) {
+      return;
+    }
+    try {
+      final DataInputStream input = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file))
+      );
+      try {
+        if(VERSION != input.readInt()) {
+          throw new IOException("Unknown cookie file version.");
+        }
+        final int count = input.readInt();
+        for(int index = 0; index < count; index++) {
+          final BasicClientCookie cookie = new BasicClientCookie(
+            input.readUTF(),
+            readString(input)
+          );
+          cookie.setDomain(readString(input));
+          cookie.setPath(readString(input));
+          cookie.setComment(readString(input));
+          cookie.setExpiryDate(new Date(input.readLong()));
+          cookie.setSecure(input.readBoolean());
+          cookie.setVersion(input.readInt());
+          put(cookie);
+        }
+      } finally {
+        input.close();
+      }
+    } catch(EOFException ignored) {
+      // A file cut short by a crash; keep what was read.
+    } catch(IOException error) {
+      if(ActivityHttpClient.isDebugging()) {
+        Log.e(ActivityHttpClient.LOG_TAG, "Cannot load cookies.", error);
+      }
+    }
+  }
+
+  private static boolean isNumeric(String host, int last) {
+    for(int index = last + 1; index < host.length(); index++) {
+      final char ch = host.charAt(index);
+      if('0' > ch || '9' < ch) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeString(DataOutputStream output, String value)
+    throws IOException
+  {
+    output.writeBoolean(null != value);
+    if(null != value) {
+      output.writeUTF(value);
+    }
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    return input.readBoolean() ? input.readUTF() : null;
+  }
+
+  /**
+   * The cookies of a registrable domain, longest paths first. Readers get the
+   * current array without locking; writers replace it.
+   */
+  private final static class Domain {
+
+    volatile Cookie[] cookies = NO_COOKIES;
+
+    synchronized Cookie put(Cookie cookie, boolean isRemoveOnly) {
+      final Cookie[] current = cookies;
+      final ArrayList<Cookie> updated = new ArrayList(current.length + 1);
+      Cookie replaced = null;
+      for(final Cookie existing : current) {
+        if(isSame(existing, cookie)) {
+          replaced = existing;
+        } else {
+          updated.add(existing);
+        }
+      }
+      if(!isRemoveOnly) {
+        // Keep longer, more specific paths first.
+        final int length = lengthOf(cookie.getPath());
+        int index = 0;
+        while(
+          index < updated.size() &&
+          lengthOf(updated.get(index).getPath()) >= length
+        ) {
+          index++;
+        }
+        updated.add(index, cookie);
+      }
+      cookies = updated.toArray(new Cookie[updated.size()]);
+      return replaced;
+    }
+
+    synchronized boolean remove(Cookie cookie) {
+      final Cookie[] current = cookies;
+      for(int index = 0; index < current.length; index++) {
+        if(cookie == current[index]) {
+          final Cookie[] updated = new Cookie[current.length - 1];
+          System.arraycopy(current, 0, updated, 0, index);
+          System.arraycopy(
+            current,
+            index + 1,
+            updated,
+            index,
+            updated.length - index
+          );
+          cookies = updated;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static boolean isSame(Cookie first, Cookie second) {
+      // Same identity as the HTTP client's: name, domain and path.
+      return first.getName().equals(second.getName()) &&
+        normalize(first.getDomain()).equalsIgnoreCase(
+          normalize(second.getDomain())
+        ) &&
+        pathOf(first).equals(pathOf(second));
+    }
+
+    private static String normalize(String domain) {
+      if(null == domain) {
+        return "";
+      }
+      return -1 == domain.indexOf('.') ? domain + ".local" : domain;
+    }
+
+    private static String pathOf(Cookie cookie) {
+      final String path = cookie.getPath();
+      return null == path ? "/" : path;
+    }
+
+    private static int lengthOf(String path) {
+      return null == path ? 1 : path.length();
+    }
+  }
+}
@@ -119,7 +119,8 @@ public class DownloadManager<E> {
     final AbstractResponse<E, M> response
   ) {
     // Dispatch a request to download this URL.
-    client.getImpl(
+    client.dispatch(
+      AbstractRequest.TYPE.GET,
       request,
       new BinaryResponseWrapper(request, new BinaryResponse<M>() {
 
@@ -0,0 +1,93 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.request.AbstractRequest;
+import com.fine47.http.response.JsonResponse;
+import com.fine47.http.response.PooledJsonResponse;
+import com.fine47.json.JsonInterface;
+
+/**
+ * A JSON response which completes the future of a subscriber to a coalesced
+ * request, once the subscriber's own response has been called.
+ *
+ * This is an internal class.
+ *
+ * @param <T> type of JSON entity which will be received
+ * @param <M> meta-data type which could be accompanying the request
+ */
+class FutureJsonResponse<T extends JsonInterface, M>
+  implements PooledJsonResponse<T, M>
+{
+
+  final RequestFuture<T> future;
+
+  private final JsonResponse<T, M> response;
+
+  FutureJsonResponse(JsonResponse<T, M> response, int priority) {
+    this.response = response;
+    future = new RequestFuture(priority);
+  }
+
+  @Override
+  public boolean isAlive() {
+    return !future.isCancelled() && response.isAlive();
+  }
+
+  @Override
+  public T convertBytes(byte[] bytes) {
+    return response.convertBytes(bytes);
+  }
+
+  @Override
+  public T convertBuffer(ResponseBuffer buffer) {
+    return JsonResponseWrapper.convert(response, buffer);
+  }
+
+  @Override
+  public void onSuccess(T value, AbstractRequest<M> request) {
+    try {
+      response.onSuccess(value, request);
+    } finally {
+      future.succeed(value);
+    }
+  }
+
+  @Override
+  public void onFailure(
+    T value,
+    AbstractRequest<M> request,
+    Throwable error
+  ) {
+    try {
+      response.onFailure(value, request, error);
+    } finally {
+      future.fail(error);
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.Log;
+import com.fine47.http.request.AbstractRequest;
+import com.loopj.android.http.RequestHandle;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Races a request against a hedged copy of itself. The first response wins,
+ * and the other request is cancelled. A failure only counts when the other
+ * request has failed, too, or was never sent.
+ *
+ * This is an internal class.
+ */
+final class Hedge implements Runnable {
+
+  private final ActivityHttpClient client;
+  private final AbstractRequest.TYPE type;
+  private final HedgePolicy policy;
+  private final AbstractResponseWrapper primary;
+
+  private AbstractResponseWrapper secondary;
+  private RequestHandle primaryHandle;
+  private RequestHandle secondaryHandle;
+  private ScheduledFuture timer;
+  private AbstractResponseWrapper winner;
+  private boolean isFailed;
+
+  Hedge(
+    ActivityHttpClient client,
+    AbstractRequest.TYPE type,
+    HedgePolicy policy,
+    AbstractResponseWrapper primary
+  ) {
+    this.client = client;
+    this.type = type;
+    this.policy = policy;
+    this.primary = primary;
+  }
+
+  /**
+   * Schedules the hedged copy once the primary request has been dispatched.
+   *
+   * @param handle handle of the primary request
+   * @param delay delay of the hedged copy, in milliseconds
+   */
+  synchronized void start(RequestHandle handle, long delay) {
+    primaryHandle = handle;
+    if(null == winner) {
+      try {
+        timer = client.getScheduler().schedule(
+          this,
+          delay,
+          TimeUnit.MILLISECONDS
+        );
+      } catch(RejectedExecutionException error) {
+        // The client is shutting down.
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    final AbstractResponseWrapper copy;
+    synchronized(this) {
+      timer = null;
+      if(null != winner || !policy.getBudget().tryWithdraw()) {
+        return;
+      }
+      copy = secondary = new HedgeResponseWrapper(primary);
+    }
+
+    if(ActivityHttpClient.isDebugging()) {
+      Log.d(ActivityHttpClient.LOG_TAG, "Hedging: " + primary.request.url);
+    }
+
+    final RequestHandle handle = client.dispatch(type, primary.request, copy);
+    final boolean isLost;
+    synchronized(this) {
+      secondaryHandle = handle;
+      isLost = null != winner && copy != winner;
+    }
+    if(isLost && null != handle) {
+      handle.cancel(true);
+    }
+  }
+
+  /**
+   * Claims the race for the specified handler, whose response has arrived.
+   *
+   * @param handler handler which received a response
+   * @return TRUE if the handler won and should deliver its response, FALSE
+   * otherwise
+   */
+  boolean claim(AbstractResponseWrapper handler) {
+    final RequestHandle other;
+    synchronized(this) {
+      if(null != winner) {
+        return handler == winner;
+      }
+      other = settle(handler);
+    }
+    if(null != other) {
+      other.cancel(true);
+    }
+    return true;
+  }
+
+  /**
+   * Reports the failure of the specified handler's request.
+   *
+   * @param handler handler whose request failed
+   * @return TRUE if the handler should deliver its failure, FALSE otherwise
+   */
+  boolean fail(AbstractResponseWrapper handler) {
+    synchronized(this) {
+      if(null != winner) {
+        return handler == winner;
+      }
+
+      // Wait for the other request, if it's still running.
+      final AbstractResponseWrapper other =
+        handler == primary ? secondary : primary;
+      if(null != other && !isFailed) {
+        isFailed = true;
+        return false;
+      }
+      settle(handler);
+    }
+    return true;
+  }
+
+  /**
+   * Reports the cancellation of the specified handler's request.
+   *
+   * @param handler handler whose request was cancelled
+   */
+  void cancel(AbstractResponseWrapper handler) {
+    final RequestHandle other;
+    synchronized(this) {
+      if(null != winner) {
+        return;
+      }
+      other = settle(handler);
+    }
+    if(null != other) {
+      other.cancel(true);
+    }
+  }
+
+  /**
+   * Returns whether the specified handler lost the race.
+   *
+   * @param handler handler to check
+   * @return TRUE if the other request won, FALSE otherwise
+   */
+  synchronized boolean isSuperseded(AbstractResponseWrapper handler) {
+    return null != winner && handler != winner;
+  }
+
+  private RequestHandle settle(AbstractResponseWrapper handler) {
+    winner = handler;
+    if(null != timer) {
+      timer.cancel(false);
+      timer = null;
+    }
+    return handler == primary ? secondaryHandle : primaryHandle;
+  }
+}
@@ -0,0 +1,187 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.request.AbstractRequest;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides when HEAD and GET requests are hedged: if no response arrives
+ * within a percentile of the recent latency of the request's host, an
+ * identical request goes out on another connection. The first response wins
+ * and the other request is cancelled.
+ *
+ * Hedges are subject to a {@link RequestBudget}, so they only slightly
+ * increase the total load, and a host is only hedged once enough of its
+ * requests have been timed.
+ *
+ * @see ActivityHttpClient#setHedgePolicy(HedgePolicy)
+ */
+public class HedgePolicy extends RequestEventAdapter {
+
+  /**
+   * Default latency percentile after which requests are hedged.
+   */
+  public final static double DEFAULT_PERCENTILE = 95.0;
+
+  /**
+   * Minimum number of timed requests before a host is hedged.
+   */
+  public final static int MIN_SAMPLES = 32;
+
+  // Number of samples after which a host's latency is recalculated, and
+  // after which its histogram starts over, respectively.
+  private final static int REFRESH_SAMPLES = 16;
+  private final static int RECENT_SAMPLES = 1024;
+
+  private final ConcurrentHashMap<String, Host> hosts =
+    new ConcurrentHashMap();
+
+  private final double percentile;
+  private final RequestBudget budget;
+
+  /**
+   * Create a new hedge policy which hedges after the 95th percentile of
+   * latency, and keeps hedges at about 2% of requests.
+   */
+  public HedgePolicy() {
+    this(DEFAULT_PERCENTILE, new RequestBudget(0.02, 5));
+  }
+
+  /**
+   * Create a new hedge policy.
+   *
+   * @param percentile latency percentile after which requests are hedged,
+   * between 0.0 and 100.0
+   * @param budget budget which hedges are subject to
+   */
+  public HedgePolicy(double percentile, RequestBudget budget) {
+    if(0 >= percentile || 100 < percentile || null == budget) {
+      throw new IllegalArgumentException("Invalid hedging parameters.");
+    }
+    this.percentile = percentile;
+    this.budget = budget;
+  }
+
+  /**
+   * Returns the latency percentile after which requests are hedged.
+   *
+   * @return latency percentile
+   */
+  public double getPercentile() {
+    return percentile;
+  }
+
+  /**
+   * Returns the budget which hedges are subject to.
+   *
+   * @return hedge budget
+   */
+  public RequestBudget getBudget() {
+    return budget;
+  }
+
+  /**
+   * Returns how long to wait for a response from the specified host before
+   * hedging a request to it.
+   *
+   * @param host host name
+   * @return delay in milliseconds, or a negative value if requests to the
+   * host aren't hedged yet
+   */
+  public long getDelay(String host) {
+    final Host stats = hosts.get(host);
+    return null == stats ? -1 : stats.delay;
+  }
+
+  @Override
+  public void onRequestStart(RequestEvents events) {
+    if(isHedgeable(events.type)) {
+      budget.deposit();
+    }
+  }
+
+  @Override
+  public void onRequestEnd(RequestEvents events) {
+    final long headers = events.getResponseHeadersNanos();
+    if(
+      !isHedgeable(events.type) ||
+      events.isCancelled() ||
+      null != events.getError() ||
+      0 == headers
+    ) {
+      return;
+    }
+
+    final String host = events.request.getHost();
+    Host stats = hosts.get(host);
+    if(null == stats) {
+      stats = new Host();
+      final Host current = hosts.putIfAbsent(host, stats);
+      if(null != current) {
+        stats = current;
+      }
+    }
+    stats.record((headers - events.getStartNanos()) / 1000);
+  }
+
+  /**
+   * Returns whether requests of the specified type may be hedged.
+   *
+   * @param type type of request
+   * @return TRUE if the request type is hedgeable, FALSE otherwise
+   */
+  static boolean isHedgeable(AbstractRequest.TYPE type) {
+    return AbstractRequest.TYPE.GET == type ||
+      AbstractRequest.TYPE.HEAD == type;
+  }
+
+  private final class Host {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final AtomicInteger samples = new AtomicInteger();
+    volatile long delay = -1;
+
+    void record(long micros) {
+      histogram.record(micros);
+      final int count = samples.incrementAndGet();
+      if(0 != count % REFRESH_SAMPLES) {
+        return;
+      }
+
+      // Keep the latency recent by starting over every so often, but hold
+      // on to the last calculated delay meanwhile.
+      final boolean reset = 0 == count % RECENT_SAMPLES;
+      final LatencyHistogram.Snapshot snapshot = histogram.snapshot(reset);
+      if(MIN_SAMPLES <= snapshot.getCount()) {
+        delay = Math.max(1, snapshot.getPercentile(percentile) / 1000);
+      }
+    }
+  }
+}
@@ -45,14 +45,15 @@ class ImageResponseWrapper<M>
   }
 
   @Override
-  Bitmap bytesToValue(byte[] bytes) {
+  Bitmap bufferToValue(ResponseBuffer buffer) {
     final ImageRequest imageRequest = (ImageRequest)request;
     final ImageResponse imageResponse = (ImageResponse)response;
     
     // Use high-resolution first to generate the bitmap.
     Bitmap bitmap = generateBitmap(
       Bitmap.Config.ARGB_8888,
-      bytes,
+      buffer.array(),
+      buffer.length(),
       imageResponse.isMutable()
     );
 
@@ -60,7 +61,8 @@ class ImageResponseWrapper<M>
     if(null == bitmap && Bitmap.Config.ARGB_8888 != imageRequest.bitmapConfig) {
       bitmap = generateBitmap(
         Bitmap.Config.ARGB_8888,
-        bytes,
+        buffer.array(),
+        buffer.length(),
         imageResponse.isMutable()
       );
     }
@@ -71,18 +73,19 @@ class ImageResponseWrapper<M>
   static Bitmap generateBitmap(
     Bitmap.Config config,
     byte[] bytes,
+    int length,
     boolean isMutable
   ) {
     try {
       return BitmapFactory
-        .decodeByteArray(bytes, 0, bytes.length)
+        .decodeByteArray(bytes, 0, length)
         .copy(config, isMutable);
     } catch(OutOfMemoryError error) {
       if(ActivityHttpClient.isDebugging()) {
         Log.e(
           ActivityHttpClient.LOG_TAG,
           "Out of memory error while decoding " +
-            bytes.length +
+            length +
           " bytes to generate a bitmap",
           error
         );
@@ -0,0 +1,680 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binds JSON directly into model objects while it's being read, so no
+ * intermediate JSON tree is ever built. A binder is computed once for every
+ * model class and cached; it maps each JSON key to the field it's bound to,
+ * along with a reader specific to the field's type.
+ *
+ * Model classes need a no-argument constructor (of any visibility). All
+ * non-static, non-transient fields are bound, including inherited ones, using
+ * the field's name or the one given by {@link JsonName}. Supported field types
+ * are primitives and their boxed types, strings, enums (by name), other model
+ * classes, arrays and {@link List}s of any of these. Unknown keys are skipped.
+ *
+ * Binding relies on {@link JsonReader}, which requires API level 11.
+ *
+ * @param <E> type of model object which this binder creates
+ */
+public final class JsonBinder<E> {
+
+  private final static ConcurrentHashMap<Class, JsonBinder>
+    binders = new ConcurrentHashMap();
+
+  private final static ConcurrentHashMap<Type, ValueReader>
+    readers = new ConcurrentHashMap();
+
+  private final Class<E> type;
+  private final ValueReader reader;
+
+  private JsonBinder(Class<E> type) {
+    this.type = type;
+    this.reader = readerFor(type);
+  }
+
+  /**
+   * Returns a binder for the specified model class, or array of model
+   * classes.
+   *
+   * @param <E> type of model object to bind
+   * @param type model class
+   * @return binder for the model class
+   */
+  public static <E>JsonBinder<E> forClass(Class<E> type) {
+    JsonBinder<E> binder = binders.get(type);
+    if(null == binder) {
+      binder = new JsonBinder(type);
+      final JsonBinder<E> current = binders.putIfAbsent(type, binder);
+      if(null != current) {
+        binder = current;
+      }
+    }
+    return binder;
+  }
+
+  /**
+   * Reads the next JSON value from the specified reader and binds it into a
+   * new model object.
+   *
+   * @param json reader positioned at the value to read
+   * @return model object, NULL if the JSON value is null
+   * @throws IOException when the JSON cannot be read or bound
+   */
+  public E read(JsonReader json) throws IOException {
+    return type.cast(reader.read(json));
+  }
+
+  /**
+   * Returns the cached reader for the specified type, creating it if needed.
+   *
+   * @param type type of values to read
+   * @return reader for the type
+   */
+  static ValueReader readerFor(Type type) {
+    ValueReader reader = readers.get(type);
+    if(null == reader) {
+      reader = newReader(type);
+      final ValueReader current = readers.putIfAbsent(type, reader);
+      if(null != current) {
+        reader = current;
+      }
+    }
+    return reader;
+  }
+
+  private static ValueReader newReader(Type type) {
+    if(type instanceof ParameterizedType) {
+      final ParameterizedType parameterized = (ParameterizedType)type;
+      final Type raw = parameterized.getRawType();
+      if(raw instanceof Class && List.class.isAssignableFrom((Class)raw)) {
+        return new ListReader(parameterized.getActualTypeArguments()[0]);
+      }
+      return readerFor(raw);
+    }
+    if(type instanceof GenericArrayType) {
+      final Type component = ((GenericArrayType)type).getGenericComponentType();
+      return new ArrayReader(rawClassOf(component), component);
+    }
+    if(!(type instanceof Class)) {
+      throw new IllegalArgumentException("Unsupported JSON type: " + type);
+    }
+
+    final Class cls = (Class)type;
+    if(Object.class == cls) {
+      return ANY;
+    }
+    if(String.class == cls) {
+      return STRING;
+    }
+    if(boolean.class == cls || Boolean.class == cls) {
+      return BOOLEAN;
+    }
+    if(int.class == cls || Integer.class == cls) {
+      return INT;
+    }
+    if(long.class == cls || Long.class == cls) {
+      return LONG;
+    }
+    if(double.class == cls || Double.class == cls) {
+      return DOUBLE;
+    }
+    if(float.class == cls || Float.class == cls) {
+      return FLOAT;
+    }
+    if(short.class == cls || Short.class == cls) {
+      return SHORT;
+    }
+    if(byte.class == cls || Byte.class == cls) {
+      return BYTE;
+    }
+    if(char.class == cls || Character.class == cls) {
+      return CHAR;
+    }
+    if(cls.isEnum()) {
+      return new EnumReader(cls);
+    }
+    if(cls.isArray()) {
+      return new ArrayReader(cls.getComponentType(), cls.getComponentType());
+    }
+    if(List.class.isAssignableFrom(cls)) {
+      return new ListReader(Object.class);
+    }
+    if(cls.isInterface() || Modifier.isAbstract(cls.getModifiers())) {
+      throw new IllegalArgumentException(
+        "Cannot bind JSON to an abstract type: " + cls.getName());
+    }
+    return new ObjectReader(cls);
+  }
+
+  private static Class rawClassOf(Type type) {
+    if(type instanceof Class) {
+      return (Class)type;
+    }
+    if(type instanceof ParameterizedType) {
+      return rawClassOf(((ParameterizedType)type).getRawType());
+    }
+    return Object.class;
+  }
+
+  /**
+   * Reads one JSON value of a specific type.
+   */
+  static abstract class ValueReader {
+
+    /**
+     * Reads the next JSON value, which may be null.
+     *
+     * @param json reader positioned at the value to read
+     * @return value read
+     * @throws IOException when the value cannot be read
+     */
+    abstract Object read(JsonReader json) throws IOException;
+
+    /**
+     * Reads the next JSON value, which is not null, into the specified field.
+     * Readers of primitive values override this to avoid boxing.
+     *
+     * @param json reader positioned at the value to read
+     * @param target object which holds the field
+     * @param field field to set
+     * @throws IOException when the value cannot be read
+     * @throws IllegalAccessException when the field cannot be set
+     */
+    void readInto(JsonReader json, Object target, Field field)
+      throws IOException, IllegalAccessException
+    {
+      field.set(target, read(json));
+    }
+  }
+
+  private final static ValueReader ANY = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      switch(json.peek()) {
+        case BEGIN_ARRAY:
+          final ArrayList list = new ArrayList();
+          json.beginArray();
+          while(json.hasNext()) {
+            list.add(read(json));
+          }
+          json.endArray();
+          return list;
+
+        case BEGIN_OBJECT:
+          final HashMap<String, Object> map = new HashMap();
+          json.beginObject();
+          while(json.hasNext()) {
+            map.put(json.nextName(), read(json));
+          }
+          json.endObject();
+          return map;
+
+        case BOOLEAN:
+          return json.nextBoolean();
+
+        case NUMBER:
+          return json.nextDouble();
+
+        case NULL:
+          json.nextNull();
+          return null;
+
+        default:
+          return json.nextString();
+      }
+    }
+  };
+
+  private final static ValueReader STRING = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      return json.nextString();
+    }
+  };
+
+  private final static ValueReader BOOLEAN = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      return json.nextBoolean();
+    }
+
+    @Override
+    void readInto(JsonReader json, Object target, Field field)
+      throws IOException, IllegalAccessException
+    {
+      if(field.getType().isPrimitive()) {
+        field.setBoolean(target, json.nextBoolean());
+      } else {
+        field.set(target, json.nextBoolean());
+      }
+    }
+  };
+
+  private final static ValueReader INT = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      return json.nextInt();
+    }
+
+    @Override
+    void readInto(JsonReader json, Object target, Field field)
+      throws IOException, IllegalAccessException
+    {
+      if(field.getType().isPrimitive()) {
+        field.setInt(target, json.nextInt());
+      } else {
+        field.set(target, json.nextInt());
+      }
+    }
+  };
+
+  private final static ValueReader LONG = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      return json.nextLong();
+    }
+
+    @Override
+    void readInto(JsonReader json, Object target, Field field)
+      throws IOException, IllegalAccessException
+    {
+      if(field.getType().isPrimitive()) {
+        field.setLong(target, json.nextLong());
+      } else {
+        field.set(target, json.nextLong());
+      }
+    }
+  };
+
+  private final static ValueReader DOUBLE = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      return json.nextDouble();
+    }
+
+    @Override
+    void readInto(JsonReader json, Object target, Field field)
+      throws IOException, IllegalAccessException
+    {
+      if(field.getType().isPrimitive()) {
+        field.setDouble(target, json.nextDouble());
+      } else {
+        field.set(target, json.nextDouble());
+      }
+    }
+  };
+
+  private final static ValueReader FLOAT = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      return (float)json.nextDouble();
+    }
+
+    @Override
+    void readInto(JsonReader json, Object target, Field field)
+      throws IOException, IllegalAccessException
+    {
+      if(field.getType().isPrimitive()) {
+        field.setFloat(target, (float)json.nextDouble());
+      } else {
+        field.set(target, (float)json.nextDouble());
+      }
+    }
+  };
+
+  private final static ValueReader SHORT = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      return (short)json.nextInt();
+    }
+
+    @Override
+    void readInto(JsonReader json, Object target, Field field)
+      throws IOException, IllegalAccessException
+    {
+      if(field.getType().isPrimitive()) {
+        field.setShort(target, (short)json.nextInt());
+      } else {
+        field.set(target, (short)json.nextInt());
+      }
+    }
+  };
+
+  private final static ValueReader BYTE = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      return (byte)json.nextInt();
+    }
+
+    @Override
+    void readInto(JsonReader json, Object target, Field field)
+      throws IOException, IllegalAccessException
+    {
+      if(field.getType().isPrimitive()) {
+        field.setByte(target, (byte)json.nextInt());
+      } else {
+        field.set(target, (byte)json.nextInt());
+      }
+    }
+  };
+
+  private final static ValueReader CHAR = new ValueReader() {
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      final String value = json.nextString();
+      return value.isEmpty() ? null : value.charAt(0);
+    }
+
+    @Override
+    void readInto(JsonReader json, Object target, Field field)
+      throws IOException, IllegalAccessException
+    {
+      final String value = json.nextString();
+      if(!value.isEmpty()) {
+        if(field.getType().isPrimitive()) {
+          field.setChar(target, value.charAt(0));
+        } else {
+          field.set(target, value.charAt(0));
+        }
+      }
+    }
+  };
+
+  private final static class EnumReader extends ValueReader {
+
+    private final Class type;
+
+    EnumReader(Class type) {
+      this.type = type;
+    }
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      final String name = json.nextString();
+      try {
+        return Enum.valueOf(type, name);
+      } catch(IllegalArgumentException error) {
+        return null;
+      }
+    }
+  }
+
+  private final static class ListReader extends ValueReader {
+
+    private final Type elementType;
+    private ValueReader elementReader;
+
+    ListReader(Type elementType) {
+      this.elementType = elementType;
+    }
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      if(null == elementReader) {
+        // Resolved lazily to allow for recursive models.
+        elementReader = readerFor(elementType);
+      }
+      final ArrayList list = new ArrayList();
+      json.beginArray();
+      while(json.hasNext()) {
+        list.add(elementReader.read(json));
+      }
+      json.endArray();
+      return list;
+    }
+  }
+
+  private final static class ArrayReader extends ValueReader {
+
+    private final Class componentClass;
+    private final Type componentType;
+    private ValueReader componentReader;
+
+    ArrayReader(Class componentClass, Type componentType) {
+      this.componentClass = componentClass;
+      this.componentType = componentType;
+    }
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+      if(null == componentReader) {
+        componentReader = readerFor(componentType);
+      }
+      final ArrayList list = new ArrayList();
+      json.beginArray();
+      while(json.hasNext()) {
+        list.add(componentReader.read(json));
+      }
+      json.endArray();
+
+      final int size = list.size();
+      final Object array = Array.newInstance(componentClass, size);
+      for(int index = 0; index < size; index++) {
+        final Object value = list.get(index);
+        if(null != value || !componentClass.isPrimitive()) {
+          Array.set(array, index, value);
+        }
+      }
+      return array;
+    }
+  }
+
+  private final static class Binding {
+
+    final Field field;
+    final ValueReader reader;
+
+    Binding(Field field, ValueReader reader) {
+      this.field = field;
+      this.reader = reader;
+    }
+  }
+
+  private final static class ObjectReader extends ValueReader {
+
+    private final Constructor constructor;
+    private final HashMap<String, Field> fields = new HashMap();
+
+    private volatile HashMap<String, Binding> bindings;
+
+    ObjectReader(Class type) {
+      try {
+        constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+      } catch(NoSuchMethodException error) {
+        throw new IllegalArgumentException(
+          "Model class needs a no-argument constructor: " + type.getName(),
+          error
+        );
+      }
+
+      // Precompute the key-to-field mapping, including inherited fields.
+      for(Class cls = type; Object.class != cls; cls = cls.getSuperclass()) {
+        for(final Field field : cls.getDeclaredFields()) {
+          final int modifiers = field.getModifiers();
+          if(
+            Modifier.isStatic(modifiers) ||
+            Modifier.isTransient(modifiers) ||
+            field.isSynthetic()
+          ) {
+            continue;
+          }
+          final JsonName name = field.getAnnotation(JsonName.class);
+          final String key = null == name ? field.getName() : name.value();
+          if(!fields.containsKey(key)) {
+            field.setAccessible(true);
+            fields.put(key, field);
+          }
+        }
+      }
+    }
+
+    @Override
+    Object read(JsonReader json) throws IOException {
+      if(JsonToken.NULL == json.peek()) {
+        json.nextNull();
+        return null;
+      }
+
+      final Object target;
+      try {
+        target = constructor.newInstance();
+      } catch(Exception error) {
+        throw new IOException(
+          "Cannot create model: " + constructor.getDeclaringClass().getName(),
+          error
+        );
+      }
+
+      final HashMap<String, Binding> bindings = getBindings();
+      json.beginObject();
+      while(json.hasNext()) {
+        final Binding binding = bindings.get(json.nextName());
+        if(null == binding) {
+          json.skipValue();
+          continue;
+        }
+        final Field field = binding.field;
+        try {
+          if(JsonToken.NULL != json.peek()) {
+            binding.reader.readInto(json, target, field);
+          } else {
+            json.nextNull();
+            if(!field.getType().isPrimitive()) {
+              field.set(target, null);
+            }
+          }
+        } catch(IllegalAccessException error) {
+          throw new IOException("Cannot bind field: " + field, error);
+        } catch(IllegalArgumentException error) {
+          // Thrown by the setters when the value doesn't fit the field, and
+          // by the JSON reader for malformed numbers.
+          throw new IOException("Cannot bind field: " + field, error);
+        }
+      }
+      json.endObject();
+
+      return target;
+    }
+
+    private HashMap<String, Binding> getBindings() {
+      // Field readers are resolved on first use to allow for recursive
+      // models; a race here only means the cached readers are looked up
+      // twice.
+      HashMap<String, Binding> current = bindings;
+      if(null == current) {
+        current = new HashMap(fields.size());
+        for(final Map.Entry<String, Field> entry : fields.entrySet()) {
+          final Field field = entry.getValue();
+          current.put(
+            entry.getKey(),
+            new Binding(field, readerFor(field.getGenericType()))
+          );
+        }
+        bindings = current;
+      }
+      return current;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.request.AbstractRequest;
+import com.fine47.http.request.JsonRequest;
+import com.fine47.http.response.JsonResponse;
+import com.fine47.http.response.PooledJsonResponse;
+import com.fine47.json.JsonInterface;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A JSON response which fans out a single parsed result to every subscriber
+ * that asked for the same resource while the request was still in flight.
+ * This is an internal class.
+ *
+ * @param <T> type of JSON entity which will be received
+ * @param <M> meta-data type which could be accompanying the requests
+ */
+class JsonFanout<T extends JsonInterface, M>
+  implements PooledJsonResponse<T, M>
+{
+
+  /**
+   * The fingerprint of the request which this fan-out is serving.
+   */
+  final String key;
+
+  /**
+   * The future of the shared request.
+   */
+  final RequestFuture<T> future;
+
+  private final HashMap<String, JsonFanout> inflight;
+  private final ArrayList<JsonRequest<M>> requests = new ArrayList();
+  private final ArrayList<FutureJsonResponse<T, M>> responses =
+    new ArrayList();
+  private final boolean isCopying;
+
+  private boolean isClosed;
+  private byte[] bytes;
+
+  JsonFanout(
+    HashMap<String, JsonFanout> inflight,
+    String key,
+    RequestFuture<T> future,
+    boolean isCopying
+  ) {
+    this.inflight = inflight;
+    this.key = key;
+    this.future = future;
+    this.isCopying = isCopying;
+  }
+
+  /**
+   * Subscribes the specified request and response to this fan-out.
+   *
+   * @param request original request of the subscriber
+   * @param response handler of the subscriber
+   * @return TRUE if subscribed, FALSE if the result was already delivered
+   */
+  synchronized boolean subscribe(
+    JsonRequest<M> request,
+    FutureJsonResponse<T, M> response
+  ) {
+    if(isClosed) {
+      return false;
+    }
+    requests.add(request);
+    responses.add(response);
+    return true;
+  }
+
+  /**
+   * Ties the future of the specified subscriber to the shared request. The
+   * request is cancelled once all subscribers are gone, and a subscriber who
+   * wasn't called when the request completed is cancelled.
+   *
+   * @param subscriber response of the subscriber
+   */
+  void attach(final FutureJsonResponse<T, M> subscriber) {
+    subscriber.future.addListener(new RequestFuture.Listener<T>() {
+
+      @Override
+      public void onComplete(RequestFuture<T> subscription) {
+        if(subscription.isCancelled() && !isAlive()) {
+          future.cancel(true);
+        }
+      }
+    });
+    future.addListener(new RequestFuture.Listener<T>() {
+
+      @Override
+      public void onComplete(RequestFuture<T> request) {
+        subscriber.future.setCancelled();
+      }
+    });
+  }
+
+  /**
+   * Stops accepting new subscribers and detaches from the in-flight list, so
+   * later requests for the same resource will hit the network again.
+   */
+  void close() {
+    synchronized(this) {
+      isClosed = true;
+    }
+    synchronized(inflight) {
+      if(this == inflight.get(key)) {
+        inflight.remove(key);
+      }
+    }
+  }
+
+  @Override
+  public synchronized boolean isAlive() {
+    for(final FutureJsonResponse<T, M> response : responses) {
+      if(response.isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public T convertBytes(byte[] bytes) {
+    final FutureJsonResponse<T, M> leader;
+    synchronized(this) {
+      leader = responses.get(0);
+      if(isCopying) {
+        this.bytes = bytes;
+      }
+    }
+    return leader.convertBytes(bytes);
+  }
+
+  @Override
+  public T convertBuffer(ResponseBuffer buffer) {
+    // Copies are converted from bytes which outlive the pooled buffer.
+    if(isCopying) {
+      return convertBytes(buffer.toByteArray());
+    }
+    final FutureJsonResponse<T, M> leader;
+    synchronized(this) {
+      leader = responses.get(0);
+    }
+    return leader.convertBuffer(buffer);
+  }
+
+  @Override
+  public void onSuccess(T value, AbstractRequest<M> request) {
+    close();
+
+    final int count = responses.size();
+    boolean isFirst = true;
+    for(int index = 0; index < count; index++) {
+      final FutureJsonResponse<T, M> response = responses.get(index);
+      if(!response.future.isCancelled()) {
+        response.onSuccess(
+          copyOf(value, response, isFirst),
+          requests.get(index)
+        );
+        isFirst = false;
+      }
+    }
+  }
+
+  @Override
+  public void onFailure(
+    T value,
+    AbstractRequest<M> request,
+    Throwable error
+  ) {
+    close();
+
+    final int count = responses.size();
+    boolean isFirst = true;
+    for(int index = 0; index < count; index++) {
+      final FutureJsonResponse<T, M> response = responses.get(index);
+      if(!response.future.isCancelled()) {
+        response.onFailure(
+          copyOf(value, response, isFirst),
+          requests.get(index),
+          error
+        );
+        isFirst = false;
+      }
+    }
+  }
+
+  private T copyOf(
+    T value,
+    FutureJsonResponse<T, M> response,
+    boolean isFirst
+  ) {
+    // The first subscriber always gets the original value; the rest get their
+    // own copy only when asked to, as they might mutate it. Subscribers which
+    // aren't alive are still called, as they are without coalescing, so they
+    // can tell their request is over.
+    if(isFirst || !isCopying || null == value || null == bytes) {
+      return value;
+    }
+    return response.convertBytes(bytes);
+  }
+}
@@ -0,0 +1,377 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.request.AbstractRequest;
+import com.fine47.http.request.JsonRequest;
+import com.fine47.http.response.JsonResponse;
+import com.fine47.http.response.PooledJsonResponse;
+import com.fine47.json.JsonInterface;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Walks a cursor-paginated JSON end-point page by page, and fetches the next
+ * page ahead of time once the consumer has gone far enough into the current
+ * one. Pages are delivered to the consumer's {@link JsonResponse}, one page
+ * for each call to {@link #next()}.
+ *
+ * The consumer reports its progress through the current page using
+ * {@link #onItemConsumed(int)}; once the configured threshold is passed, the
+ * pager starts fetching pages ahead until the configured number of pages is
+ * buffered. When the consumer is no longer alive, or {@link #close()} is
+ * called, fetching stops and buffered pages are discarded.
+ *
+ * @param <T> type of JSON entity which every page is
+ * @param <M> meta-data type which could be accompanying the requests
+ */
+public abstract class JsonPager<T extends JsonInterface, M> {
+
+  /**
+   * The HTTP Client instance associated with this pager.
+   */
+  public final ActivityHttpClient client;
+
+  /**
+   * The response handler which receives the pages.
+   */
+  public final JsonResponse<T, M> consumer;
+
+  private final ArrayDeque<Page<T, M>> pages = new ArrayDeque();
+  private final PageResponse pageResponse = new PageResponse();
+
+  private float prefetchThreshold = 0.75f;
+  private int prefetchDepth = 1;
+
+  private String cursor;
+  private boolean hasMore = true;
+  private volatile boolean isClosed;
+  private boolean isFetching;
+  private boolean isWaiting;
+  private boolean isPrefetching;
+  private boolean isArmed;
+  private int currentCount;
+
+  /**
+   * Create a new pager which delivers pages to the specified consumer.
+   *
+   * @param client HTTP client to dispatch page requests with
+   * @param consumer response handler which receives the pages
+   */
+  public JsonPager(ActivityHttpClient client, JsonResponse<T, M> consumer) {
+    this.client = client;
+    this.consumer = consumer;
+  }
+
+  /**
+   * Returns a request for the page identified by the specified cursor.
+   *
+   * @param cursor page cursor, NULL for the first page
+   * @return request to dispatch for the page
+   */
+  protected abstract JsonRequest<M> newRequest(String cursor);
+
+  /**
+   * Returns the cursor of the page which follows the specified one.
+   *
+   * @param page a received page
+   * @return cursor of the following page, NULL if this is the last page
+   */
+  protected abstract String getNextCursor(T page);
+
+  /**
+   * Returns the number of items in the specified page.
+   *
+   * @param page a received page
+   * @return number of items in the page
+   */
+  protected abstract int getItemCount(T page);
+
+  /**
+   * Returns the fraction of the current page (0.0 to 1.0) which needs to be
+   * consumed before the next page is fetched.
+   *
+   * @return prefetch threshold
+   */
+  public synchronized float getPrefetchThreshold() {
+    return prefetchThreshold;
+  }
+
+  /**
+   * Sets the fraction of the current page (0.0 to 1.0) which needs to be
+   * consumed before the next page is fetched. The default is 0.75.
+   *
+   * @param value prefetch threshold
+   */
+  public synchronized void setPrefetchThreshold(float value) {
+    if(0f > value || 1f < value) {
+      throw new IllegalArgumentException(
+        "Prefetch threshold must be between 0.0 and 1.0: " + value);
+    }
+    prefetchThreshold = value;
+  }
+
+  /**
+   * Returns the maximum number of pages which are buffered ahead.
+   *
+   * @return prefetch depth
+   */
+  public synchronized int getPrefetchDepth() {
+    return prefetchDepth;
+  }
+
+  /**
+   * Sets the maximum number of pages which are buffered ahead of the consumer.
+   * The default is one page.
+   *
+   * @param value prefetch depth
+   */
+  public synchronized void setPrefetchDepth(int value) {
+    if(1 > value) {
+      throw new IllegalArgumentException(
+        "Prefetch depth must be at least one page: " + value);
+    }
+    prefetchDepth = value;
+  }
+
+  /**
+   * Returns whether there are more pages to deliver.
+   *
+   * @return TRUE if more pages are available, FALSE otherwise
+   */
+  public synchronized boolean hasNext() {
+    return !isClosed && (hasMore || !pages.isEmpty());
+  }
+
+  /**
+   * Returns whether the pager has been closed.
+   *
+   * @return TRUE if the pager is closed, FALSE otherwise
+   */
+  public boolean isClosed() {
+    return isClosed;
+  }
+
+  /**
+   * Requests the next page. If it has been fetched ahead already, it's
+   * delivered right away on the thread pool; otherwise, it's delivered once
+   * received.
+   */
+  public void next() {
+    final Page<T, M> page;
+    final JsonRequest<M> request;
+    synchronized(this) {
+      if(isClosed) {
+        return;
+      }
+      page = pages.poll();
+      if(null == page) {
+        isWaiting = true;
+        request = fetchIfNeeded();
+      } else {
+        arm(page);
+        request = null;
+      }
+    }
+    if(null == page) {
+      fetch(request);
+      return;
+    }
+
+    final ExecutorService threadPool = client.getThreadPool();
+    if(null == threadPool) {
+      deliver(page);
+    } else {
+      threadPool.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          deliver(page);
+        }
+      });
+    }
+  }
+
+  /**
+   * Reports that the consumer has reached the specified item of the current
+   * page. Once the prefetch threshold is passed, pages are fetched ahead.
+   *
+   * @param position zero-based position of the item in the current page
+   */
+  public void onItemConsumed(int position) {
+    final JsonRequest<M> request;
+    synchronized(this) {
+      if(
+        isClosed ||
+        !isArmed ||
+        position + 1 < Math.ceil(prefetchThreshold * currentCount)
+      ) {
+        return;
+      }
+      isArmed = false;
+      isPrefetching = true;
+      request = fetchIfNeeded();
+    }
+    fetch(request);
+  }
+
+  /**
+   * Stops fetching pages and discards the ones which have been fetched ahead.
+   * Pages which are still in flight are discarded once they arrive.
+   */
+  public synchronized void close() {
+    isClosed = true;
+    isWaiting = false;
+    isPrefetching = false;
+    pages.clear();
+  }
+
+  private void arm(Page<T, M> page) {
+    currentCount = null == page.value ? 0 : getItemCount(page.value);
+    isArmed = null == page.error;
+  }
+
+  private JsonRequest<M> fetchIfNeeded() {
+    // Called while holding the lock; the request is dispatched after leaving
+    // it, as coalesced requests take the locks of other pagers.
+    if(isFetching || !hasMore || isClosed) {
+      return null;
+    }
+    if(!isWaiting && (!isPrefetching || pages.size() >= prefetchDepth)) {
+      isPrefetching = false;
+      return null;
+    }
+    isFetching = true;
+    return newRequest(cursor);
+  }
+
+  private void fetch(JsonRequest<M> request) {
+    if(null != request) {
+      client.dispatch(AbstractRequest.TYPE.GET, request, pageResponse);
+    }
+  }
+
+  private void deliver(Page<T, M> page) {
+    if(null == page.error) {
+      consumer.onSuccess(page.value, page.request);
+    } else {
+      consumer.onFailure(page.value, page.request, page.error);
+    }
+  }
+
+  private void onPage(Page<T, M> page) {
+    JsonRequest<M> request = null;
+    synchronized(this) {
+      isFetching = false;
+      if(isClosed) {
+        return;
+      }
+      if(!consumer.isAlive()) {
+        close();
+        return;
+      }
+      if(null == page.error) {
+        cursor = getNextCursor(page.value);
+        hasMore = null != cursor;
+      } else {
+        // Don't fetch further after a failure; the same cursor will be
+        // fetched again once the consumer asks for the next page.
+        isPrefetching = false;
+      }
+      if(isWaiting) {
+        isWaiting = false;
+        arm(page);
+      } else {
+        pages.add(page);
+        page = null;
+      }
+      if(null == page || null == page.error) {
+        request = fetchIfNeeded();
+      }
+    }
+    fetch(request);
+
+    if(null != page) {
+      deliver(page);
+    }
+  }
+
+  private final static class Page<T, M> {
+
+    final T value;
+    final AbstractRequest<M> request;
+    final Throwable error;
+
+    Page(T value, AbstractRequest<M> request, Throwable error) {
+      this.value = value;
+      this.request = request;
+      this.error = error;
+    }
+  }
+
+  final class PageResponse implements PooledJsonResponse<T, M> {
+
+    /**
+     * Returns the consumer which parses the pages.
+     *
+     * @return consumer of the pager
+     */
+    JsonResponse<T, M> getConsumer() {
+      return consumer;
+    }
+
+    @Override
+    public boolean isAlive() {
+      return !isClosed() && consumer.isAlive();
+    }
+
+    @Override
+    public T convertBytes(byte[] bytes) {
+      return consumer.convertBytes(bytes);
+    }
+
+    @Override
+    public T convertBuffer(ResponseBuffer buffer) {
+      return JsonResponseWrapper.convert(consumer, buffer);
+    }
+
+    @Override
+    public void onSuccess(T value, AbstractRequest<M> request) {
+      onPage(new Page(value, request, null));
+    }
+
+    @Override
+    public void onFailure(
+      T value,
+      AbstractRequest<M> request,
+      Throwable error
+    ) {
+      onPage(new Page(value, request, error));
+    }
+  }
+}
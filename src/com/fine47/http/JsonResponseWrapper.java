@@ -29,6 +29,7 @@ package com.fine47.http;
 
 import com.fine47.http.request.JsonRequest;
 import com.fine47.http.response.JsonResponse;
+import com.fine47.http.response.PooledJsonResponse;
 import com.fine47.json.JsonInterface;
 import com.loopj.android.http.RequestParams;
 
@@ -44,7 +45,25 @@ class JsonResponseWrapper<T extends JsonInterface, M>
   }
 
   @Override
-  T bytesToValue(byte[] bytes) {
-    return ((JsonResponse<T, M>)response).convertBytes(bytes);
+  T bufferToValue(ResponseBuffer buffer) {
+    return convert((JsonResponse<T, M>)response, buffer);
+  }
+
+  /**
+   * Converts the specified buffer using the specified response, straight from
+   * the buffer if the response supports it.
+   *
+   * @param <T> type of JSON entity which will be received
+   * @param response to convert the buffer with
+   * @param buffer holding the JSON value
+   * @return JSON value of the response's type
+   */
+  static <T extends JsonInterface>T convert(
+    JsonResponse<T, ?> response,
+    ResponseBuffer buffer
+  ) {
+    return response instanceof PooledJsonResponse
+      ? ((PooledJsonResponse<T, ?>)response).convertBuffer(buffer)
+      : response.convertBytes(buffer.toByteArray());
   }
 }
@@ -0,0 +1,248 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values with logarithmic buckets, in
+ * the spirit of HDR histograms: every power of two is split into eight
+ * linear sub-buckets, so any recorded value is reported within 12.5% of its
+ * real value while memory stays fixed regardless of the range of values.
+ *
+ * Counters are split in two stripes on multi-core devices, to keep
+ * concurrent recording from contending on the same cache lines without
+ * multiplying the memory of every histogram (about 2KB per stripe).
+ */
+public class LatencyHistogram {
+
+  private final static int SUB_BITS = 3;
+  private final static int SUB_COUNT = 1 << SUB_BITS;
+
+  /**
+   * The largest value which can be recorded; larger values are clamped.
+   */
+  public final static long MAX_VALUE = (1L << 32) - 1;
+
+  private final static int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+  // Layout of each stripe: sum, max, then the buckets.
+  private final static int SUM = 0;
+  private final static int MAX = 1;
+  private final static int HEADER = 2;
+  private final static int STRIDE = HEADER + BUCKETS;
+
+  private final static int STRIPES = stripesFor(
+    Runtime.getRuntime().availableProcessors()
+  );
+
+  private final AtomicLongArray cells =
+    new AtomicLongArray(STRIPES * STRIDE);
+
+  /**
+   * Records the specified value.
+   *
+   * @param value to record, negative values are ignored
+   */
+  public void record(long value) {
+    if(0 > value) {
+      return;
+    }
+    if(MAX_VALUE < value) {
+      value = MAX_VALUE;
+    }
+
+    final int stripe =
+      (int)(Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+    cells.incrementAndGet(stripe + HEADER + bucketOf(value));
+    cells.addAndGet(stripe + SUM, value);
+
+    long max;
+    while(value > (max = cells.get(stripe + MAX))) {
+      if(cells.compareAndSet(stripe + MAX, max, value)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the values recorded so far.
+   *
+   * @return snapshot of this histogram
+   */
+  public Snapshot snapshot() {
+    return snapshot(false);
+  }
+
+  /**
+   * Returns a snapshot of the values recorded so far and optionally resets
+   * the histogram. Values recorded while the snapshot is taken land either in
+   * the snapshot or in the reset histogram, but are never lost.
+   *
+   * @param reset TRUE to reset the histogram
+   * @return snapshot of this histogram
+   */
+  public Snapshot snapshot(boolean reset) {
+    final long[] counts = new long[BUCKETS];
+    long count = 0;
+    long sum = 0;
+    long max = 0;
+
+    for(int stripe = 0; stripe < STRIPES * STRIDE; stripe += STRIDE) {
+      for(int bucket = 0; bucket < BUCKETS; bucket++) {
+        final int index = stripe + HEADER + bucket;
+        final long value = reset ? cells.getAndSet(index, 0) : cells.get(index);
+        counts[bucket] += value;
+        count += value;
+      }
+      sum += reset
+        ? cells.getAndSet(stripe + SUM, 0)
+        : cells.get(stripe + SUM);
+      max = Math.max(
+        max,
+        reset ? cells.getAndSet(stripe + MAX, 0) : cells.get(stripe + MAX)
+      );
+    }
+
+    return new Snapshot(counts, count, sum, max);
+  }
+
+  /**
+   * Returns the bucket which the specified value falls into.
+   *
+   * @param value non-negative value
+   * @return bucket index
+   */
+  static int bucketOf(long value) {
+    if(SUB_COUNT > value) {
+      return (int)value;
+    }
+    final int msb = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int)(value >>> (msb - SUB_BITS)) & (SUB_COUNT - 1);
+    return (msb - SUB_BITS + 1) * SUB_COUNT + sub;
+  }
+
+  /**
+   * Returns the smallest value which falls into the specified bucket.
+   *
+   * @param bucket bucket index
+   * @return lowest value of the bucket
+   */
+  static long lowestOf(int bucket) {
+    if(SUB_COUNT > bucket) {
+      return bucket;
+    }
+    final int msb = bucket / SUB_COUNT + SUB_BITS - 1;
+    final long sub = bucket % SUB_COUNT;
+    return (SUB_COUNT + sub) << (msb - SUB_BITS);
+  }
+
+  private static int stripesFor(int processors) {
+    return 1 < processors ? 2 : 1;
+  }
+
+  /**
+   * An immutable snapshot of a {@link LatencyHistogram}.
+   */
+  public final static class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return number of values
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Returns the sum of all recorded values.
+     *
+     * @return sum of values
+     */
+    public long getSum() {
+      return sum;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return largest value, zero if no values were recorded
+     */
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * Returns the mean of all recorded values.
+     *
+     * @return mean value, zero if no values were recorded
+     */
+    public double getMean() {
+      return 0 == count ? 0 : (double)sum / count;
+    }
+
+    /**
+     * Returns the value below which the specified percentage of recorded
+     * values fall, within the histogram's precision.
+     *
+     * @param percentile percentage between 0.0 and 100.0
+     * @return value at the percentile, zero if no values were recorded
+     */
+    public long getPercentile(double percentile) {
+      if(0 == count) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for(int bucket = 0; bucket < counts.length; bucket++) {
+        seen += counts[bucket];
+        if(seen >= rank) {
+          // Report the bucket's highest value, but never above the maximum.
+          final long highest = bucket + 1 < counts.length
+            ? lowestOf(bucket + 1) - 1
+            : MAX_VALUE;
+          return Math.min(highest, max);
+        }
+      }
+      return max;
+    }
+  }
+}
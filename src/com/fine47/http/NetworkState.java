@@ -0,0 +1,135 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+/**
+ * An immutable snapshot of the device's network state.
+ *
+ * @see ConnectivityMonitor
+ */
+public final class NetworkState {
+
+  /**
+   * Types of networks.
+   */
+  public static enum TYPE {
+    NONE,
+    WIFI,
+    MOBILE,
+    OTHER
+  }
+
+  /**
+   * The state of a device which isn't connected to any network.
+   */
+  public final static NetworkState OFFLINE =
+    new NetworkState(TYPE.NONE, false, false);
+
+  /**
+   * Type of the active network.
+   */
+  public final TYPE type;
+
+  /**
+   * Whether the active network is metered, i.e. costs the user money.
+   */
+  public final boolean isMetered;
+
+  /**
+   * Whether the active network is roaming.
+   */
+  public final boolean isRoaming;
+
+  /**
+   * Create a new network state.
+   *
+   * @param type type of the active network
+   * @param isMetered whether the active network is metered
+   * @param isRoaming whether the active network is roaming
+   */
+  public NetworkState(TYPE type, boolean isMetered, boolean isRoaming) {
+    if(null == type) {
+      throw new IllegalArgumentException("Network type cannot be NULL.");
+    }
+    this.type = type;
+    this.isMetered = isMetered;
+    this.isRoaming = isRoaming;
+  }
+
+  /**
+   * Returns whether the device is connected, or connecting, to a network.
+   *
+   * @return TRUE if connected, FALSE otherwise
+   */
+  public boolean isConnected() {
+    return TYPE.NONE != type;
+  }
+
+  /**
+   * Returns whether the active network is a WiFi network.
+   *
+   * @return TRUE if connected to a WiFi network, FALSE otherwise
+   */
+  public boolean isWifi() {
+    return TYPE.WIFI == type;
+  }
+
+  /**
+   * Returns whether the active network is a mobile network.
+   *
+   * @return TRUE if connected to a mobile network, FALSE otherwise
+   */
+  public boolean isMobile() {
+    return TYPE.MOBILE == type;
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if(!(object instanceof NetworkState)) {
+      return false;
+    }
+    final NetworkState other = (NetworkState)object;
+    return type == other.type &&
+      isMetered == other.isMetered &&
+      isRoaming == other.isRoaming;
+  }
+
+  @Override
+  public int hashCode() {
+    return (type.ordinal() << 2) |
+      (isMetered ? 2 : 0) |
+      (isRoaming ? 1 : 0);
+  }
+
+  @Override
+  public String toString() {
+    return type +
+      (isMetered ? ", metered" : "") +
+      (isRoaming ? ", roaming" : "");
+  }
+}
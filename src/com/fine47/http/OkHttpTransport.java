@@ -0,0 +1,714 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.Log;
+import com.loopj.android.http.AsyncHttpClient;
+import com.loopj.android.http.AsyncHttpRequest;
+import com.loopj.android.http.ResponseHandlerInterface;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.CookieSpec;
+import org.apache.http.cookie.MalformedCookieException;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * An engine which carries out requests through OkHttp, multiplexing
+ * concurrent requests to the same host as streams over one HTTP/2 connection
+ * when the server supports it (and falling back to pooled HTTP/1.1
+ * connections otherwise).
+ *
+ * OkHttp is used through reflection, so it's only available when the app
+ * bundles the com.squareup.okhttp3:okhttp library. Compared to the default
+ * engine, requests aren't retried by the client's {@link RetryPolicy},
+ * don't report DNS, connect and TLS events, and don't go through the
+ * Apache client's interceptors. The client's cookie store, User-Agent and
+ * client-wide headers are applied by this engine instead.
+ *
+ * Request bodies which are streamed, of unknown length or larger than
+ * {@link #MAX_BUFFERED_BODY} are spilled to a temporary file, which OkHttp
+ * streams from, rather than being held in memory.
+ */
+public class OkHttpTransport implements Transport {
+
+  /**
+   * Largest request body which is held in memory, in bytes.
+   */
+  public final static int MAX_BUFFERED_BODY = 1 << 16;
+
+  private final static String USER_AGENT = "User-Agent";
+
+  // Clients derived for requests having timeouts of their own, all sharing
+  // the connection pool of the engine's one.
+  private final static int MAX_CLIENTS = 8;
+
+  private final Object okHttpClient;
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final LinkedHashMap<Long, Object> clients =
+    new LinkedHashMap(16, 0.75f, true) {
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry eldest) {
+        return MAX_CLIENTS < size();
+      }
+    };
+
+  /**
+   * Create a new OkHttp engine having the specified timeouts, which apply to
+   * requests not having timeouts of their own.
+   *
+   * @param connectTimeout connect timeout in milliseconds
+   * @param readTimeout read timeout in milliseconds
+   */
+  public OkHttpTransport(int connectTimeout, int readTimeout) {
+    if(!isAvailable()) {
+      throw new IllegalStateException("OkHttp is not available.");
+    }
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+    try {
+      okHttpClient = buildClient(
+        Api.clientBuilder.newInstance(),
+        connectTimeout,
+        readTimeout
+      );
+    } catch(Exception error) {
+      throw new IllegalStateException("Cannot create OkHttp client.", error);
+    }
+  }
+
+  /**
+   * Returns whether the OkHttp library is available.
+   *
+   * @return TRUE if this engine can be used, FALSE otherwise
+   */
+  public static boolean isAvailable() {
+    return Api.isAvailable;
+  }
+
+  @Override
+  public AsyncHttpRequest newRequest(
+    ActivityHttpClient client,
+    DefaultHttpClient httpClient,
+    HttpContext httpContext,
+    HttpUriRequest uriRequest,
+    ResponseHandlerInterface handler
+  ) {
+    return new Call(client, httpClient, httpContext, uriRequest, handler);
+  }
+
+  /**
+   * Builds the OkHttp request which corresponds to the specified call's
+   * request.
+   */
+  private Object newCall(Call owner) throws Exception {
+    final HttpUriRequest uriRequest = owner.uriRequest;
+    final HttpParams clientParams = owner.httpClient.getParams();
+    final Object builder = Api.requestBuilder.newInstance();
+    Api.url.invoke(builder, uriRequest.getURI().toString());
+
+    // Client-wide headers replace the request's own, like the Apache client
+    // does, and its User-Agent is added unless there's one already.
+    final Header[] clientHeaders = owner.client.getClientHeaders();
+    final String userAgent = null == clientParams
+      ? null
+      : HttpProtocolParams.getUserAgent(clientParams);
+    if(
+      null != userAgent &&
+      !uriRequest.containsHeader(USER_AGENT) &&
+      !contains(clientHeaders, USER_AGENT)
+    ) {
+      Api.addHeader.invoke(builder, USER_AGENT, userAgent);
+    }
+
+    String contentType = null;
+    for(final Header header : uriRequest.getAllHeaders()) {
+      final String name = header.getName();
+      if("Content-Type".equalsIgnoreCase(name)) {
+        contentType = header.getValue();
+      } else if(!isConnectionHeader(name) && !contains(clientHeaders, name)) {
+        Api.addHeader.invoke(builder, name, header.getValue());
+      }
+    }
+    for(final Header header : clientHeaders) {
+      Api.addHeader.invoke(builder, header.getName(), header.getValue());
+    }
+
+    // Send the cookies of the client's cookie store.
+    final CookieStore store = owner.httpClient.getCookieStore();
+    if(null != store) {
+      owner.cookieSpec = owner.httpClient.getCookieSpecs().getCookieSpec(
+        HttpClientParams.getCookiePolicy(clientParams),
+        clientParams
+      );
+      owner.cookieOrigin = originOf(uriRequest.getURI());
+      addCookies(builder, store, owner.cookieSpec, owner.cookieOrigin);
+    }
+
+    // OkHttp requires a body for some methods, even an empty one.
+    Object body = null;
+    final String method = uriRequest.getMethod();
+    HttpEntity entity = null;
+    if(uriRequest instanceof HttpEntityEnclosingRequest) {
+      entity = ((HttpEntityEnclosingRequest)uriRequest).getEntity();
+    }
+    final boolean isBodyRequired = "POST".equals(method) ||
+      "PUT".equals(method) ||
+      "PATCH".equals(method);
+    if(null != entity || isBodyRequired) {
+      if(null != entity) {
+        if(null != entity.getContentType()) {
+          contentType = entity.getContentType().getValue();
+        }
+        if(null != entity.getContentEncoding()) {
+          Api.addHeader.invoke(
+            builder,
+            AsyncHttpClient.HEADER_CONTENT_ENCODING,
+            entity.getContentEncoding().getValue()
+          );
+        }
+      }
+      final Object mediaType = null == contentType
+        ? null
+        : Api.parseMediaType.invoke(null, contentType);
+      body = newBody(owner, entity, mediaType);
+    }
+    Api.method.invoke(builder, method, body);
+
+    // Apply the request's own timeouts, if any.
+    final HttpParams params = uriRequest.getParams();
+    int callConnectTimeout = null == params
+      ? 0
+      : HttpConnectionParams.getConnectionTimeout(params);
+    int callReadTimeout = null == params
+      ? 0
+      : HttpConnectionParams.getSoTimeout(params);
+    if(0 >= callConnectTimeout) {
+      callConnectTimeout = connectTimeout;
+    }
+    if(0 >= callReadTimeout) {
+      callReadTimeout = readTimeout;
+    }
+
+    return Api.newCall.invoke(
+      getClient(callConnectTimeout, callReadTimeout),
+      Api.buildRequest.invoke(builder)
+    );
+  }
+
+  /**
+   * Returns the OkHttp client having the specified timeouts: the engine's
+   * one if they're the same, otherwise one derived from it and cached.
+   */
+  private Object getClient(int callConnectTimeout, int callReadTimeout)
+    throws Exception
+  {
+    if(connectTimeout == callConnectTimeout && readTimeout == callReadTimeout) {
+      return okHttpClient;
+    }
+
+    final Long key =
+      ((long)callConnectTimeout << 32) | (callReadTimeout & 0xFFFFFFFFL);
+    Object callClient;
+    synchronized(clients) {
+      callClient = clients.get(key);
+    }
+    if(null == callClient) {
+      callClient = buildClient(
+        Api.newBuilder.invoke(okHttpClient),
+        callConnectTimeout,
+        callReadTimeout
+      );
+      synchronized(clients) {
+        clients.put(key, callClient);
+      }
+    }
+    return callClient;
+  }
+
+  private static Object buildClient(
+    Object builder,
+    int connectTimeout,
+    int readTimeout
+  ) throws Exception {
+    builder = Api.connectTimeout.invoke(
+      builder,
+      (long)connectTimeout,
+      TimeUnit.MILLISECONDS
+    );
+    builder = Api.readTimeout.invoke(
+      builder,
+      (long)readTimeout,
+      TimeUnit.MILLISECONDS
+    );
+    return Api.buildClient.invoke(builder);
+  }
+
+  /**
+   * Builds the OkHttp request body holding the specified entity. OkHttp's
+   * request bodies can't be implemented through reflection, so large bodies
+   * are streamed from a temporary file rather than from the entity itself.
+   */
+  private static Object newBody(
+    Call owner,
+    HttpEntity entity,
+    Object mediaType
+  ) throws Exception {
+    if(null == entity) {
+      return Api.createBody.invoke(null, mediaType, new byte[0]);
+    }
+
+    final long length = entity.getContentLength();
+    if(!entity.isStreaming() && 0 <= length && MAX_BUFFERED_BODY >= length) {
+      final ByteArrayOutputStream output =
+        new ByteArrayOutputStream((int)length);
+      entity.writeTo(output);
+      return Api.createBody.invoke(null, mediaType, output.toByteArray());
+    }
+
+    final File file = File.createTempFile("okhttp", ".body");
+    owner.bodyFile = file;
+    final OutputStream output = new FileOutputStream(file);
+    try {
+      entity.writeTo(output);
+    } finally {
+      output.close();
+    }
+    return Api.createFileBody.invoke(null, mediaType, file);
+  }
+
+  private static CookieOrigin originOf(URI uri) {
+    final boolean isSecure = "https".equalsIgnoreCase(uri.getScheme());
+    int port = uri.getPort();
+    if(0 > port) {
+      port = isSecure ? 443 : 80;
+    }
+    String path = uri.getPath();
+    if(null == path || 0 == path.length()) {
+      path = "/";
+    }
+    return new CookieOrigin(uri.getHost(), port, path, isSecure);
+  }
+
+  private static void addCookies(
+    Object builder,
+    CookieStore store,
+    CookieSpec spec,
+    CookieOrigin origin
+  ) throws Exception {
+    final ArrayList<Cookie> matched = new ArrayList();
+    final Date now = new Date();
+    for(final Cookie cookie : store.getCookies()) {
+      if(!cookie.isExpired(now) && spec.match(cookie, origin)) {
+        matched.add(cookie);
+      }
+    }
+    if(!matched.isEmpty()) {
+      for(final Header header : spec.formatCookies(matched)) {
+        Api.addHeader.invoke(builder, header.getName(), header.getValue());
+      }
+    }
+  }
+
+  private static void storeCookies(
+    BasicHttpResponse httpResponse,
+    CookieStore store,
+    CookieSpec spec,
+    CookieOrigin origin
+  ) {
+    for(final Header header : httpResponse.getHeaders("Set-Cookie")) {
+      try {
+        for(final Cookie cookie : spec.parse(header, origin)) {
+          try {
+            spec.validate(cookie, origin);
+            store.addCookie(cookie);
+          } catch(MalformedCookieException error) {
+            if(ActivityHttpClient.isDebugging()) {
+              Log.w(ActivityHttpClient.LOG_TAG, "Cookie rejected.", error);
+            }
+          }
+        }
+      } catch(MalformedCookieException error) {
+        if(ActivityHttpClient.isDebugging()) {
+          Log.w(ActivityHttpClient.LOG_TAG, "Invalid cookie header.", error);
+        }
+      }
+    }
+  }
+
+  private static boolean contains(Header[] headers, String name) {
+    for(final Header header : headers) {
+      if(name.equalsIgnoreCase(header.getName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isConnectionHeader(String name) {
+    // OkHttp manages these, and HTTP/2 forbids some of them.
+    return "Content-Length".equalsIgnoreCase(name) ||
+      "Host".equalsIgnoreCase(name) ||
+      "Connection".equalsIgnoreCase(name) ||
+      "Keep-Alive".equalsIgnoreCase(name) ||
+      "Transfer-Encoding".equalsIgnoreCase(name);
+  }
+
+  /**
+   * Converts the specified OkHttp response to an Apache one.
+   */
+  private static BasicHttpResponse toHttpResponse(Object response)
+    throws Exception
+  {
+    final BasicHttpResponse httpResponse = new BasicHttpResponse(
+      new BasicStatusLine(
+        HttpVersion.HTTP_1_1,
+        (Integer)Api.code.invoke(response),
+        (String)Api.message.invoke(response)
+      )
+    );
+
+    String contentType = null;
+    String contentEncoding = null;
+    final Object headers = Api.headers.invoke(response);
+    final int count = (Integer)Api.headersSize.invoke(headers);
+    for(int index = 0; index < count; index++) {
+      final String name = (String)Api.headerName.invoke(headers, index);
+      final String value = (String)Api.headerValue.invoke(headers, index);
+      httpResponse.addHeader(name, value);
+      if(AsyncHttpClient.HEADER_CONTENT_TYPE.equalsIgnoreCase(name)) {
+        contentType = value;
+      } else if(
+        AsyncHttpClient.HEADER_CONTENT_ENCODING.equalsIgnoreCase(name)
+      ) {
+        contentEncoding = value.trim();
+      }
+    }
+
+    final Object body = Api.body.invoke(response);
+    if(null != body) {
+      final BasicHttpEntity entity = new BasicHttpEntity();
+      InputStream content = (InputStream)Api.byteStream.invoke(body);
+      long length = (Long)Api.contentLength.invoke(body);
+
+      // GZIP is expected to be decoded by the transport, like the default
+      // engine does.
+      if(AsyncHttpClient.ENCODING_GZIP.equalsIgnoreCase(contentEncoding)) {
+        content = new GZIPInputStream(content);
+        contentEncoding = null;
+        length = -1;
+      }
+
+      entity.setContent(content);
+      entity.setContentLength(length);
+      entity.setContentType(contentType);
+      entity.setContentEncoding(contentEncoding);
+      httpResponse.setEntity(entity);
+    }
+
+    return httpResponse;
+  }
+
+  /**
+   * Runs an OkHttp call and reports it to the response handler.
+   */
+  private final class Call extends AsyncHttpRequest {
+
+    private final ActivityHttpClient client;
+    private final DefaultHttpClient httpClient;
+    private final HttpUriRequest uriRequest;
+    private CookieSpec cookieSpec;
+    private CookieOrigin cookieOrigin;
+    private File bodyFile;
+
+    private final ResponseHandlerInterface handler;
+    private final AtomicBoolean isCancelled = new AtomicBoolean();
+    private final AtomicBoolean isCancelSent = new AtomicBoolean();
+    private volatile Object call;
+    private volatile boolean isFinished;
+
+    Call(
+      ActivityHttpClient client,
+      DefaultHttpClient httpClient,
+      HttpContext httpContext,
+      HttpUriRequest uriRequest,
+      ResponseHandlerInterface handler
+    ) {
+      super(httpClient, httpContext, uriRequest, handler);
+      this.client = client;
+      this.httpClient = httpClient;
+      this.uriRequest = uriRequest;
+      this.handler = handler;
+    }
+
+    @Override
+    public void run() {
+      if(isCancelled()) {
+        return;
+      }
+      handler.sendStartMessage();
+      if(isCancelled()) {
+        return;
+      }
+
+      try {
+        execute();
+      } catch(IOException error) {
+        if(!isCancelled()) {
+          handler.sendFailureMessage(0, null, null, error);
+        }
+      }
+
+      if(isCancelled()) {
+        return;
+      }
+      handler.sendFinishMessage();
+      isFinished = true;
+    }
+
+    private void execute() throws IOException {
+      Object response = null;
+      try {
+        call = newCall(this);
+        if(isCancelled()) {
+          return;
+        }
+        response = Api.execute.invoke(call);
+        if(isCancelled()) {
+          return;
+        }
+        final BasicHttpResponse httpResponse = toHttpResponse(response);
+        if(null != cookieSpec) {
+          storeCookies(
+            httpResponse,
+            httpClient.getCookieStore(),
+            cookieSpec,
+            cookieOrigin
+          );
+        }
+        handler.sendResponseMessage(httpResponse);
+      } catch(InvocationTargetException error) {
+        final Throwable cause = error.getCause();
+        if(cause instanceof IOException) {
+          throw (IOException)cause;
+        }
+        throw new IOException("OkHttp call failed.", cause);
+      } catch(IOException error) {
+        throw error;
+      } catch(Exception error) {
+        throw new IOException("OkHttp call failed.", error);
+      } finally {
+        if(null != response) {
+          close(response);
+        }
+        if(null != bodyFile) {
+          bodyFile.delete();
+          bodyFile = null;
+        }
+      }
+    }
+
+    @Override
+    public boolean isCancelled() {
+      final boolean cancelled = isCancelled.get();
+      if(cancelled && isCancelSent.compareAndSet(false, true)) {
+        handler.sendCancelMessage();
+      }
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return isCancelled() || isFinished;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      isCancelled.set(true);
+      final Object current = call;
+      if(null != current) {
+        try {
+          Api.cancel.invoke(current);
+        } catch(Exception error) {
+          if(ActivityHttpClient.isDebugging()) {
+            Log.e(ActivityHttpClient.LOG_TAG, "Cannot cancel call.", error);
+          }
+        }
+      }
+      return isCancelled();
+    }
+  }
+
+  private static void close(Object response) {
+    try {
+      final Object body = Api.body.invoke(response);
+      if(null != body) {
+        Api.closeBody.invoke(body);
+      }
+    } catch(Exception ignored) {
+      // Nothing else to do.
+    }
+  }
+
+  /**
+   * Reflective handles to the OkHttp API.
+   */
+  private final static class Api {
+
+    static boolean isAvailable;
+    static Constructor<?> clientBuilder;
+    static Method connectTimeout;
+    static Method readTimeout;
+    static Method buildClient;
+    static Method newBuilder;
+    static Method newCall;
+    static Constructor<?> requestBuilder;
+    static Method url;
+    static Method addHeader;
+    static Method method;
+    static Method buildRequest;
+    static Method parseMediaType;
+    static Method createBody;
+    static Method createFileBody;
+    static Method execute;
+    static Method cancel;
+    static Method code;
+    static Method message;
+    static Method headers;
+    static Method headersSize;
+    static Method headerName;
+    static Method headerValue;
+    static Method body;
+    static Method byteStream;
+    static Method contentLength;
+    static Method closeBody;
+
+    static {
+      try {
+        final Class<?> client = Class.forName("okhttp3.OkHttpClient");
+        final Class<?> builder = Class.forName("okhttp3.OkHttpClient$Builder");
+        final Class<?> request = Class.forName("okhttp3.Request");
+        final Class<?> requestBuilderClass =
+          Class.forName("okhttp3.Request$Builder");
+        final Class<?> mediaType = Class.forName("okhttp3.MediaType");
+        final Class<?> requestBody = Class.forName("okhttp3.RequestBody");
+        final Class<?> call = Class.forName("okhttp3.Call");
+        final Class<?> response = Class.forName("okhttp3.Response");
+        final Class<?> headersClass = Class.forName("okhttp3.Headers");
+        final Class<?> responseBody = Class.forName("okhttp3.ResponseBody");
+
+        clientBuilder = builder.getConstructor();
+        connectTimeout = builder.getMethod(
+          "connectTimeout",
+          long.class,
+          TimeUnit.class
+        );
+        readTimeout = builder.getMethod(
+          "readTimeout",
+          long.class,
+          TimeUnit.class
+        );
+        buildClient = builder.getMethod("build");
+        newBuilder = client.getMethod("newBuilder");
+        newCall = client.getMethod("newCall", request);
+        requestBuilder = requestBuilderClass.getConstructor();
+        url = requestBuilderClass.getMethod("url", String.class);
+        addHeader = requestBuilderClass.getMethod(
+          "addHeader",
+          String.class,
+          String.class
+        );
+        method = requestBuilderClass.getMethod(
+          "method",
+          String.class,
+          requestBody
+        );
+        buildRequest = requestBuilderClass.getMethod("build");
+        parseMediaType = mediaType.getMethod("parse", String.class);
+        createBody = requestBody.getMethod(
+          "create",
+          mediaType,
+          byte[].class
+        );
+        createFileBody = requestBody.getMethod(
+          "create",
+          mediaType,
+          File.class
+        );
+        execute = call.getMethod("execute");
+        cancel = call.getMethod("cancel");
+        code = response.getMethod("code");
+        message = response.getMethod("message");
+        headers = response.getMethod("headers");
+        headersSize = headersClass.getMethod("size");
+        headerName = headersClass.getMethod("name", int.class);
+        headerValue = headersClass.getMethod("value", int.class);
+        body = response.getMethod("body");
+        byteStream = responseBody.getMethod("byteStream");
+        contentLength = responseBody.getMethod("contentLength");
+        closeBody = responseBody.getMethod("close");
+        isAvailable = true;
+      } catch(Exception error) {
+        // OkHttp isn't bundled, or its API isn't compatible.
+        isAvailable = false;
+      }
+    }
+  }
+}
@@ -0,0 +1,711 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.Log;
+import com.fine47.http.request.AbstractRequest;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * A durable outbox for mutating requests (POST, PUT, PATCH and DELETE) which
+ * must reach the server eventually, even if the device is offline or the app
+ * is restarted meanwhile.
+ *
+ * Enqueued requests are serialized, body included, to an append-only journal
+ * in the app's private storage. They are sent whenever the device is online:
+ * right away, and again when connectivity returns. Requests with a higher
+ * priority go first, and requests of equal priority go in the order they
+ * were enqueued. Requests are sent in batches, with a pause between batches;
+ * a batch size of one guarantees strict ordering.
+ *
+ * A request is removed from the outbox once the server accepts (2xx) or
+ * rejects (3xx, 4xx) it; the outcome is reported to the {@link Listener}.
+ * Network errors, server errors (5xx), 408 and 429 leave the request in the
+ * outbox, and sending pauses until connectivity changes or {@link #flush()}
+ * is called. So does a 401 for a request which was sent with credentials
+ * from the client's {@link Authenticator}, once they couldn't be refreshed
+ * (ex. while offline). An optional idempotency key, sent in the
+ * "Idempotency-Key" header, lets the server discard duplicates.
+ */
+public class Outbox implements ConnectivityMonitor.Listener {
+
+  /**
+   * A listener which is notified of the outcome of enqueued requests, on a
+   * pool thread.
+   */
+  public static interface Listener {
+
+    /**
+     * Called when the server accepted a request.
+     *
+     * @param entry request which was accepted
+     * @param statusCode HTTP status code of the response
+     * @param body body of the response, if any
+     */
+    public void onDelivered(Entry entry, int statusCode, byte[] body);
+
+    /**
+     * Called when the server rejected a request, which is then dropped.
+     *
+     * @param entry request which was rejected
+     * @param statusCode HTTP status code of the response
+     * @param error the error describing the rejection
+     */
+    public void onRejected(Entry entry, int statusCode, Throwable error);
+  }
+
+  /**
+   * A request which is held in the outbox.
+   */
+  public final static class Entry {
+
+    /**
+     * Unique, increasing identifier of the request within the outbox.
+     */
+    public final long id;
+
+    /**
+     * Type of the request.
+     */
+    public final AbstractRequest.TYPE type;
+
+    /**
+     * The request's end-point URL.
+     */
+    public final String url;
+
+    /**
+     * Priority of the request; higher priorities are sent first.
+     */
+    public final int priority;
+
+    /**
+     * Idempotency key of the request, NULL if none.
+     */
+    public final String idempotencyKey;
+
+    final Header[] headers;
+    final String contentType;
+    final String contentEncoding;
+    final byte[] body;
+
+    Entry(
+      long id,
+      AbstractRequest.TYPE type,
+      String url,
+      int priority,
+      String idempotencyKey,
+      Header[] headers,
+      String contentType,
+      String contentEncoding,
+      byte[] body
+    ) {
+      this.id = id;
+      this.type = type;
+      this.url = url;
+      this.priority = priority;
+      this.idempotencyKey = idempotencyKey;
+      this.headers = headers;
+      this.contentType = contentType;
+      this.contentEncoding = contentEncoding;
+      this.body = body;
+    }
+
+    @Override
+    public String toString() {
+      return type + " " + url + " (id=" + id + ")";
+    }
+  }
+
+  /**
+   * Name of the header which carries idempotency keys.
+   */
+  public final static String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
+  /**
+   * Maximum size of a request's body, in bytes.
+   */
+  public final static int MAX_BODY_SIZE = 1024 * 1024;
+
+  /**
+   * Default number of requests sent in a batch.
+   */
+  public final static int DEFAULT_BATCH_SIZE = 4;
+
+  /**
+   * Default pause between batches, in milliseconds.
+   */
+  public final static int DEFAULT_BATCH_INTERVAL = 1000;
+
+  // Journal records.
+  private final static byte RECORD_ADD = 1;
+  private final static byte RECORD_DONE = 2;
+
+  // Number of finished requests in the journal which trigger a compaction.
+  private final static int COMPACT_THRESHOLD = 64;
+
+  private final static Comparator<Entry> ORDER = new Comparator<Entry>() {
+
+    @Override
+    public int compare(Entry lhs, Entry rhs) {
+      if(lhs.priority != rhs.priority) {
+        return lhs.priority > rhs.priority ? -1 : 1;
+      }
+      return lhs.id < rhs.id ? -1 : (lhs.id == rhs.id ? 0 : 1);
+    }
+  };
+
+  private final ActivityHttpClient client;
+  private final File journal;
+  private final TreeSet<Entry> pending = new TreeSet(ORDER);
+
+  private FileOutputStream file;
+  private DataOutputStream output;
+  private long nextId = 1;
+  private int finished;
+  private boolean isFlushing;
+  private boolean isClosed;
+
+  private volatile Listener listener;
+  private volatile int batchSize = DEFAULT_BATCH_SIZE;
+  private volatile int batchInterval = DEFAULT_BATCH_INTERVAL;
+
+  /**
+   * Create a new outbox, or open an existing one, having the specified name.
+   * Requests which are left over from earlier runs are sent as soon as the
+   * device is online.
+   *
+   * @param client HTTP client which sends the requests
+   * @param name name of the outbox, unique within the app
+   * @throws IOException if the journal cannot be opened
+   */
+  public Outbox(ActivityHttpClient client, String name) throws IOException {
+    this.client = client;
+    journal = new File(
+      client.getContext().getFilesDir(),
+      "outbox-" + name + ".journal"
+    );
+    load();
+    client.getConnectivityMonitor().addListener(this);
+    flush();
+  }
+
+  /**
+   * Sets the listener which is notified of the outcome of requests.
+   *
+   * @param listener outcome listener, NULL to stop notifications
+   */
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Sets how many requests are sent in a batch, and the pause between
+   * batches.
+   *
+   * @param batchSize number of requests per batch
+   * @param batchInterval pause between batches, in milliseconds
+   */
+  public void setBatching(int batchSize, int batchInterval) {
+    if(0 >= batchSize || 0 > batchInterval) {
+      throw new IllegalArgumentException("Invalid batching parameters.");
+    }
+    this.batchSize = batchSize;
+    this.batchInterval = batchInterval;
+  }
+
+  /**
+   * Returns the number of requests which are waiting to be sent.
+   *
+   * @return number of pending requests
+   */
+  public synchronized int size() {
+    return pending.size();
+  }
+
+  /**
+   * Returns a new random idempotency key.
+   *
+   * @return idempotency key
+   */
+  public static String newIdempotencyKey() {
+    return UUID.randomUUID().toString();
+  }
+
+  /**
+   * Enqueues the specified request with a normal priority and without an
+   * idempotency key.
+   *
+   * @param type type of request, one of POST, PUT, PATCH or DELETE
+   * @param request request to enqueue
+   * @return the entry of the request in the outbox
+   * @throws IOException if the request cannot be written to the journal
+   */
+  public Entry enqueue(AbstractRequest.TYPE type, AbstractRequest request)
+    throws IOException
+  {
+    return enqueue(type, request, 0, null);
+  }
+
+  /**
+   * Enqueues the specified request. Its body is built and written to the
+   * journal before this method returns, so later changes to the request
+   * don't affect it. Requests which include files cannot be enqueued.
+   *
+   * @param type type of request, one of POST, PUT, PATCH or DELETE
+   * @param request request to enqueue
+   * @param priority priority of the request; higher priorities go first
+   * @param idempotencyKey idempotency key of the request, NULL for none
+   * @return the entry of the request in the outbox
+   * @throws IOException if the request cannot be written to the journal
+   */
+  public Entry enqueue(
+    AbstractRequest.TYPE type,
+    AbstractRequest request,
+    int priority,
+    String idempotencyKey
+  ) throws IOException {
+    if(
+      AbstractRequest.TYPE.HEAD == type ||
+      AbstractRequest.TYPE.GET == type
+    ) {
+      throw new IllegalArgumentException("Only mutating requests allowed.");
+    }
+    if(request.hasFiles()) {
+      throw new IllegalArgumentException("Requests with files not allowed.");
+    }
+
+    // Build the body now; the request might change later.
+    String contentType = request.contentType;
+    String contentEncoding = null;
+    byte[] body = null;
+    final HttpEntity entity = request.getEntity(null);
+    if(null != entity) {
+      if(MAX_BODY_SIZE < entity.getContentLength()) {
+        throw new IllegalArgumentException("Request body is too large.");
+      }
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      entity.writeTo(bytes);
+      if(MAX_BODY_SIZE < bytes.size()) {
+        throw new IllegalArgumentException("Request body is too large.");
+      }
+      body = bytes.toByteArray();
+      if(null != entity.getContentType()) {
+        contentType = entity.getContentType().getValue();
+      }
+      if(null != entity.getContentEncoding()) {
+        contentEncoding = entity.getContentEncoding().getValue();
+      }
+    }
+
+    final Entry entry;
+    synchronized(this) {
+      if(isClosed) {
+        throw new IOException("Outbox is closed.");
+      }
+      entry = new Entry(
+        nextId++,
+        type,
+        request.url,
+        priority,
+        idempotencyKey,
+        request.getHeaders(),
+        contentType,
+        contentEncoding,
+        body
+      );
+      try {
+        writeAdd(output, entry);
+        sync();
+      } catch(IOException error) {
+        // Don't leave a partial record behind.
+        compact();
+        throw error;
+      }
+      pending.add(entry);
+    }
+
+    flush();
+    return entry;
+  }
+
+  /**
+   * Sends pending requests, if the device is online and they aren't being
+   * sent already.
+   */
+  public void flush() {
+    synchronized(this) {
+      if(isClosed || isFlushing || pending.isEmpty() || !client.isOnline()) {
+        return;
+      }
+      isFlushing = true;
+    }
+    sendBatch();
+  }
+
+  /**
+   * Closes the outbox. Pending requests stay in the journal, and are sent
+   * once an outbox having the same name is created again.
+   */
+  public void close() {
+    client.getConnectivityMonitor().removeListener(this);
+    synchronized(this) {
+      if(isClosed) {
+        return;
+      }
+      isClosed = true;
+      try {
+        output.close();
+      } catch(IOException error) {
+        if(ActivityHttpClient.isDebugging()) {
+          Log.e(ActivityHttpClient.LOG_TAG, "Cannot close outbox.", error);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onNetworkChanged(NetworkState previous, NetworkState current) {
+    if(current.isConnected()) {
+      flush();
+    }
+  }
+
+  private void sendBatch() {
+    final ArrayList<Entry> batch = new ArrayList();
+    synchronized(this) {
+      if(!isClosed && client.isOnline()) {
+        final int size = batchSize;
+        for(final Entry entry : pending) {
+          if(size == batch.size()) {
+            break;
+          }
+          batch.add(entry);
+        }
+      }
+      if(batch.isEmpty()) {
+        isFlushing = false;
+        return;
+      }
+    }
+
+    final Batch state = new Batch(batch.size());
+    for(final Entry entry : batch) {
+      if(ActivityHttpClient.isDebugging()) {
+        Log.d(ActivityHttpClient.LOG_TAG, "Replaying: " + entry);
+      }
+      final OutboxRequest request = new OutboxRequest(entry);
+      client.dispatch(
+        entry.type,
+        request,
+        new OutboxResponseWrapper(this, state, request)
+      );
+    }
+  }
+
+  /**
+   * Records the outcome of a request which was sent as part of a batch.
+   *
+   * @param batch batch which the request was part of
+   * @param entry request which was sent
+   * @param statusCode HTTP status code of the response, zero if none
+   * @param body body of the response, if any
+   * @param error error which occurred, NULL if the request succeeded
+   */
+  void complete(
+    Batch batch,
+    Entry entry,
+    int statusCode,
+    byte[] body,
+    Throwable error
+  ) {
+    final boolean isDelivered = null == error && 300 > statusCode;
+    final boolean isRejected = !isDelivered &&
+      300 <= statusCode &&
+      500 > statusCode &&
+      408 != statusCode &&
+      429 != statusCode;
+
+    if(isDelivered || isRejected) {
+      remove(entry);
+      final Listener target = listener;
+      if(null != target) {
+        if(isDelivered) {
+          target.onDelivered(entry, statusCode, body);
+        } else {
+          target.onRejected(entry, statusCode, error);
+        }
+      }
+    } else {
+      batch.isStalled = true;
+    }
+
+    if(0 != batch.remaining.decrementAndGet()) {
+      return;
+    }
+    if(batch.isStalled) {
+      // Wait for connectivity to change, or for the next flush.
+      synchronized(this) {
+        isFlushing = false;
+      }
+      return;
+    }
+
+    try {
+      client.getScheduler().schedule(
+        new Runnable() {
+
+          @Override
+          public void run() {
+            sendBatch();
+          }
+        },
+        batchInterval,
+        TimeUnit.MILLISECONDS
+      );
+    } catch(RejectedExecutionException ignored) {
+      // The client is shutting down.
+      synchronized(this) {
+        isFlushing = false;
+      }
+    }
+  }
+
+  private synchronized void remove(Entry entry) {
+    if(!pending.remove(entry) || isClosed) {
+      return;
+    }
+    try {
+      if(pending.isEmpty()) {
+        // Start over with an empty journal.
+        output.close();
+        output = open(false);
+        finished = 0;
+      } else {
+        output.writeByte(RECORD_DONE);
+        output.writeLong(entry.id);
+        sync();
+        if(COMPACT_THRESHOLD <= ++finished) {
+          compact();
+        }
+      }
+    } catch(IOException error) {
+      if(ActivityHttpClient.isDebugging()) {
+        Log.e(ActivityHttpClient.LOG_TAG, "Cannot update outbox.", error);
+      }
+    }
+  }
+
+  private void load() throws IOException {
+    if(journal.exists()) {
+      final DataInputStream input = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(journal))
+      );
+      try {
+        while(true) {
+          final byte record = input.readByte();
+          if(RECORD_ADD == record) {
+            final Entry entry = readAdd(input);
+            pending.add(entry);
+            nextId = Math.max(nextId, entry.id + 1);
+          } else if(RECORD_DONE == record) {
+            final long id = input.readLong();
+            for(final Entry entry : pending) {
+              if(id == entry.id) {
+                pending.remove(entry);
+                break;
+              }
+            }
+          } else {
+            throw new IOException("Corrupt outbox journal.");
+          }
+        }
+      } catch(EOFException ignored) {
+        // End of the journal, or a record cut short by a crash.
+      } catch(IOException error) {
+        if(ActivityHttpClient.isDebugging()) {
+          Log.e(ActivityHttpClient.LOG_TAG, "Outbox truncated.", error);
+        }
+      } finally {
+        input.close();
+      }
+    }
+
+    // Start with a compact journal, which also drops any partial record.
+    compact();
+  }
+
+  private void compact() throws IOException {
+    final File temp = new File(journal.getPath() + ".tmp");
+    final FileOutputStream tempFile = new FileOutputStream(temp);
+    final DataOutputStream compacted = new DataOutputStream(
+      new BufferedOutputStream(tempFile)
+    );
+    try {
+      for(final Entry entry : pending) {
+        writeAdd(compacted, entry);
+      }
+      compacted.flush();
+      tempFile.getFD().sync();
+    } finally {
+      compacted.close();
+    }
+
+    if(null != output) {
+      output.close();
+    }
+    if(!temp.renameTo(journal)) {
+      throw new IOException("Cannot replace outbox journal: " + journal);
+    }
+    output = open(true);
+    finished = 0;
+  }
+
+  private DataOutputStream open(boolean append) throws IOException {
+    file = new FileOutputStream(journal, append);
+    return new DataOutputStream(new BufferedOutputStream(file));
+  }
+
+  private void sync() throws IOException {
+    // Make sure the record survives a crash before going on.
+    output.flush();
+    file.getFD().sync();
+  }
+
+  private static void writeAdd(DataOutputStream output, Entry entry)
+    throws IOException
+  {
+    output.writeByte(RECORD_ADD);
+    output.writeLong(entry.id);
+    output.writeUTF(entry.type.name());
+    output.writeUTF(entry.url);
+    output.writeInt(entry.priority);
+    writeString(output, entry.idempotencyKey);
+    writeString(output, entry.contentType);
+    writeString(output, entry.contentEncoding);
+    output.writeInt(entry.headers.length);
+    for(final Header header : entry.headers) {
+      output.writeUTF(header.getName());
+      output.writeUTF(header.getValue());
+    }
+    if(null == entry.body) {
+      output.writeInt(-1);
+    } else {
+      output.writeInt(entry.body.length);
+      output.write(entry.body);
+    }
+  }
+
+  private static Entry readAdd(DataInputStream input) throws IOException {
+    final long id = input.readLong();
+    final AbstractRequest.TYPE type;
+    try {
+      type = AbstractRequest.TYPE.valueOf(input.readUTF());
+    } catch(IllegalArgumentException error) {
+      throw new IOException("Unknown request type.");
+    }
+    final String url = input.readUTF();
+    final int priority = input.readInt();
+    final String idempotencyKey = readString(input);
+    final String contentType = readString(input);
+    final String contentEncoding = readString(input);
+    final int headerCount = input.readInt();
+    if(0 > headerCount) {
+      throw new IOException("Invalid header count.");
+    }
+    final Header[] headers = new Header[headerCount];
+    for(int index = 0; index < headerCount; index++) {
+      headers[index] = new BasicHeader(input.readUTF(), input.readUTF());
+    }
+    final int bodyLength = input.readInt();
+    if(MAX_BODY_SIZE < bodyLength) {
+      throw new IOException("Invalid body length.");
+    }
+    byte[] body = null;
+    if(0 <= bodyLength) {
+      body = new byte[bodyLength];
+      input.readFully(body);
+    }
+    return new Entry(
+      id,
+      type,
+      url,
+      priority,
+      idempotencyKey,
+      headers,
+      contentType,
+      contentEncoding,
+      body
+    );
+  }
+
+  private static void writeString(DataOutputStream output, String value)
+    throws IOException
+  {
+    output.writeBoolean(null != value);
+    if(null != value) {
+      output.writeUTF(value);
+    }
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    return input.readBoolean() ? input.readUTF() : null;
+  }
+
+  /**
+   * Progress of a batch of requests.
+   */
+  final static class Batch {
+
+    final AtomicInteger remaining;
+    volatile boolean isStalled;
+
+    Batch(int size) {
+      remaining = new AtomicInteger(size);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.request.AbstractRequest;
+import com.loopj.android.http.ResponseHandlerInterface;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+
+/**
+ * A request which is replayed from an {@link Outbox}, carrying the body which
+ * was built when it was enqueued.
+ *
+ * This is an internal class.
+ */
+class OutboxRequest extends AbstractRequest<Outbox.Entry> {
+
+  OutboxRequest(Outbox.Entry entry) {
+    super(entry.url, entry.contentType, entry);
+    for(final Header header : entry.headers) {
+      addHeader(header);
+    }
+    if(null != entry.idempotencyKey) {
+      addHeader(Outbox.HEADER_IDEMPOTENCY_KEY, entry.idempotencyKey);
+    }
+  }
+
+  @Override
+  public HttpEntity getEntity(ResponseHandlerInterface handler) {
+    if(null == metaData.body) {
+      return null;
+    }
+    final ByteArrayEntity entity = new ByteArrayEntity(metaData.body);
+    entity.setContentType(metaData.contentType);
+    entity.setContentEncoding(metaData.contentEncoding);
+    return entity;
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+/**
+ * Response handler of a request which is replayed from an {@link Outbox},
+ * reporting its outcome back to the outbox.
+ *
+ * This is an internal class.
+ */
+class OutboxResponseWrapper
+  extends AbstractResponseWrapper<byte[], Outbox.Entry>
+{
+
+  private final Outbox outbox;
+  private final Outbox.Batch batch;
+  private final Outbox.Entry entry;
+  private final AtomicBoolean isCompleted;
+  private final boolean isReplay;
+
+  OutboxResponseWrapper(
+    Outbox outbox,
+    Outbox.Batch batch,
+    OutboxRequest request
+  ) {
+    super(request, null);
+    this.outbox = outbox;
+    this.batch = batch;
+    entry = request.metaData;
+    isCompleted = new AtomicBoolean();
+    isReplay = false;
+  }
+
+  private OutboxResponseWrapper(OutboxResponseWrapper primary) {
+    super(primary.request, null);
+    outbox = primary.outbox;
+    batch = primary.batch;
+    entry = primary.entry;
+    isCompleted = primary.isCompleted;
+    isReplay = true;
+    type = primary.type;
+    future = primary.future;
+
+    // Should the refresh fail, the rejection is reported with these.
+    credentials = primary.credentials;
+  }
+
+  @Override
+  boolean isAllowedContentType(HttpResponse httpResponse) {
+    // Any response will do.
+    return true;
+  }
+
+  @Override
+  boolean isReplayable() {
+    // Credentials rejected again won't be refreshed again.
+    return !isReplay && super.isReplayable();
+  }
+
+  @Override
+  AbstractResponseWrapper<byte[], Outbox.Entry> newReplay() {
+    // The copy reports back to the outbox, and completes the entry once.
+    return new OutboxResponseWrapper(this);
+  }
+
+  @Override
+  public void onSuccess(int statusCode, Header[] headers, byte[] bytes) {
+    final ResponseBuffer buffer = bufferOf(bytes);
+    complete(statusCode, null == buffer ? null : buffer.toByteArray(), null);
+  }
+
+  @Override
+  public void onFailure(
+    int statusCode,
+    Header[] headers,
+    byte[] bytes,
+    Throwable error
+  ) {
+    if(null != events) {
+      events.failed(error);
+    }
+    if(401 == statusCode && null != credentials) {
+      // The credentials couldn't be refreshed (ex. while offline), which
+      // doesn't make the entry undeliverable.
+      complete(0, null, error);
+    } else {
+      complete(statusCode, null, error);
+    }
+  }
+
+  @Override
+  public void onCancel() {
+    super.onCancel();
+
+    // The entry stays in the outbox, to be sent with a later batch.
+    complete(0, null, new CancellationException("Request cancelled."));
+  }
+
+  @Override
+  byte[] bufferToValue(ResponseBuffer buffer) {
+    return buffer.toByteArray();
+  }
+
+  private void complete(int statusCode, byte[] body, Throwable error) {
+    // The batch counts every entry down exactly once.
+    if(isCompleted.compareAndSet(false, true)) {
+      outbox.complete(batch, entry, statusCode, body, error);
+    }
+  }
+}
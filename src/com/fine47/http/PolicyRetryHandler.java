@@ -0,0 +1,95 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.Log;
+import java.io.IOException;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Retry handler which delegates to a {@link RetryPolicy}, subject to the
+ * client-wide {@link RequestBudget}.
+ *
+ * This is an internal class.
+ */
+class PolicyRetryHandler implements HttpRequestRetryHandler {
+
+  private final ActivityHttpClient client;
+  final RetryPolicy policy;
+
+  PolicyRetryHandler(ActivityHttpClient client, RetryPolicy policy) {
+    this.client = client;
+    this.policy = policy;
+  }
+
+  @Override
+  public boolean retryRequest(
+    IOException error,
+    int executionCount,
+    HttpContext context
+  ) {
+    final Object request = context.getAttribute(ExecutionContext.HTTP_REQUEST);
+    if(!(request instanceof HttpRequest)) {
+      return false;
+    }
+
+    final Boolean sent =
+      (Boolean)context.getAttribute(ExecutionContext.HTTP_REQ_SENT);
+    final long delay = policy.getRetryDelay(
+      ((HttpRequest)request).getRequestLine().getMethod(),
+      error,
+      executionCount,
+      null != sent && sent
+    );
+    if(0 > delay) {
+      return false;
+    }
+
+    final RequestBudget budget = client.getRetryBudget();
+    if(null != budget && !budget.tryWithdraw()) {
+      if(ActivityHttpClient.isDebugging()) {
+        Log.d(ActivityHttpClient.LOG_TAG, "Retry budget exhausted.");
+      }
+      return false;
+    }
+
+    if(0 < delay) {
+      try {
+        Thread.sleep(delay);
+      } catch(InterruptedException ignored) {
+        // Cancelled while waiting.
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+}
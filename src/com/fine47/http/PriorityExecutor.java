@@ -0,0 +1,152 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded thread pool which runs queued tasks by priority, highest first,
+ * and in submission order within the same priority. Requests take the
+ * priority of their {@link RequestFuture}, other tasks a normal priority.
+ *
+ * This is an internal class.
+ */
+class PriorityExecutor extends ThreadPoolExecutor {
+
+  private final static ThreadLocal<RequestFuture> submitting =
+    new ThreadLocal();
+  private final static AtomicLong sequence = new AtomicLong();
+
+  PriorityExecutor(int threads) {
+    super(
+      threads,
+      threads,
+      30,
+      TimeUnit.SECONDS,
+      new PriorityBlockingQueue<Runnable>()
+    );
+    allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Sets the future of the request which the current thread is about to
+   * submit, NULL once it has been submitted.
+   *
+   * @param future future of the request
+   */
+  static void setSubmitting(RequestFuture future) {
+    if(null == future) {
+      submitting.remove();
+    } else {
+      submitting.set(future);
+    }
+  }
+
+  /**
+   * Resizes the pool to the specified number of threads.
+   *
+   * @param threads number of threads
+   */
+  void resize(int threads) {
+    if(threads > getMaximumPoolSize()) {
+      setMaximumPoolSize(threads);
+      setCorePoolSize(threads);
+    } else {
+      setCorePoolSize(threads);
+      setMaximumPoolSize(threads);
+    }
+  }
+
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+    final RequestFuture future = submitting.get();
+    submitting.remove();
+    return new Task(runnable, value, future);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    // The queue only holds tasks which can be ordered.
+    super.execute(
+      command instanceof Task ? command : new Task(command, null, null)
+    );
+  }
+
+  /**
+   * A task which can be ordered by priority.
+   */
+  final class Task<T> extends FutureTask<T> implements Comparable<Task> {
+
+    private final long order = sequence.getAndIncrement();
+    private volatile int priority;
+
+    Task(Runnable runnable, T value, RequestFuture future) {
+      super(runnable, value);
+      if(null != future) {
+        priority = future.getPriority();
+        future.setTask(this);
+      }
+    }
+
+    /**
+     * Changes the priority of this task, moving it within the queue if it's
+     * still waiting to run.
+     *
+     * @param priority new priority
+     */
+    void setPriority(int priority) {
+      if(getQueue().remove(this)) {
+        this.priority = priority;
+        getQueue().offer(this);
+      } else {
+        this.priority = priority;
+      }
+    }
+
+    /**
+     * Removes this task from the queue if it's still waiting to run.
+     */
+    void discard() {
+      cancel(false);
+      getQueue().remove(this);
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      if(priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return order < other.order ? -1 : (order == other.order ? 0 : 1);
+    }
+  }
+}
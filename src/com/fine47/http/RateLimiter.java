@@ -0,0 +1,332 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.request.AbstractRequest;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of requests to selected hosts or URL prefixes using token
+ * buckets. Requests over the limit aren't rejected, but delayed until their
+ * turn comes.
+ *
+ * When a limited host answers with "429 Too Many Requests", its rate is
+ * halved and then recovers gradually. A "Retry-After" header along with a
+ * 429 or 503 response holds back further requests until the given time.
+ *
+ * Reserving a turn is lock-free, and requests to hosts which aren't limited
+ * only cost a lookup.
+ *
+ * @see ActivityHttpClient#setRateLimiter(RateLimiter)
+ */
+public class RateLimiter {
+
+  /**
+   * Default time a throttled rate takes to recover, in milliseconds.
+   */
+  public final static int DEFAULT_RECOVERY = 60000;
+
+  // Lowest fraction of the configured rate which throttling can go down to.
+  private final static double MIN_FACTOR = 1.0 / 64;
+
+  private final static long NANOS_PER_MILLI = 1000000L;
+
+  private final static Limit[] NO_LIMITS = new Limit[0];
+
+  private final static Comparator<Limit> LONGEST_FIRST =
+    new Comparator<Limit>() {
+
+      @Override
+      public int compare(Limit first, Limit second) {
+        return second.key.length() - first.key.length();
+      }
+    };
+
+  private final ConcurrentHashMap<String, Limit> hosts =
+    new ConcurrentHashMap();
+  private final long recovery;
+
+  private volatile Limit[] prefixes = NO_LIMITS;
+
+  /**
+   * Create a new rate limiter using the default recovery time.
+   */
+  public RateLimiter() {
+    this(DEFAULT_RECOVERY);
+  }
+
+  /**
+   * Create a new rate limiter.
+   *
+   * @param recovery time a throttled rate takes to recover, in milliseconds
+   */
+  public RateLimiter(int recovery) {
+    if(0 >= recovery) {
+      throw new IllegalArgumentException("Invalid limiter parameters.");
+    }
+    this.recovery = recovery * NANOS_PER_MILLI;
+  }
+
+  /**
+   * Limits the rate of requests to the specified host or URL prefix. Keys
+   * which include a scheme (ex. "https://api.example.com/v1/search") are
+   * matched as URL prefixes, and take precedence over host names; the
+   * longest matching prefix wins.
+   *
+   * @param key host name or URL prefix to limit
+   * @param rate number of requests per second
+   * @param burst number of requests which may go out at once
+   */
+  public void setLimit(String key, double rate, int burst) {
+    if(null == key || 0 >= rate || 0 >= burst) {
+      throw new IllegalArgumentException("Invalid limiter parameters.");
+    }
+    final Limit limit = new Limit(key, rate, burst);
+    if(isPrefix(key)) {
+      synchronized(this) {
+        final Limit[] current = withoutPrefix(key);
+        final Limit[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = limit;
+        Arrays.sort(updated, LONGEST_FIRST);
+        prefixes = updated;
+      }
+    } else {
+      hosts.put(key.toLowerCase(Locale.US), limit);
+    }
+  }
+
+  /**
+   * Removes the limit of the specified host or URL prefix.
+   *
+   * @param key host name or URL prefix
+   */
+  public void removeLimit(String key) {
+    if(isPrefix(key)) {
+      synchronized(this) {
+        prefixes = withoutPrefix(key);
+      }
+    } else {
+      hosts.remove(key.toLowerCase(Locale.US));
+    }
+  }
+
+  /**
+   * Returns the current rate of the specified host or URL prefix, which is
+   * lower than the configured one while recovering from throttling.
+   *
+   * @param key host name or URL prefix
+   * @return number of requests per second, -1 if not limited
+   */
+  public double getRate(String key) {
+    Limit limit = null;
+    if(isPrefix(key)) {
+      for(final Limit prefix : prefixes) {
+        if(prefix.key.equals(key)) {
+          limit = prefix;
+          break;
+        }
+      }
+    } else {
+      limit = hosts.get(key.toLowerCase(Locale.US));
+    }
+    return null == limit
+      ? -1
+      : limit.rate * limit.getFactor(System.nanoTime());
+  }
+
+  /**
+   * Reserves a turn for the specified request.
+   *
+   * @param request to reserve a turn for
+   * @return time to wait before sending the request, in milliseconds
+   */
+  long reserve(AbstractRequest request) {
+    final Limit limit = find(request);
+    if(null == limit) {
+      return 0;
+    }
+    final long delay = limit.reserve(System.nanoTime());
+    return 0 == delay ? 0 : (delay + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Slows down requests to the specified request's host, which answered
+   * with the specified status code.
+   *
+   * @param request which was answered
+   * @param statusCode of the response, 429 or 503
+   * @param retryAfter value of the "Retry-After" header, NULL if missing
+   */
+  void throttle(AbstractRequest request, int statusCode, String retryAfter) {
+    final Limit limit = find(request);
+    if(null == limit) {
+      return;
+    }
+    final long now = System.nanoTime();
+    if(429 == statusCode) {
+      limit.slowDown(now);
+    }
+    final long pause = parseRetryAfter(retryAfter);
+    if(0 < pause) {
+      limit.pause(now, pause * NANOS_PER_MILLI);
+    }
+  }
+
+  private Limit find(AbstractRequest request) {
+    final Limit[] current = prefixes;
+    if(0 < current.length) {
+      final String url = request.url;
+      for(final Limit limit : current) {
+        if(url.startsWith(limit.key)) {
+          return limit;
+        }
+      }
+    }
+    return hosts.isEmpty() ? null : hosts.get(request.getHost());
+  }
+
+  private Limit[] withoutPrefix(String key) {
+    final Limit[] current = prefixes;
+    for(int index = 0; index < current.length; index++) {
+      if(current[index].key.equals(key)) {
+        final Limit[] updated = new Limit[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(
+          current,
+          index + 1,
+          updated,
+          index,
+          updated.length - index
+        );
+        return updated;
+      }
+    }
+    return current;
+  }
+
+  private static boolean isPrefix(String key) {
+    return -1 != key.indexOf("://");
+  }
+
+  private static long parseRetryAfter(String value) {
+    if(null == value) {
+      return 0;
+    }
+    value = value.trim();
+    try {
+      return Math.max(0, Long.parseLong(value) * 1000);
+    } catch(NumberFormatException ignored) {
+    }
+    try {
+      final SimpleDateFormat format = new SimpleDateFormat(
+        "EEE, dd MMM yyyy HH:mm:ss zzz",
+        Locale.US
+      );
+      return Math.max(
+        0,
+        format.parse(value).getTime() - System.currentTimeMillis()
+      );
+    } catch(ParseException ignored) {
+      return 0;
+    }
+  }
+
+  /**
+   * A token bucket, kept as the theoretical time at which the bucket would
+   * be full again (the generic cell rate algorithm).
+   */
+  private final class Limit {
+
+    final String key;
+    final double rate;
+
+    private final int burst;
+    private final long interval;
+    private final AtomicLong full = new AtomicLong(System.nanoTime());
+
+    // Throttling: the fraction of the rate which it fell to, and when.
+    private volatile double floor = 1;
+    private volatile long throttledAt;
+
+    Limit(String key, double rate, int burst) {
+      this.key = key;
+      this.rate = rate;
+      this.burst = burst;
+      interval = Math.max(1, (long)(1e9 / rate));
+    }
+
+    double getFactor(long now) {
+      final double current = floor;
+      if(1 <= current) {
+        return 1;
+      }
+      final long elapsed = now - throttledAt;
+      if(elapsed >= recovery) {
+        return 1;
+      }
+      return current + (1 - current) * elapsed / recovery;
+    }
+
+    long reserve(long now) {
+      final long spacing = (long)(interval / getFactor(now));
+      final long tolerance = spacing * (burst - 1);
+      while(true) {
+        final long current = full.get();
+        final long start = 0 > current - now ? now : current;
+        if(full.compareAndSet(current, start + spacing)) {
+          return Math.max(0, start - now - tolerance);
+        }
+      }
+    }
+
+    void slowDown(long now) {
+      final double factor = Math.max(MIN_FACTOR, getFactor(now) / 2);
+      throttledAt = now;
+      floor = factor;
+    }
+
+    void pause(long now, long duration) {
+      final long until = now + duration + interval * (burst - 1);
+      while(true) {
+        final long current = full.get();
+        if(0 >= until - current) {
+          return;
+        }
+        if(full.compareAndSet(current, until)) {
+          return;
+        }
+      }
+    }
+  }
+}
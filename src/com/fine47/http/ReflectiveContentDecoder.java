@@ -0,0 +1,120 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * A content decoder which delegates to a decoding {@link InputStream} class
+ * from a third-party library, looked up by name so the library stays
+ * optional. If the library is not bundled with the app, the decoder is simply
+ * not available and won't be advertised.
+ */
+public class ReflectiveContentDecoder implements ContentDecoder {
+
+  /**
+   * Brotli decoder, backed by the org.brotli:dec library.
+   */
+  public final static ReflectiveContentDecoder BROTLI =
+    new ReflectiveContentDecoder("br", "org.brotli.dec.BrotliInputStream");
+
+  /**
+   * Zstandard decoder, backed by the com.github.luben:zstd-jni library.
+   */
+  public final static ReflectiveContentDecoder ZSTD =
+    new ReflectiveContentDecoder(
+      "zstd",
+      "com.github.luben.zstd.ZstdInputStream"
+    );
+
+  private final String encoding;
+  private final Constructor<? extends InputStream> constructor;
+
+  /**
+   * Create a new decoder for the specified content coding using the specified
+   * decoding stream class, which must have a public constructor accepting
+   * the encoded {@link InputStream}.
+   *
+   * @param encoding content coding token
+   * @param className name of the decoding stream class
+   */
+  public ReflectiveContentDecoder(String encoding, String className) {
+    this.encoding = encoding;
+    this.constructor = findConstructor(className);
+  }
+
+  /**
+   * Returns whether the decoding stream class is available.
+   *
+   * @return TRUE if this decoder can be used, FALSE otherwise
+   */
+  public boolean isAvailable() {
+    return null != constructor;
+  }
+
+  @Override
+  public String getEncoding() {
+    return encoding;
+  }
+
+  @Override
+  public InputStream decode(InputStream input) throws IOException {
+    if(null == constructor) {
+      throw new IOException("Decoder is not available: " + encoding);
+    }
+    try {
+      return constructor.newInstance(input);
+    } catch(InvocationTargetException error) {
+      final Throwable cause = error.getCause();
+      if(cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      throw new IOException("Unable to decode: " + encoding, cause);
+    } catch(Exception error) {
+      throw new IOException("Unable to decode: " + encoding, error);
+    }
+  }
+
+  private static Constructor<? extends InputStream> findConstructor(
+    String className
+  ) {
+    try {
+      return Class
+        .forName(className)
+        .asSubclass(InputStream.class)
+        .getConstructor(InputStream.class);
+    } catch(Exception error) {
+      return null;
+    } catch(LinkageError error) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+/**
+ * Response handler of a request which is replayed after its credentials were
+ * refreshed, which converts responses the same way the original request's
+ * handler does.
+ *
+ * @param <E> type of resources which is expected from the request
+ * @param <M> meta-data type which could be accompanying the request
+ */
+class ReplayResponseWrapper<E, M> extends AbstractResponseWrapper<E, M> {
+
+  private final AbstractResponseWrapper<E, M> primary;
+
+  public ReplayResponseWrapper(AbstractResponseWrapper<E, M> primary) {
+    super(primary.getAllowedContentTypes(), primary.request, primary.response);
+    this.primary = primary;
+    type = primary.type;
+    future = primary.future;
+  }
+
+  @Override
+  E bufferToValue(ResponseBuffer buffer) {
+    return primary.bufferToValue(buffer);
+  }
+
+  @Override
+  E resultOf(E value) {
+    return primary.resultOf(value);
+  }
+
+  @Override
+  boolean isHedgeable() {
+    return primary.isHedgeable();
+  }
+
+  @Override
+  boolean isReplayable() {
+    // Credentials rejected again won't be refreshed again.
+    return false;
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits extra requests, such as retries, to a fraction of the regular ones.
+ * Every regular request deposits a fraction of a token, and every extra
+ * request must withdraw a whole one. A reserve of tokens, which is also the
+ * capacity of the budget, lets extra requests through when traffic is light.
+ *
+ * This class is thread-safe and lock-free.
+ */
+public class RequestBudget {
+
+  private final static long TOKEN = 1000;
+
+  private final AtomicLong balance;
+  private final long deposit;
+  private final long capacity;
+
+  /**
+   * Create a new request budget.
+   *
+   * @param ratio ratio of extra requests to regular ones, e.g. 0.1 for 10%
+   * @param reserve number of extra requests allowed regardless of the ratio
+   */
+  public RequestBudget(double ratio, int reserve) {
+    if(0 > ratio || 0 > reserve) {
+      throw new IllegalArgumentException("Invalid budget parameters.");
+    }
+    deposit = Math.round(ratio * TOKEN);
+    capacity = reserve * TOKEN;
+    balance = new AtomicLong(capacity);
+  }
+
+  /**
+   * Records a regular request.
+   */
+  public void deposit() {
+    while(true) {
+      final long current = balance.get();
+      final long next = Math.min(capacity, current + deposit);
+      if(next == current || balance.compareAndSet(current, next)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Attempts to spend the budget on an extra request.
+   *
+   * @return TRUE if the extra request may go out, FALSE otherwise
+   */
+  public boolean tryWithdraw() {
+    while(true) {
+      final long current = balance.get();
+      if(TOKEN > current) {
+        return false;
+      }
+      if(balance.compareAndSet(current, current - TOKEN)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of extra requests which may currently go out.
+   *
+   * @return available extra requests
+   */
+  public int getAvailable() {
+    return (int)(balance.get() / TOKEN);
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+/**
+ * An empty implementation of {@link RequestEventListener}, suitable for
+ * listeners which are interested in a few events only.
+ */
+public abstract class RequestEventAdapter implements RequestEventListener {
+
+  @Override
+  public void onRequestStart(RequestEvents events) {
+  }
+
+  @Override
+  public void onDnsStart(RequestEvents events) {
+  }
+
+  @Override
+  public void onDnsEnd(RequestEvents events) {
+  }
+
+  @Override
+  public void onConnectStart(RequestEvents events) {
+  }
+
+  @Override
+  public void onConnectEnd(RequestEvents events) {
+  }
+
+  @Override
+  public void onTlsStart(RequestEvents events) {
+  }
+
+  @Override
+  public void onTlsEnd(RequestEvents events) {
+  }
+
+  @Override
+  public void onResponseHeaders(RequestEvents events) {
+  }
+
+  @Override
+  public void onResponseBodyEnd(RequestEvents events) {
+  }
+
+  @Override
+  public void onRequestEnd(RequestEvents events) {
+  }
+}
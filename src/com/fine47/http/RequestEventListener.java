@@ -0,0 +1,113 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+/**
+ * Receives the timing events of requests dispatched by an
+ * {@link ActivityHttpClient}. Every callback receives the request's
+ * {@link RequestEvents}, which holds the monotonic timestamps of all phases
+ * reached so far along with byte counts.
+ *
+ * Callbacks are fired on the thread running the request, so they should
+ * return quickly. DNS, connect and TLS callbacks are only fired when a new
+ * connection is opened for the request.
+ *
+ * @see RequestEventAdapter
+ */
+public interface RequestEventListener {
+
+  /**
+   * Fired when the request starts running.
+   *
+   * @param events timing events of the request
+   */
+  public void onRequestStart(RequestEvents events);
+
+  /**
+   * Fired before the host name is resolved.
+   *
+   * @param events timing events of the request
+   */
+  public void onDnsStart(RequestEvents events);
+
+  /**
+   * Fired after the host name has been resolved.
+   *
+   * @param events timing events of the request
+   */
+  public void onDnsEnd(RequestEvents events);
+
+  /**
+   * Fired before the TCP connection is made.
+   *
+   * @param events timing events of the request
+   */
+  public void onConnectStart(RequestEvents events);
+
+  /**
+   * Fired after the TCP connection has been made.
+   *
+   * @param events timing events of the request
+   */
+  public void onConnectEnd(RequestEvents events);
+
+  /**
+   * Fired before the TLS handshake starts.
+   *
+   * @param events timing events of the request
+   */
+  public void onTlsStart(RequestEvents events);
+
+  /**
+   * Fired after the TLS handshake has completed.
+   *
+   * @param events timing events of the request
+   */
+  public void onTlsEnd(RequestEvents events);
+
+  /**
+   * Fired when the response's status line and headers have been received.
+   *
+   * @param events timing events of the request
+   */
+  public void onResponseHeaders(RequestEvents events);
+
+  /**
+   * Fired when the response's body has been received completely.
+   *
+   * @param events timing events of the request
+   */
+  public void onResponseBodyEnd(RequestEvents events);
+
+  /**
+   * Fired when the request has ended, successfully or not.
+   *
+   * @param events timing events of the request
+   */
+  public void onRequestEnd(RequestEvents events);
+}
@@ -0,0 +1,374 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.request.AbstractRequest;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Timing events of one dispatched request. All timestamps come from
+ * {@link System#nanoTime()}, so they are monotonic and only meaningful when
+ * compared with each other; a timestamp of zero means that the phase hasn't
+ * been reached (yet). An instance is only created when at least one
+ * {@link RequestEventListener} is registered with the client; policies such
+ * as {@link TimeoutPolicy} or {@link CircuitBreaker} register themselves as
+ * listeners, while none is registered by default.
+ */
+public final class RequestEvents {
+
+  private final static ThreadLocal<RequestEvents>
+    current = new ThreadLocal();
+
+  /**
+   * The request which these events belong to.
+   */
+  public final AbstractRequest request;
+
+  /**
+   * The method which the request is dispatched with.
+   */
+  public final AbstractRequest.TYPE type;
+
+  private final RequestEventListener[] listeners;
+  private final AtomicBoolean isEnded = new AtomicBoolean();
+
+  private long startNanos;
+  private long dnsStartNanos;
+  private long dnsEndNanos;
+  private long connectStartNanos;
+  private long connectEndNanos;
+  private long tlsStartNanos;
+  private long tlsEndNanos;
+  private long headersNanos;
+  private long bodyEndNanos;
+  private volatile long endNanos;
+
+  private long requestBytes = -1;
+  private long responseBytes;
+  private int statusCode;
+  private int retries;
+  private Throwable error;
+  private volatile boolean isCancelled;
+
+  /**
+   * The concurrency slot which the request holds, if any, until it ends.
+   */
+  ConcurrencyLimiter.Gate permit;
+
+  RequestEvents(
+    AbstractRequest.TYPE type,
+    AbstractRequest request,
+    RequestEventListener[] listeners
+  ) {
+    this.type = type;
+    this.request = request;
+    this.listeners = listeners;
+  }
+
+  /**
+   * Returns the events of the request which is running on the current
+   * thread, if any.
+   *
+   * @return events of the current request, NULL if there's none
+   */
+  static RequestEvents current() {
+    final RequestEvents events = current.get();
+    if(null != events && events.isEnded.get()) {
+      // Ended from another thread, ex. when cancelled.
+      current.remove();
+      return null;
+    }
+    return events;
+  }
+
+  /**
+   * Detaches any events from the current thread, once its request is done or
+   * before it runs a request which has no events.
+   */
+  static void detach() {
+    current.remove();
+  }
+
+  /**
+   * Returns the time when the request started running.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  /**
+   * Returns the time when host name resolution started.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getDnsStartNanos() {
+    return dnsStartNanos;
+  }
+
+  /**
+   * Returns the time when host name resolution ended.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getDnsEndNanos() {
+    return dnsEndNanos;
+  }
+
+  /**
+   * Returns the time when the TCP connection started.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getConnectStartNanos() {
+    return connectStartNanos;
+  }
+
+  /**
+   * Returns the time when the TCP connection has been made.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getConnectEndNanos() {
+    return connectEndNanos;
+  }
+
+  /**
+   * Returns the time when the TLS handshake started.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getTlsStartNanos() {
+    return tlsStartNanos;
+  }
+
+  /**
+   * Returns the time when the TLS handshake completed.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getTlsEndNanos() {
+    return tlsEndNanos;
+  }
+
+  /**
+   * Returns the time when the response's headers have been received, also
+   * known as the time to first byte.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getResponseHeadersNanos() {
+    return headersNanos;
+  }
+
+  /**
+   * Returns the time when the response's body has been received completely.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getResponseBodyEndNanos() {
+    return bodyEndNanos;
+  }
+
+  /**
+   * Returns the time when the request ended.
+   *
+   * @return timestamp in nanoseconds
+   */
+  public long getEndNanos() {
+    return endNanos;
+  }
+
+  /**
+   * Returns the size of the request's body.
+   *
+   * @return number of bytes, -1 if unknown
+   */
+  public long getRequestBytes() {
+    return requestBytes;
+  }
+
+  /**
+   * Returns the number of response body bytes received from the network,
+   * before any decoding.
+   *
+   * @return number of bytes
+   */
+  public long getResponseBytes() {
+    return responseBytes;
+  }
+
+  /**
+   * Returns the response's status code.
+   *
+   * @return status code, zero if no response has been received
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * Returns the number of times the request has been retried.
+   *
+   * @return number of retries
+   */
+  public int getRetries() {
+    return retries;
+  }
+
+  /**
+   * Returns the error which caused the request to fail.
+   *
+   * @return error, NULL if the request hasn't failed
+   */
+  public Throwable getError() {
+    return error;
+  }
+
+  /**
+   * Returns whether the request has been cancelled.
+   *
+   * @return TRUE if the request has been cancelled, FALSE otherwise
+   */
+  public boolean isCancelled() {
+    return isCancelled;
+  }
+
+  /**
+   * Returns whether the request was sent over a pooled connection, in which
+   * case there are no DNS, connect or TLS timings.
+   *
+   * @return TRUE if a pooled connection was reused, FALSE otherwise
+   */
+  public boolean isConnectionReused() {
+    return 0 == connectStartNanos;
+  }
+
+  /**
+   * Returns the total duration of the request.
+   *
+   * @return duration in nanoseconds, -1 if the request hasn't ended
+   */
+  public long getDurationNanos() {
+    return 0 == endNanos ? -1 : endNanos - startNanos;
+  }
+
+  void start() {
+    current.set(this);
+    startNanos = System.nanoTime();
+    for(final RequestEventListener listener : listeners) {
+      listener.onRequestStart(this);
+    }
+  }
+
+  void retry() {
+    retries++;
+  }
+
+  void dnsStart() {
+    dnsStartNanos = System.nanoTime();
+    for(final RequestEventListener listener : listeners) {
+      listener.onDnsStart(this);
+    }
+  }
+
+  void dnsEnd() {
+    dnsEndNanos = System.nanoTime();
+    for(final RequestEventListener listener : listeners) {
+      listener.onDnsEnd(this);
+    }
+  }
+
+  void connectStart() {
+    connectStartNanos = System.nanoTime();
+    for(final RequestEventListener listener : listeners) {
+      listener.onConnectStart(this);
+    }
+  }
+
+  void connectEnd() {
+    connectEndNanos = System.nanoTime();
+    for(final RequestEventListener listener : listeners) {
+      listener.onConnectEnd(this);
+    }
+  }
+
+  void tlsStart() {
+    tlsStartNanos = System.nanoTime();
+    for(final RequestEventListener listener : listeners) {
+      listener.onTlsStart(this);
+    }
+  }
+
+  void tlsEnd() {
+    tlsEndNanos = System.nanoTime();
+    for(final RequestEventListener listener : listeners) {
+      listener.onTlsEnd(this);
+    }
+  }
+
+  void requestBytes(long count) {
+    requestBytes = count;
+  }
+
+  void responseHeaders(int code) {
+    headersNanos = System.nanoTime();
+    statusCode = code;
+    for(final RequestEventListener listener : listeners) {
+      listener.onResponseHeaders(this);
+    }
+  }
+
+  void responseBodyEnd(long count) {
+    bodyEndNanos = System.nanoTime();
+    responseBytes = count;
+    for(final RequestEventListener listener : listeners) {
+      listener.onResponseBodyEnd(this);
+    }
+  }
+
+  void failed(Throwable cause) {
+    error = cause;
+  }
+
+  void end(boolean cancelled) {
+    // A cancel and the request's own end may race from different threads.
+    if(!isEnded.compareAndSet(false, true)) {
+      return;
+    }
+    isCancelled = cancelled;
+    endNanos = System.nanoTime();
+    if(this == current.get()) {
+      current.remove();
+    }
+    for(final RequestEventListener listener : listeners) {
+      listener.onRequestEnd(this);
+    }
+  }
+}
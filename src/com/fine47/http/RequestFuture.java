@@ -0,0 +1,559 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.loopj.android.http.RequestHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A handle of a dispatched request, which completes once the request's
+ * response handler has been called. It can be used to cancel the request,
+ * to change its priority while it's queued, to wait for its result and to
+ * chain further work on it.
+ *
+ * Listeners and chained functions run on the thread which completed the
+ * request, usually a pool thread, so they should return quickly. For the
+ * same reason, never wait for a request's result on a pool thread as it
+ * might be the very thread which the request is waiting for.
+ *
+ * @param <E> type of result which is expected from the request
+ */
+public class RequestFuture<E> implements Future<E> {
+
+  /**
+   * A listener which is notified once a future completes.
+   *
+   * @param <E> type of result of the future
+   */
+  public interface Listener<E> {
+
+    /**
+     * Called once the specified future completes, successfully or not.
+     *
+     * @param future future which completed
+     */
+    void onComplete(RequestFuture<E> future);
+  }
+
+  /**
+   * A function which maps the result of a future to another value.
+   *
+   * @param <E> type of result of the future
+   * @param <R> type of mapped value
+   */
+  public interface Function<E, R> {
+
+    /**
+     * Maps the specified result to another value.
+     *
+     * @param value result of the future
+     * @return mapped value
+     * @throws Exception to fail the mapped future
+     */
+    R apply(E value) throws Exception;
+  }
+
+  /**
+   * A function which dispatches a dependent request using the result of a
+   * future.
+   *
+   * @param <E> type of result of the future
+   * @param <R> type of result of the dependent request
+   */
+  public interface Chain<E, R> {
+
+    /**
+     * Dispatches a dependent request using the specified result.
+     *
+     * @param value result of the future
+     * @return future of the dependent request
+     * @throws Exception to fail the chained future
+     */
+    RequestFuture<R> apply(E value) throws Exception;
+  }
+
+  private final static int PENDING = 0;
+  private final static int SUCCEEDED = 1;
+  private final static int FAILED = 2;
+  private final static int CANCELLED = 3;
+
+  private final CountDownLatch latch = new CountDownLatch(1);
+
+  private int state = PENDING;
+  private E value;
+  private Throwable error;
+  private ArrayList<Listener<E>> listeners;
+  private RequestHandle handle;
+  private AbstractResponseWrapper handler;
+  private RequestFuture[] sources;
+
+  private volatile int priority;
+  private volatile PriorityExecutor.Task task;
+
+  RequestFuture(int priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Returns the priority of this future's request.
+   *
+   * @return priority of the request
+   */
+  public int getPriority() {
+    return priority;
+  }
+
+  /**
+   * Changes the priority of this future's request. A request which is still
+   * queued is moved to its new place in the queue; one which is already
+   * running isn't affected.
+   *
+   * @param priority new priority of the request
+   * @return "this" future, suitable for chaining
+   */
+  public RequestFuture<E> setPriority(int priority) {
+    this.priority = priority;
+    final PriorityExecutor.Task current = task;
+    if(null != current) {
+      current.setPriority(priority);
+    }
+    final RequestFuture[] upstream;
+    synchronized(this) {
+      upstream = sources;
+    }
+    if(null != upstream) {
+      for(final RequestFuture source : upstream) {
+        source.setPriority(priority);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Cancels this future's request. Its response handler isn't called, and
+   * waiting threads get a {@link CancellationException}. Cancelling a future
+   * which was derived from others cancels those, too.
+   *
+   * @param mayInterruptIfRunning TRUE to interrupt the request if it's
+   * already running, FALSE to only cancel it while still queued
+   * @return TRUE if cancelled, FALSE if the future has already completed
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    final RequestHandle current;
+    final AbstractResponseWrapper owner;
+    final RequestFuture[] upstream;
+    synchronized(this) {
+      if(PENDING != state) {
+        return false;
+      }
+      current = handle;
+      owner = handler;
+      upstream = sources;
+    }
+    if(!settle(CANCELLED, null, null)) {
+      return false;
+    }
+    if(null != current) {
+      current.cancel(mayInterruptIfRunning);
+    } else if(null != owner) {
+      // The request is still held back (rate limited, queued for a slot,
+      // deferred...), so the underlying client won't tell its handler.
+      owner.onCancel();
+    }
+    final PriorityExecutor.Task queued = task;
+    if(null != queued) {
+      queued.discard();
+    }
+    if(null != upstream) {
+      for(final RequestFuture source : upstream) {
+        source.cancel(mayInterruptIfRunning);
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return CANCELLED == state;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return PENDING != state;
+  }
+
+  /**
+   * Checks whether this future completed successfully.
+   *
+   * @return TRUE if the request succeeded, FALSE otherwise
+   */
+  public synchronized boolean isSuccessful() {
+    return SUCCEEDED == state;
+  }
+
+  /**
+   * Returns the error which failed this future's request.
+   *
+   * @return error of the request, NULL if it didn't fail (yet)
+   */
+  public synchronized Throwable getError() {
+    return error;
+  }
+
+  @Override
+  public E get() throws InterruptedException, ExecutionException {
+    latch.await();
+    return getResult();
+  }
+
+  @Override
+  public E get(long timeout, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException
+  {
+    if(!latch.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return getResult();
+  }
+
+  /**
+   * Adds the specified listener, which is notified once this future
+   * completes. If it has already completed, the listener is notified right
+   * away on the calling thread.
+   *
+   * @param listener to notify once completed
+   * @return "this" future, suitable for chaining
+   */
+  public RequestFuture<E> addListener(Listener<E> listener) {
+    synchronized(this) {
+      if(PENDING == state) {
+        if(null == listeners) {
+          listeners = new ArrayList();
+        }
+        listeners.add(listener);
+        return this;
+      }
+    }
+    listener.onComplete(this);
+    return this;
+  }
+
+  /**
+   * Returns a future which completes with the result of this one, mapped by
+   * the specified function. Failures and cancellations pass through.
+   *
+   * @param <R> type of mapped value
+   * @param function to map the result with
+   * @return mapped future
+   */
+  public <R>RequestFuture<R> then(final Function<? super E, R> function) {
+    final RequestFuture<R> next = derive(this);
+    addListener(new Listener<E>() {
+
+      @Override
+      public void onComplete(RequestFuture<E> future) {
+        if(future.forward(next)) {
+          final R result;
+          try {
+            result = function.apply(future.value);
+          } catch(Exception error) {
+            next.fail(error);
+            return;
+          }
+          next.succeed(result);
+        }
+      }
+    });
+    return next;
+  }
+
+  /**
+   * Returns a future which completes with the result of a dependent request,
+   * dispatched by the specified chain once this future succeeds. Failures
+   * and cancellations pass through.
+   *
+   * @param <R> type of result of the dependent request
+   * @param chain to dispatch the dependent request with
+   * @return future of the dependent request
+   */
+  public <R>RequestFuture<R> thenCompose(final Chain<? super E, R> chain) {
+    final RequestFuture<R> next = derive(this);
+    addListener(new Listener<E>() {
+
+      @Override
+      public void onComplete(RequestFuture<E> future) {
+        if(future.forward(next)) {
+          final RequestFuture<R> dependent;
+          try {
+            dependent = chain.apply(future.value);
+          } catch(Exception error) {
+            next.fail(error);
+            return;
+          }
+          next.setSources(dependent);
+          dependent.addListener(new Listener<R>() {
+
+            @Override
+            public void onComplete(RequestFuture<R> future) {
+              if(future.forward(next)) {
+                next.succeed(future.value);
+              }
+            }
+          });
+        }
+      }
+    });
+    return next;
+  }
+
+  /**
+   * Returns a future which completes once all the specified futures have
+   * succeeded, with their results in the same order. It fails as soon as one
+   * of them fails or is cancelled.
+   *
+   * @param <E> type of results of the futures
+   * @param futures to wait for
+   * @return future of all the results
+   */
+  public static <E>RequestFuture<List<E>> allOf(
+    final List<? extends RequestFuture<? extends E>> futures
+  ) {
+    final int count = futures.size();
+    final RequestFuture<List<E>> all =
+      derive(futures.toArray(new RequestFuture[count]));
+    if(0 == count) {
+      all.succeed(new ArrayList<E>(0));
+      return all;
+    }
+
+    final AtomicInteger pending = new AtomicInteger(count);
+    final Listener listener = new Listener() {
+
+      @Override
+      public void onComplete(RequestFuture future) {
+        if(!future.forward(all)) {
+          return;
+        }
+        if(0 == pending.decrementAndGet()) {
+          final ArrayList<E> results = new ArrayList(count);
+          for(final RequestFuture<? extends E> source : futures) {
+            results.add(source.value);
+          }
+          all.succeed(results);
+        }
+      }
+    };
+    for(final RequestFuture<? extends E> future : futures) {
+      future.addListener(listener);
+    }
+    return all;
+  }
+
+  /**
+   * Returns a future which completes with the result of whichever of the
+   * specified futures succeeds first. It fails only when all of them fail,
+   * with the error of the last one.
+   *
+   * @param <E> type of results of the futures
+   * @param futures to race
+   * @return future of the first result
+   */
+  public static <E>RequestFuture<E> anyOf(
+    List<? extends RequestFuture<? extends E>> futures
+  ) {
+    final int count = futures.size();
+    final RequestFuture<E> any =
+      derive(futures.toArray(new RequestFuture[count]));
+    if(0 == count) {
+      any.fail(new IllegalArgumentException("No futures to wait for."));
+      return any;
+    }
+
+    final AtomicInteger pending = new AtomicInteger(count);
+    final Listener listener = new Listener() {
+
+      @Override
+      public void onComplete(RequestFuture future) {
+        if(future.isSuccessful()) {
+          any.succeed((E)future.value);
+        } else if(0 == pending.decrementAndGet()) {
+          any.fail(
+            future.isCancelled() ? new CancellationException() : future.error
+          );
+        }
+      }
+    };
+    for(final RequestFuture<? extends E> future : futures) {
+      future.addListener(listener);
+    }
+    return any;
+  }
+
+  /**
+   * Sets the handle of this future's request once it's been dispatched. If
+   * the future was cancelled meanwhile, so is the request.
+   *
+   * @param handle handle of the request, NULL if it failed fast
+   */
+  void setHandle(RequestHandle handle) {
+    final boolean isCancelled;
+    synchronized(this) {
+      if(null != this.handle || null == handle) {
+        return;
+      }
+      this.handle = handle;
+      isCancelled = CANCELLED == state;
+    }
+    if(isCancelled) {
+      handle.cancel(true);
+    }
+  }
+
+  /**
+   * Sets the handler of this future's request, which is told when the future
+   * is cancelled before the request has been sent. Only the first handler is
+   * kept, as hedged and replayed copies of the request share the future.
+   *
+   * @param handler handler of the request
+   * @return TRUE if the handler was set, FALSE if another one was kept
+   */
+  synchronized boolean setHandler(AbstractResponseWrapper handler) {
+    if(null == this.handler) {
+      this.handler = handler;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Sets the queued task which runs this future's request.
+   *
+   * @param task queued task of the request
+   */
+  void setTask(PriorityExecutor.Task task) {
+    this.task = task;
+  }
+
+  /**
+   * Completes this future successfully with the specified result.
+   *
+   * @param value result of the request
+   */
+  void succeed(E value) {
+    settle(SUCCEEDED, value, null);
+  }
+
+  /**
+   * Completes this future with the specified error.
+   *
+   * @param error which failed the request
+   */
+  void fail(Throwable error) {
+    settle(FAILED, null, error);
+  }
+
+  /**
+   * Completes this future as cancelled, once its request has been cancelled
+   * by other means than {@link #cancel(boolean)}.
+   */
+  void setCancelled() {
+    settle(CANCELLED, null, null);
+  }
+
+  private static <R>RequestFuture<R> derive(RequestFuture... sources) {
+    final RequestFuture<R> future = new RequestFuture(
+      0 == sources.length ? 0 : sources[0].getPriority()
+    );
+    future.setSources(sources);
+    return future;
+  }
+
+  private synchronized void setSources(RequestFuture... sources) {
+    this.sources = sources;
+  }
+
+  private boolean forward(RequestFuture next) {
+    // Passes a failure or a cancellation on to the specified future.
+    switch(state) {
+      case SUCCEEDED:
+        return true;
+
+      case FAILED:
+        next.fail(error);
+        break;
+
+      default:
+        next.setCancelled();
+    }
+    return false;
+  }
+
+  private E getResult() throws ExecutionException {
+    switch(state) {
+      case SUCCEEDED:
+        return value;
+
+      case FAILED:
+        throw new ExecutionException(error);
+
+      default:
+        throw new CancellationException();
+    }
+  }
+
+  private boolean settle(int state, E value, Throwable error) {
+    final ArrayList<Listener<E>> pending;
+    synchronized(this) {
+      if(PENDING != this.state) {
+        return false;
+      }
+      this.state = state;
+      this.value = value;
+      this.error = error;
+      pending = listeners;
+      listeners = null;
+      sources = null;
+    }
+    latch.countDown();
+    if(null != pending) {
+      for(final Listener<E> listener : pending) {
+        listener.onComplete(this);
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,501 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates the timing events of requests into latency histograms, keyed by
+ * host and by endpoint template. An endpoint template is the URL's path where
+ * every segment which looks like an identifier (numbers, UUIDs and long hex
+ * strings) is replaced by "{id}", so "/users/42/posts" and "/users/7/posts"
+ * share the template "/users/{id}/posts".
+ *
+ * For each key, the total latency and time to first byte (in microseconds),
+ * the response payload size (in bytes), the number of requests and the number
+ * of failed ones are tracked. The number of keys is bounded; once the limit
+ * is reached, new hosts or endpoints are aggregated under {@link #OTHER}.
+ */
+public class RequestMetrics extends RequestEventAdapter {
+
+  /**
+   * Key under which hosts or endpoints beyond the limit are aggregated.
+   */
+  public final static String OTHER = "(other)";
+
+  /**
+   * Template segment which replaces identifiers in endpoint templates.
+   */
+  public final static String ID = "{id}";
+
+  /**
+   * Default maximum number of distinct hosts, and of distinct endpoints.
+   * Each key takes a few kilobytes for its histograms.
+   */
+  public final static int DEFAULT_MAX_KEYS = 32;
+
+  private final ConcurrentHashMap<String, Stats> hosts =
+    new ConcurrentHashMap();
+  private final ConcurrentHashMap<String, Stats> endpoints =
+    new ConcurrentHashMap();
+
+  private final int maxHosts;
+  private final int maxEndpoints;
+
+  /**
+   * Create new metrics which track up to the default number of keys.
+   */
+  public RequestMetrics() {
+    this(DEFAULT_MAX_KEYS, DEFAULT_MAX_KEYS);
+  }
+
+  /**
+   * Create new metrics which track up to the specified number of keys.
+   *
+   * @param maxHosts maximum number of distinct hosts
+   * @param maxEndpoints maximum number of distinct endpoints
+   */
+  public RequestMetrics(int maxHosts, int maxEndpoints) {
+    this.maxHosts = maxHosts;
+    this.maxEndpoints = maxEndpoints;
+  }
+
+  @Override
+  public void onRequestEnd(RequestEvents events) {
+    if(events.isCancelled()) {
+      return;
+    }
+    final String host = events.request.getHost();
+    final String endpoint = host + getTemplate(events.request.url);
+    record(statsOf(hosts, host, maxHosts), events);
+    record(statsOf(endpoints, endpoint, maxEndpoints), events);
+  }
+
+  /**
+   * Returns the metrics of the specified host.
+   *
+   * @param host host name
+   * @return metrics of the host, NULL if it has no requests yet
+   */
+  public Stats getHost(String host) {
+    return hosts.get(host);
+  }
+
+  /**
+   * Returns the metrics of the specified endpoint.
+   *
+   * @param endpoint host name followed by the endpoint template
+   * @return metrics of the endpoint, NULL if it has no requests yet
+   */
+  public Stats getEndpoint(String endpoint) {
+    return endpoints.get(endpoint);
+  }
+
+  /**
+   * Returns snapshots of the metrics of all hosts, sorted by host name.
+   *
+   * @param reset TRUE to reset the metrics afterwards
+   * @return snapshot of every host's metrics
+   */
+  public Map<String, Snapshot> snapshotHosts(boolean reset) {
+    return snapshot(hosts, reset);
+  }
+
+  /**
+   * Returns snapshots of the metrics of all endpoints, sorted by endpoint.
+   *
+   * @param reset TRUE to reset the metrics afterwards
+   * @return snapshot of every endpoint's metrics
+   */
+  public Map<String, Snapshot> snapshotEndpoints(boolean reset) {
+    return snapshot(endpoints, reset);
+  }
+
+  /**
+   * Exports a snapshot of all metrics as plain text, one line per key.
+   *
+   * @param reset TRUE to reset the metrics afterwards
+   * @return metrics as plain text
+   */
+  public String toText(boolean reset) {
+    final StringBuilder text = new StringBuilder(1024);
+    appendText(text, "host", snapshotHosts(reset));
+    appendText(text, "endpoint", snapshotEndpoints(reset));
+    return text.toString();
+  }
+
+  /**
+   * Exports a snapshot of all metrics as a JSON object, having a "hosts" and
+   * an "endpoints" object keyed by host and by endpoint, respectively.
+   *
+   * @param reset TRUE to reset the metrics afterwards
+   * @return metrics as JSON
+   */
+  public String toJson(boolean reset) {
+    final StringBuilder json = new StringBuilder(1024);
+    json.append("{\"hosts\":");
+    appendJson(json, snapshotHosts(reset));
+    json.append(",\"endpoints\":");
+    appendJson(json, snapshotEndpoints(reset));
+    return json.append('}').toString();
+  }
+
+  /**
+   * Returns the endpoint template of the specified URL.
+   *
+   * @param url to derive the template from
+   * @return path of the URL with identifiers replaced by {@link #ID}
+   */
+  public static String getTemplate(String url) {
+    final int scheme = url.indexOf("://");
+    int start = url.indexOf('/', -1 == scheme ? 0 : scheme + 3);
+    if(-1 == start) {
+      return "/";
+    }
+
+    int end = url.length();
+    final int query = url.indexOf('?', start);
+    if(-1 != query) {
+      end = query;
+    }
+    final int fragment = url.indexOf('#', start);
+    if(-1 != fragment && fragment < end) {
+      end = fragment;
+    }
+
+    final StringBuilder template = new StringBuilder(end - start);
+    while(start < end) {
+      int next = url.indexOf('/', start + 1);
+      if(-1 == next || next > end) {
+        next = end;
+      }
+      template.append('/');
+      if(isIdentifier(url, start + 1, next)) {
+        template.append(ID);
+      } else {
+        template.append(url, start + 1, next);
+      }
+      start = next;
+    }
+    return 0 == template.length() ? "/" : template.toString();
+  }
+
+  private static boolean isIdentifier(String url, int start, int end) {
+    final int length = end - start;
+    if(0 == length) {
+      return false;
+    }
+
+    boolean isNumeric = true;
+    boolean isHex = true;
+    int digits = 0;
+    for(int index = start; index < end; index++) {
+      final char ch = url.charAt(index);
+      if('0' <= ch && '9' >= ch) {
+        digits++;
+      } else {
+        isNumeric = false;
+        if(
+          !('a' <= ch && 'f' >= ch) &&
+          !('A' <= ch && 'F' >= ch) &&
+          '-' != ch
+        ) {
+          isHex = false;
+        }
+      }
+    }
+
+    // Plain numbers, or hex strings/UUIDs long enough not to be words.
+    return isNumeric || (isHex && 16 <= length && 0 < digits);
+  }
+
+  private static Stats statsOf(
+    ConcurrentHashMap<String, Stats> map,
+    String key,
+    int maxKeys
+  ) {
+    Stats stats = map.get(key);
+    if(null == stats) {
+      if(map.size() >= maxKeys) {
+        key = OTHER;
+        stats = map.get(key);
+      }
+      if(null == stats) {
+        stats = new Stats();
+        final Stats current = map.putIfAbsent(key, stats);
+        if(null != current) {
+          stats = current;
+        }
+      }
+    }
+    return stats;
+  }
+
+  private static void record(Stats stats, RequestEvents events) {
+    stats.requests.incrementAndGet();
+    if(null != events.getError()) {
+      stats.errors.incrementAndGet();
+    }
+    stats.latency.record(events.getDurationNanos() / 1000);
+    if(0 != events.getDnsEndNanos()) {
+      stats.dns.record(
+        (events.getDnsEndNanos() - events.getDnsStartNanos()) / 1000
+      );
+    }
+    if(0 != events.getResponseHeadersNanos()) {
+      stats.ttfb.record(
+        (events.getResponseHeadersNanos() - events.getStartNanos()) / 1000
+      );
+      stats.payload.record(events.getResponseBytes());
+    }
+  }
+
+  private static Map<String, Snapshot> snapshot(
+    ConcurrentHashMap<String, Stats> map,
+    boolean reset
+  ) {
+    final TreeMap<String, Snapshot> snapshots = new TreeMap();
+    for(final Map.Entry<String, Stats> entry : map.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot(reset));
+    }
+    return snapshots;
+  }
+
+  private static void appendText(
+    StringBuilder text,
+    String kind,
+    Map<String, Snapshot> snapshots
+  ) {
+    for(final Map.Entry<String, Snapshot> entry : snapshots.entrySet()) {
+      final Snapshot snapshot = entry.getValue();
+      text
+        .append(kind).append(' ').append(entry.getKey())
+        .append(" requests=").append(snapshot.requests)
+        .append(" errors=").append(snapshot.errors)
+        .append(" latency_us[p50=").append(snapshot.latency.getPercentile(50))
+        .append(" p90=").append(snapshot.latency.getPercentile(90))
+        .append(" p99=").append(snapshot.latency.getPercentile(99))
+        .append(" max=").append(snapshot.latency.getMax())
+        .append("] ttfb_us[p50=").append(snapshot.ttfb.getPercentile(50))
+        .append(" p99=").append(snapshot.ttfb.getPercentile(99))
+        .append("] dns_us[p50=").append(snapshot.dns.getPercentile(50))
+        .append(" p99=").append(snapshot.dns.getPercentile(99))
+        .append("] bytes[p50=").append(snapshot.payload.getPercentile(50))
+        .append(" max=").append(snapshot.payload.getMax())
+        .append("]\n");
+    }
+  }
+
+  private static void appendJson(
+    StringBuilder json,
+    Map<String, Snapshot> snapshots
+  ) {
+    json.append('{');
+    boolean isFirst = true;
+    for(final Map.Entry<String, Snapshot> entry : snapshots.entrySet()) {
+      if(!isFirst) {
+        json.append(',');
+      }
+      isFirst = false;
+
+      final Snapshot snapshot = entry.getValue();
+      appendJsonString(json, entry.getKey());
+      json
+        .append(":{\"requests\":").append(snapshot.requests)
+        .append(",\"errors\":").append(snapshot.errors)
+        .append(",\"latencyMicros\":");
+      appendJson(json, snapshot.latency);
+      json.append(",\"ttfbMicros\":");
+      appendJson(json, snapshot.ttfb);
+      json.append(",\"dnsMicros\":");
+      appendJson(json, snapshot.dns);
+      json.append(",\"payloadBytes\":");
+      appendJson(json, snapshot.payload);
+      json.append('}');
+    }
+    json.append('}');
+  }
+
+  private static void appendJson(
+    StringBuilder json,
+    LatencyHistogram.Snapshot snapshot
+  ) {
+    json
+      .append("{\"count\":").append(snapshot.getCount())
+      .append(",\"mean\":").append(Math.round(snapshot.getMean()))
+      .append(",\"p50\":").append(snapshot.getPercentile(50))
+      .append(",\"p90\":").append(snapshot.getPercentile(90))
+      .append(",\"p99\":").append(snapshot.getPercentile(99))
+      .append(",\"max\":").append(snapshot.getMax())
+      .append('}');
+  }
+
+  private static void appendJsonString(StringBuilder json, String value) {
+    json.append('"');
+    final int length = value.length();
+    for(int index = 0; index < length; index++) {
+      final char ch = value.charAt(index);
+      if('"' == ch || '\\' == ch) {
+        json.append('\\').append(ch);
+      } else if(0x20 > ch) {
+        json.append(String.format("\\u%04x", (int)ch));
+      } else {
+        json.append(ch);
+      }
+    }
+    json.append('"');
+  }
+
+  /**
+   * Live metrics of one host or endpoint.
+   */
+  public final static class Stats {
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LatencyHistogram ttfb = new LatencyHistogram();
+    final LatencyHistogram payload = new LatencyHistogram();
+    final LatencyHistogram dns = new LatencyHistogram();
+
+    Stats() {
+    }
+
+    /**
+     * Returns the histogram of total request latency, in microseconds.
+     *
+     * @return latency histogram
+     */
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+
+    /**
+     * Returns the histogram of time to first byte, in microseconds.
+     *
+     * @return time to first byte histogram
+     */
+    public LatencyHistogram getTtfb() {
+      return ttfb;
+    }
+
+    /**
+     * Returns the histogram of response payload sizes, in bytes.
+     *
+     * @return payload size histogram
+     */
+    public LatencyHistogram getPayload() {
+      return payload;
+    }
+
+    /**
+     * Returns the histogram of host name resolution time of new connections,
+     * in microseconds.
+     *
+     * @return resolution time histogram
+     */
+    public LatencyHistogram getDns() {
+      return dns;
+    }
+
+    Snapshot snapshot(boolean reset) {
+      return new Snapshot(
+        reset ? requests.getAndSet(0) : requests.get(),
+        reset ? errors.getAndSet(0) : errors.get(),
+        latency.snapshot(reset),
+        ttfb.snapshot(reset),
+        payload.snapshot(reset),
+        dns.snapshot(reset)
+      );
+    }
+  }
+
+  /**
+   * An immutable snapshot of the metrics of one host or endpoint.
+   */
+  public final static class Snapshot {
+
+    /**
+     * Number of ended requests.
+     */
+    public final long requests;
+
+    /**
+     * Number of failed requests.
+     */
+    public final long errors;
+
+    /**
+     * Total request latency, in microseconds.
+     */
+    public final LatencyHistogram.Snapshot latency;
+
+    /**
+     * Time to first byte, in microseconds.
+     */
+    public final LatencyHistogram.Snapshot ttfb;
+
+    /**
+     * Response payload size, in bytes.
+     */
+    public final LatencyHistogram.Snapshot payload;
+
+    /**
+     * Host name resolution time of new connections, in microseconds.
+     */
+    public final LatencyHistogram.Snapshot dns;
+
+    Snapshot(
+      long requests,
+      long errors,
+      LatencyHistogram.Snapshot latency,
+      LatencyHistogram.Snapshot ttfb,
+      LatencyHistogram.Snapshot payload,
+      LatencyHistogram.Snapshot dns
+    ) {
+      this.requests = requests;
+      this.errors = errors;
+      this.latency = latency;
+      this.ttfb = ttfb;
+      this.payload = payload;
+      this.dns = dns;
+    }
+
+    /**
+     * Returns the ratio of failed requests.
+     *
+     * @return error rate between 0.0 and 1.0
+     */
+    public double getErrorRate() {
+      return 0 == requests ? 0 : (double)errors / requests;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+/**
+ * A response body received into an array which belongs to a
+ * {@link BufferPool}. The array may be larger than the body, so always use
+ * {@link #length()} to know how many bytes are valid.
+ *
+ * By default the array goes back to the pool as soon as the response handler
+ * returns, so it must not be kept around. Handlers which want to keep the
+ * bytes must take ownership of them using {@link #detach()} or
+ * {@link #toByteArray()}.
+ */
+public final class ResponseBuffer {
+
+  private final BufferPool pool;
+  private final byte[] array;
+  private final int length;
+
+  private boolean isDetached;
+  private boolean isReleased;
+
+  ResponseBuffer(BufferPool pool, byte[] array, int length) {
+    this.pool = pool;
+    this.array = array;
+    this.length = length;
+  }
+
+  /**
+   * Wraps the specified array in a buffer which doesn't belong to any pool.
+   *
+   * @param bytes array to wrap
+   * @return a buffer which is backed by the specified array
+   */
+  static ResponseBuffer wrap(byte[] bytes) {
+    return new ResponseBuffer(null, bytes, bytes.length);
+  }
+
+  /**
+   * Returns the array backing this buffer. Only the first {@link #length()}
+   * bytes are valid.
+   *
+   * @return backing array
+   */
+  public byte[] array() {
+    return array;
+  }
+
+  /**
+   * Returns the number of valid bytes in this buffer.
+   *
+   * @return number of valid bytes
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Takes ownership of the backing array, which will then never be returned
+   * to the pool. Only the first {@link #length()} bytes are valid.
+   *
+   * @return backing array
+   */
+  public synchronized byte[] detach() {
+    if(isReleased) {
+      throw new IllegalStateException(
+        "Response buffer has already been returned to the pool.");
+    }
+    isDetached = true;
+    return array;
+  }
+
+  /**
+   * Returns the valid bytes of this buffer as an array of the exact length.
+   * If the backing array has the exact length already, ownership of it is
+   * taken instead of copying it.
+   *
+   * @return array holding the valid bytes
+   */
+  public byte[] toByteArray() {
+    if(array.length == length) {
+      return detach();
+    }
+    final byte[] bytes = new byte[length];
+    System.arraycopy(array, 0, bytes, 0, length);
+    return bytes;
+  }
+
+  /**
+   * Returns the backing array to its pool, unless it has been detached.
+   */
+  synchronized void release() {
+    if(!isReleased) {
+      isReleased = true;
+      if(!isDetached && null != pool) {
+        pool.release(array);
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import java.io.IOException;
+
+/**
+ * Decides whether, and after how long, a failed request is retried.
+ *
+ * @see ActivityHttpClient#setRetryPolicy(RetryPolicy)
+ */
+public interface RetryPolicy {
+
+  /**
+   * Returns how long to wait before retrying a failed request.
+   *
+   * @param method HTTP method of the failed request
+   * @param error error which caused the failure
+   * @param executionCount number of times the request was executed so far
+   * @param isRequestSent TRUE if the request was fully sent to the server
+   * before failing, FALSE otherwise
+   * @return delay in milliseconds, or a negative value if the request must
+   * not be retried
+   */
+  long getRetryDelay(
+    String method,
+    IOException error,
+    int executionCount,
+    boolean isRequestSent
+  );
+}
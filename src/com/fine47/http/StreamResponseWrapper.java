@@ -0,0 +1,182 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.Log;
+import com.fine47.http.request.AbstractRequest;
+import com.fine47.http.response.Flow;
+import com.fine47.http.response.StreamResponse;
+import com.loopj.android.http.AsyncHttpClient;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+/**
+ * Response handler which streams successful response bodies to a subscriber
+ * instead of buffering them. The future of the request completes once the
+ * body has been streamed.
+ *
+ * @param <M> meta-data type which could be accompanying the request
+ */
+class StreamResponseWrapper<M>
+  extends AbstractResponseWrapper<Flow.Publisher<ByteBuffer>, M>
+{
+
+  private volatile BodyPublisher publisher;
+
+  public StreamResponseWrapper(
+    AbstractRequest<M> request,
+    StreamResponse<M> response
+  ) {
+    super(new String[] {"^.+/.+$"}, request, response);
+  }
+
+  @Override
+  public void sendResponseMessage(HttpResponse httpResponse)
+    throws IOException
+  {
+    final int statusCode = httpResponse.getStatusLine().getStatusCode();
+    final HttpEntity entity = httpResponse.getEntity();
+    if(
+      300 <= statusCode ||
+      null == entity ||
+      !isAllowedContentType(httpResponse)
+    ) {
+      // Failures are handled, and their bodies buffered, as usual.
+      super.sendResponseMessage(httpResponse);
+      return;
+    }
+
+    if(Thread.currentThread().isInterrupted()) {
+      return;
+    }
+
+    if(null != events) {
+      events.responseHeaders(statusCode);
+    }
+
+    final InputStream content = entity.getContent();
+    if(null == content) {
+      super.sendResponseMessage(httpResponse);
+      return;
+    }
+
+    // Count the bytes received from the network, before any decoding.
+    InputStream input = content;
+    final CountingInputStream counter;
+    if(null == events) {
+      counter = null;
+    } else {
+      input = counter = new CountingInputStream(input);
+    }
+
+    final ContentDecoder decoder = getContentDecoder(entity);
+    if(null != decoder) {
+      try {
+        input = decoder.decode(input);
+      } catch(IOException error) {
+        AsyncHttpClient.silentCloseInputStream(input);
+        throw error;
+      }
+    }
+
+    final BodyPublisher body =
+      publisher = new BodyPublisher(content, client.getResponseTimeout());
+    final BufferPool pool = ActivityHttpClient.getBufferPool();
+    final byte[] array = pool.acquire(BufferPool.DEFAULT_SIZE);
+    Throwable error;
+    try {
+      response.onSuccess(body, request);
+      error = body.publish(input, ByteBuffer.wrap(array));
+    } catch(RuntimeException failure) {
+      body.abort(failure);
+      error = failure;
+    } finally {
+      AsyncHttpClient.silentCloseInputStream(input);
+      pool.release(array);
+    }
+
+    if(null == error && body.isCancelled()) {
+      // The subscriber gave up halfway, so the body wasn't streamed.
+      onCancel();
+    } else if(null == error) {
+      if(null != counter) {
+        events.responseBodyEnd(counter.count);
+      }
+      future.succeed(body);
+      if(ActivityHttpClient.isDebugging()) {
+        Log.i(
+          ActivityHttpClient.LOG_TAG,
+          "Request streamed for URL: " + request.url
+        );
+      }
+    } else {
+      if(null != events) {
+        events.failed(error);
+      }
+      future.fail(error);
+      if(ActivityHttpClient.isDebugging()) {
+        Log.e(
+          ActivityHttpClient.LOG_TAG,
+          "Request streaming failed for URL: " + request.url,
+          error
+        );
+      }
+    }
+  }
+
+  @Override
+  public void onCancel() {
+    final BodyPublisher body = publisher;
+    if(null != body) {
+      body.abort(new CancellationException("Request cancelled."));
+    }
+    super.onCancel();
+  }
+
+  @Override
+  boolean isHedgeable() {
+    // A body which is being streamed can't be switched over to another.
+    return false;
+  }
+
+  @Override
+  boolean isReplayable() {
+    // The subscriber may have been handed the body already.
+    return false;
+  }
+
+  @Override
+  Flow.Publisher<ByteBuffer> bufferToValue(ResponseBuffer buffer) {
+    // Failures are reported without a body.
+    return null;
+  }
+}
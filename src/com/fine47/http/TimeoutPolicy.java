@@ -0,0 +1,359 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.fine47.http.request.AbstractRequest;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Derives connect and read timeouts from the round-trip times observed on
+ * each type of network (WiFi, mobile or other), rather than using the same
+ * fixed values everywhere. Connect timeouts are tracked per host, and read
+ * timeouts per endpoint (the host followed by the URL's endpoint template),
+ * so slow endpoints don't share the estimate of fast ones on the same host.
+ *
+ * For every key and network type, a smoothed RTT and its variance are
+ * tracked the way TCP does it (RFC 6298), separately for TCP connects and for
+ * the time to first byte. A timeout is then the smoothed RTT plus four times
+ * its variance, kept within the configured bounds. Every time a request
+ * times out, the timeout is doubled until a response arrives in time, and the
+ * elapsed time is fed back into the estimate.
+ *
+ * Timeouts never go below the client's static ones, unless enabled by
+ * {@link #setShorteningTimeouts(boolean)}. Until a key has been sampled, the
+ * client's static timeouts apply.
+ *
+ * At most {@link #MAX_KEYS} hosts, and as many endpoints, are tracked. Once
+ * the limit is reached, new endpoints share the estimate of their host, and
+ * new hosts share the one of {@link RequestMetrics#OTHER}.
+ *
+ * @see ActivityHttpClient#setTimeoutPolicy(TimeoutPolicy)
+ */
+public class TimeoutPolicy extends RequestEventAdapter {
+
+  /**
+   * Default lower bound of connect timeouts, in milliseconds.
+   */
+  public final static int DEFAULT_MIN_CONNECT_TIMEOUT = 2000;
+
+  /**
+   * Default upper bound of connect timeouts, in milliseconds.
+   */
+  public final static int DEFAULT_MAX_CONNECT_TIMEOUT = 20000;
+
+  /**
+   * Default lower bound of read timeouts, in milliseconds.
+   */
+  public final static int DEFAULT_MIN_READ_TIMEOUT = 5000;
+
+  /**
+   * Default upper bound of read timeouts, in milliseconds.
+   */
+  public final static int DEFAULT_MAX_READ_TIMEOUT = 60000;
+
+  /**
+   * Maximum number of distinct hosts, and of distinct endpoints, tracked
+   * across all network types.
+   */
+  public final static int MAX_KEYS = 64;
+
+  private final static int MAX_BACKOFF = 6;
+
+  private final ConcurrentHashMap<String, Estimator> connects =
+    new ConcurrentHashMap();
+  private final ConcurrentHashMap<String, Estimator> hostReads =
+    new ConcurrentHashMap();
+  private final ConcurrentHashMap<String, Estimator> reads =
+    new ConcurrentHashMap();
+
+  private final int minConnectTimeout;
+  private final int maxConnectTimeout;
+  private final int minReadTimeout;
+  private final int maxReadTimeout;
+
+  private ActivityHttpClient client;
+  private volatile boolean isShorteningTimeouts;
+
+  /**
+   * Create a new timeout policy using the default bounds.
+   */
+  public TimeoutPolicy() {
+    this(
+      DEFAULT_MIN_CONNECT_TIMEOUT,
+      DEFAULT_MAX_CONNECT_TIMEOUT,
+      DEFAULT_MIN_READ_TIMEOUT,
+      DEFAULT_MAX_READ_TIMEOUT
+    );
+  }
+
+  /**
+   * Create a new timeout policy using the specified bounds, in milliseconds.
+   *
+   * @param minConnectTimeout lower bound of connect timeouts
+   * @param maxConnectTimeout upper bound of connect timeouts
+   * @param minReadTimeout lower bound of read timeouts
+   * @param maxReadTimeout upper bound of read timeouts
+   */
+  public TimeoutPolicy(
+    int minConnectTimeout,
+    int maxConnectTimeout,
+    int minReadTimeout,
+    int maxReadTimeout
+  ) {
+    if(
+      0 >= minConnectTimeout ||
+      minConnectTimeout > maxConnectTimeout ||
+      0 >= minReadTimeout ||
+      minReadTimeout > maxReadTimeout
+    ) {
+      throw new IllegalArgumentException("Invalid timeout bounds.");
+    }
+    this.minConnectTimeout = minConnectTimeout;
+    this.maxConnectTimeout = maxConnectTimeout;
+    this.minReadTimeout = minReadTimeout;
+    this.maxReadTimeout = maxReadTimeout;
+  }
+
+  /**
+   * Attaches this policy to the client whose network type it follows.
+   *
+   * @param client HTTP client using this policy
+   */
+  void attach(ActivityHttpClient client) {
+    this.client = client;
+  }
+
+  /**
+   * Returns whether timeouts may go below the client's static timeouts.
+   *
+   * @return TRUE if timeouts may be shortened, FALSE otherwise
+   */
+  public boolean isShorteningTimeouts() {
+    return isShorteningTimeouts;
+  }
+
+  /**
+   * Sets whether timeouts may go below the client's static timeouts, down to
+   * the lower bounds of this policy. Disabled by default, as a short timeout
+   * fails every request which is slower than the ones sampled so far.
+   *
+   * @param value TRUE to allow shortening timeouts, FALSE otherwise
+   */
+  public void setShorteningTimeouts(boolean value) {
+    isShorteningTimeouts = value;
+  }
+
+  /**
+   * Returns the connect timeout for the specified host on the current
+   * network.
+   *
+   * @param host host name
+   * @param defaultTimeout timeout to use if the host hasn't been sampled
+   * @return connect timeout in milliseconds
+   */
+  public int getConnectTimeout(String host, int defaultTimeout) {
+    final Estimator estimator = hostEstimatorOf(connects, host, false);
+    return null == estimator
+      ? defaultTimeout
+      : estimator.getTimeout(
+        isShorteningTimeouts
+          ? minConnectTimeout
+          : Math.max(minConnectTimeout, defaultTimeout),
+        maxConnectTimeout
+      );
+  }
+
+  /**
+   * Returns the read timeout for the endpoint of the specified request on
+   * the current network.
+   *
+   * @param request to get the read timeout for
+   * @param defaultTimeout timeout to use if the endpoint hasn't been sampled
+   * @return read timeout in milliseconds
+   */
+  public int getReadTimeout(AbstractRequest request, int defaultTimeout) {
+    final Estimator estimator = readEstimatorOf(request, false);
+    return null == estimator
+      ? defaultTimeout
+      : estimator.getTimeout(
+        isShorteningTimeouts
+          ? minReadTimeout
+          : Math.max(minReadTimeout, defaultTimeout),
+        maxReadTimeout
+      );
+  }
+
+  @Override
+  public void onRequestEnd(RequestEvents events) {
+    final long end = events.getEndNanos();
+    final long headers = events.getResponseHeadersNanos();
+    final long connectStart = events.getConnectStartNanos();
+    final long connectEnd = events.getConnectEndNanos();
+
+    // Back off when the request timed out, and let the estimate grow.
+    if(0 == headers) {
+      if(events.isCancelled()) {
+        return;
+      }
+      if(events.getError() instanceof InterruptedIOException) {
+        if(0 != connectStart && 0 == connectEnd) {
+          hostEstimatorOf(connects, events.request.getHost(), true)
+            .timeout((end - connectStart) / 1000000);
+        } else {
+          readEstimatorOf(events.request, true)
+            .timeout((end - sentOf(events)) / 1000000);
+        }
+      }
+      return;
+    }
+
+    if(0 != connectStart && 0 != connectEnd) {
+      hostEstimatorOf(connects, events.request.getHost(), true)
+        .sample((connectEnd - connectStart) / 1000000);
+    }
+    readEstimatorOf(events.request, true)
+      .sample((headers - sentOf(events)) / 1000000);
+  }
+
+  private static long sentOf(RequestEvents events) {
+    // Measure the first byte from when the request could be sent.
+    if(0 != events.getTlsEndNanos()) {
+      return events.getTlsEndNanos();
+    }
+    if(0 != events.getConnectEndNanos()) {
+      return events.getConnectEndNanos();
+    }
+    return events.getStartNanos();
+  }
+
+  private static String endpointOf(AbstractRequest request) {
+    return request.getHost() + RequestMetrics.getTemplate(request.url);
+  }
+
+  private String keyOf(String host) {
+    final ActivityHttpClient current = client;
+    final String network;
+    if(null == current) {
+      network = "other";
+    } else if(current.isWifi()) {
+      network = "wifi";
+    } else if(current.isMobile()) {
+      network = "mobile";
+    } else {
+      network = "other";
+    }
+    return network + '|' + host;
+  }
+
+  private Estimator readEstimatorOf(
+    AbstractRequest request,
+    boolean isCreating
+  ) {
+    final String key = keyOf(endpointOf(request));
+    if(MAX_KEYS > reads.size() || reads.containsKey(key)) {
+      return estimatorOf(reads, key, isCreating);
+    }
+
+    // Too many endpoints, so fall back to the host's estimate.
+    return hostEstimatorOf(hostReads, request.getHost(), isCreating);
+  }
+
+  private Estimator hostEstimatorOf(
+    ConcurrentHashMap<String, Estimator> map,
+    String host,
+    boolean isCreating
+  ) {
+    String key = keyOf(host);
+    if(MAX_KEYS <= map.size() && !map.containsKey(key)) {
+      key = keyOf(RequestMetrics.OTHER);
+    }
+    return estimatorOf(map, key, isCreating);
+  }
+
+  private static Estimator estimatorOf(
+    ConcurrentHashMap<String, Estimator> map,
+    String key,
+    boolean isCreating
+  ) {
+    Estimator estimator = map.get(key);
+    if(null == estimator && isCreating) {
+      estimator = new Estimator();
+      final Estimator current = map.putIfAbsent(key, estimator);
+      if(null != current) {
+        estimator = current;
+      }
+    }
+    return estimator;
+  }
+
+  /**
+   * Smoothed RTT estimator as per RFC 6298, in milliseconds.
+   */
+  private final static class Estimator {
+
+    private double srtt;
+    private double rttvar;
+    private boolean isSampled;
+    private int backoff;
+
+    synchronized void sample(long rtt) {
+      if(0 > rtt) {
+        return;
+      }
+      backoff = 0;
+      update(rtt);
+    }
+
+    synchronized void timeout(long elapsed) {
+      // The RTT is at least as long as the time waited for it.
+      if(0 <= elapsed && (!isSampled || elapsed > srtt)) {
+        update(elapsed);
+      }
+      if(MAX_BACKOFF > backoff) {
+        backoff++;
+      }
+    }
+
+    synchronized int getTimeout(int min, int max) {
+      final long timeout = Math.round((srtt + 4 * rttvar) * (1 << backoff));
+      return (int)Math.max(min, Math.min(max, timeout));
+    }
+
+    private void update(long rtt) {
+      if(isSampled) {
+        rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+        srtt = 0.875 * srtt + 0.125 * rtt;
+      } else {
+        srtt = rtt;
+        rttvar = rtt / 2.0;
+        isSampled = true;
+      }
+    }
+  }
+}
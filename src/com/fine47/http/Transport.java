@@ -0,0 +1,82 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import com.loopj.android.http.AsyncHttpRequest;
+import com.loopj.android.http.ResponseHandlerInterface;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * An engine which carries out requests over the network. The client builds
+ * each request, headers and body included, and hands it to its transport,
+ * which returns a task to be run on the client's thread pool. The task must
+ * report the request's life-cycle and response to the response handler the
+ * same way {@link AsyncHttpRequest} does.
+ *
+ * @see ActivityHttpClient#setTransport(Transport)
+ */
+public interface Transport {
+
+  /**
+   * The default engine, which uses the client's Apache HTTP client over
+   * HTTP/1.1.
+   */
+  public final static Transport DEFAULT = new Transport() {
+
+    @Override
+    public AsyncHttpRequest newRequest(
+      ActivityHttpClient client,
+      DefaultHttpClient httpClient,
+      HttpContext httpContext,
+      HttpUriRequest uriRequest,
+      ResponseHandlerInterface handler
+    ) {
+      return new AsyncHttpRequest(httpClient, httpContext, uriRequest, handler);
+    }
+  };
+
+  /**
+   * Returns a task which carries out the specified request.
+   *
+   * @param client client which dispatched the request
+   * @param httpClient the client's Apache HTTP client
+   * @param httpContext the client's HTTP context
+   * @param uriRequest request to carry out
+   * @param handler handler to report the response to
+   * @return task to run on the client's thread pool
+   */
+  public AsyncHttpRequest newRequest(
+    ActivityHttpClient client,
+    DefaultHttpClient httpClient,
+    HttpContext httpContext,
+    HttpUriRequest uriRequest,
+    ResponseHandlerInterface handler
+  );
+}
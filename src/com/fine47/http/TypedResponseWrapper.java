@@ -0,0 +1,93 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http;
+
+import android.util.JsonReader;
+import android.util.Log;
+import com.fine47.http.request.AbstractRequest;
+import com.fine47.http.response.TypedResponse;
+import com.loopj.android.http.RequestParams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+
+class TypedResponseWrapper<E, M> extends AbstractResponseWrapper<E, M> {
+
+  private final JsonBinder<E> binder;
+
+  public TypedResponseWrapper(
+    AbstractRequest<M> request,
+    TypedResponse<E, M> response
+  ) {
+    super(new String[] {RequestParams.APPLICATION_JSON}, request, response);
+    binder = JsonBinder.forClass(response.getType());
+  }
+
+  @Override
+  E bufferToValue(ResponseBuffer buffer) {
+    // Bind straight from the pooled buffer, no copy or JSON tree involved.
+    JsonReader json = null;
+    try {
+      json = new JsonReader(new InputStreamReader(
+        new ByteArrayInputStream(buffer.array(), 0, buffer.length()),
+        "UTF-8"
+      ));
+      return binder.read(json);
+    } catch(UnsupportedEncodingException error) {
+      throw new IllegalStateException(error);
+    } catch(IOException error) {
+      logError(error);
+    } catch(IllegalStateException error) {
+      // Thrown by the JSON reader when the JSON doesn't match the model.
+      logError(error);
+    } catch(IllegalArgumentException error) {
+      // Thrown by the JSON reader for fractional or overflowing numbers
+      // (NumberFormatException), and when filling arrays of the model.
+      logError(error);
+    } finally {
+      if(null != json) {
+        try {
+          json.close();
+        } catch(IOException ignored) {
+        }
+      }
+    }
+    return null;
+  }
+
+  private void logError(Exception error) {
+    if(ActivityHttpClient.isDebugging()) {
+      Log.e(
+        ActivityHttpClient.LOG_TAG,
+        "Unable to bind JSON response for URL: " + request.url,
+        error
+      );
+    }
+  }
+}
@@ -32,6 +32,7 @@ import com.fine47.http.ActivityHttpClient;
 import com.loopj.android.http.AsyncHttpClient;
 import com.loopj.android.http.RequestParams;
 import java.util.ArrayList;
+import java.util.Locale;
 import java.util.Map;
 import org.apache.http.Header;
 import org.apache.http.message.BasicHeader;
@@ -47,6 +48,23 @@ public class AbstractRequest<M> extends RequestParams {
     HEAD, GET, POST, PUT, PATCH, DELETE
   };
 
+  /**
+   * Priority of requests which can wait for others.
+   */
+  public final static int PRIORITY_LOW = -10;
+
+  /**
+   * Default priority of requests.
+   */
+  public final static int PRIORITY_NORMAL = 0;
+
+  /**
+   * Priority of requests which the user is waiting for.
+   */
+  public final static int PRIORITY_HIGH = 10;
+
+  private final static Header[] NO_HEADERS = new Header[0];
+
   /**
    * The request's end-point URL.
    */
@@ -67,6 +85,15 @@ public class AbstractRequest<M> extends RequestParams {
    */
   public final String contentType;
 
+  private String acceptEncoding;
+  private String host;
+  private int priority = PRIORITY_NORMAL;
+  private long maxDelay;
+  private String[] tags;
+  private Header[] headerArray = NO_HEADERS;
+  private Header encodingHeader;
+  private Header[] mergedArray = NO_HEADERS;
+
   /**
    * Create a new request for the specified end-point URL. No content type will
    * be sent.
@@ -114,12 +141,9 @@ public class AbstractRequest<M> extends RequestParams {
     this.metaData = metaData;
     this.contentType = contentType;
 
-    // Add a header to signal that we can decode GZIP data.
+    // The "Accept-Encoding" header is added by the client upon dispatch,
+    // based on the content decoders it supports, unless added here.
     headers = new ArrayList();
-    headers.add(new BasicHeader(
-      AsyncHttpClient.HEADER_ACCEPT_ENCODING,
-      AsyncHttpClient.ENCODING_GZIP)
-    );
 
     if(ActivityHttpClient.isDebugging()) {
       Log.d(ActivityHttpClient.LOG_TAG, "Request: " + this);
@@ -155,6 +179,161 @@ public class AbstractRequest<M> extends RequestParams {
     return addHeader(new BasicHeader(name, value));
   }
 
+  /**
+   * Returns the host name of the request's end-point URL, in lower case.
+   *
+   * @return host name, an empty string if the URL has none
+   */
+  public String getHost() {
+    if(null == host) {
+      host = getHost(url);
+    }
+    return host;
+  }
+
+  /**
+   * Returns the host name of the specified URL, in lower case.
+   *
+   * @param url to extract the host name from
+   * @return host name, an empty string if the URL has none
+   */
+  public static String getHost(String url) {
+    final int scheme = url.indexOf("://");
+    int start = -1 == scheme ? 0 : scheme + 3;
+    int end = start;
+    final int length = url.length();
+    while(end < length) {
+      final char ch = url.charAt(end);
+      if('/' == ch || '?' == ch || '#' == ch) {
+        break;
+      }
+      if('@' == ch) {
+        // Skip user information.
+        start = end + 1;
+      }
+      end++;
+    }
+    int port = url.lastIndexOf(':', end - 1);
+    if(port < start || (0 < end && ']' == url.charAt(end - 1))) {
+      port = end;
+    }
+    return url.substring(start, port).toLowerCase(Locale.US);
+  }
+
+  /**
+   * Returns the content codings which this request accepts for its response.
+   *
+   * @return value of the "Accept-Encoding" header, NULL for client's default
+   */
+  public String getAcceptEncoding() {
+    return acceptEncoding;
+  }
+
+  /**
+   * Sets the content codings which this request accepts for its response,
+   * overriding the ones negotiated by the client (ex. "gzip" to disable any
+   * other codings for this request).
+   *
+   * @param value of the "Accept-Encoding" header, NULL for client's default
+   * @return "this" request, suitable for chaining
+   */
+  public AbstractRequest setAcceptEncoding(String value) {
+    acceptEncoding = value;
+    encodingHeader = null == value
+      ? null
+      : new BasicHeader(AsyncHttpClient.HEADER_ACCEPT_ENCODING, value);
+    return this;
+  }
+
+  /**
+   * Returns the priority of this request. Queued requests having a higher
+   * priority are sent first.
+   *
+   * @return priority of this request
+   */
+  public int getPriority() {
+    return priority;
+  }
+
+  /**
+   * Sets the priority of this request. To change it after the request has
+   * been dispatched, use {@link com.fine47.http.RequestFuture#setPriority}.
+   *
+   * @param priority of this request, ex. {@link #PRIORITY_HIGH}
+   * @return "this" request, suitable for chaining
+   */
+  public AbstractRequest setPriority(int priority) {
+    this.priority = priority;
+    return this;
+  }
+
+  /**
+   * Returns how long this request may be held back on mobile networks.
+   *
+   * @return maximum delay in milliseconds, zero if the request is sent right
+   * away
+   */
+  public long getMaxDelay() {
+    return maxDelay;
+  }
+
+  /**
+   * Makes this request deferrable: on mobile networks, it's held back for up
+   * to the specified delay and sent along with other requests, rather than
+   * waking up the radio on its own. Suitable for analytics and prefetching.
+   * Identical JSON GET requests which are coalesced with a deferred one are
+   * held back along with it.
+   *
+   * @param maxDelay maximum delay in milliseconds, zero to send the request
+   * right away
+   * @return "this" request, suitable for chaining
+   * @see com.fine47.http.ActivityHttpClient#flushDeferredRequests()
+   */
+  public AbstractRequest setMaxDelay(long maxDelay) {
+    if(0 > maxDelay) {
+      throw new IllegalArgumentException("Invalid delay parameters.");
+    }
+    this.maxDelay = maxDelay;
+    return this;
+  }
+
+  /**
+   * Adds the specified tag to this request, so it can be cancelled along
+   * with all other requests having the same tag.
+   *
+   * @param tag to add, ex. the name of a feed
+   * @return "this" request, suitable for chaining
+   * @see com.fine47.http.ActivityHttpClient#cancelGroup(String, boolean)
+   */
+  public AbstractRequest addTag(String tag) {
+    if(null == tag) {
+      throw new IllegalArgumentException("Invalid tag parameters.");
+    }
+    if(null == tags) {
+      tags = new String[] {tag};
+    } else {
+      for(final String current : tags) {
+        if(current.equals(tag)) {
+          return this;
+        }
+      }
+      final String[] larger = new String[tags.length + 1];
+      System.arraycopy(tags, 0, larger, 0, tags.length);
+      larger[tags.length] = tag;
+      tags = larger;
+    }
+    return this;
+  }
+
+  /**
+   * Returns the tags of this request.
+   *
+   * @return tags of this request, NULL if it has none
+   */
+  public String[] getTags() {
+    return null == tags ? null : tags.clone();
+  }
+
   /**
    * Checks whether the request includes files as well.
    *
@@ -182,15 +361,135 @@ public class AbstractRequest<M> extends RequestParams {
     return urlParams.isEmpty() ? null : urlParams;
   }
 
+  /**
+   * Checks whether the request includes any parameters, files or streams.
+   *
+   * @return TRUE if the request has parameters, FALSE otherwise
+   */
+  public boolean hasParameters() {
+    return !urlParams.isEmpty() ||
+      !urlParamsWithObjects.isEmpty() ||
+      !fileParams.isEmpty() ||
+      !streamParams.isEmpty();
+  }
+
+  /**
+   * Checks whether the request can be sent more than once, which isn't the
+   * case when it includes streams, as they are consumed when sent.
+   *
+   * @return TRUE if the request can be sent again, FALSE otherwise
+   */
+  public boolean isRepeatable() {
+    return streamParams.isEmpty();
+  }
+
   /**
    * Returns a list of all headers that are supposed to be sent with this
-   * request.
+   * request. The list is built once and shared among calls as long as the
+   * headers don't change, so it must not be modified.
    *
    * @return list of all headers
    */
   public Header[] getHeaders() {
-    Header[] httpHeaders = new Header[headers.size()];
-    headers.toArray(httpHeaders);
+    Header[] httpHeaders = headerArray;
+    if(!isCurrent(httpHeaders)) {
+      httpHeaders = headers.isEmpty()
+        ? NO_HEADERS
+        : headers.toArray(new Header[headers.size()]);
+      headerArray = httpHeaders;
+    }
     return httpHeaders;
   }
+
+  /**
+   * Returns a list of all headers that are supposed to be sent with this
+   * request, followed by its "Accept-Encoding" header: the one set on this
+   * request, or the specified default one. None is added when the headers
+   * already include one. The list is built once and shared among calls as
+   * long as neither changes, so it must not be modified.
+   *
+   * @param defaultEncoding "Accept-Encoding" header of the client
+   * @return list of all headers
+   */
+  public Header[] getHeaders(Header defaultEncoding) {
+    final Header[] httpHeaders = getHeaders();
+    final String name = AsyncHttpClient.HEADER_ACCEPT_ENCODING;
+    for(final Header header : httpHeaders) {
+      if(name.equalsIgnoreCase(header.getName())) {
+        return httpHeaders;
+      }
+    }
+
+    final Header encoding =
+      null == encodingHeader ? defaultEncoding : encodingHeader;
+    Header[] merged = mergedArray;
+    if(!isMerged(merged, httpHeaders, encoding)) {
+      merged = new Header[httpHeaders.length + 1];
+      System.arraycopy(httpHeaders, 0, merged, 0, httpHeaders.length);
+      merged[httpHeaders.length] = encoding;
+      mergedArray = merged;
+    }
+    return merged;
+  }
+
+  private static boolean isMerged(
+    Header[] merged,
+    Header[] httpHeaders,
+    Header encoding
+  ) {
+    final int size = httpHeaders.length;
+    if(size + 1 != merged.length || encoding != merged[size]) {
+      return false;
+    }
+    for(int index = 0; index < size; index++) {
+      if(httpHeaders[index] != merged[index]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isCurrent(Header[] httpHeaders) {
+    // The list is public, so it's compared rather than trusting addHeader()
+    // to be the only way it changes.
+    final int size = headers.size();
+    if(size != httpHeaders.length) {
+      return false;
+    }
+    for(int index = 0; index < size; index++) {
+      if(headers.get(index) != httpHeaders[index]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a key which identifies this request's URL, parameters and headers.
+   * Two requests having the same fingerprint are expected to yield the same
+   * response when dispatched using the same method.
+   *
+   * @return fingerprint of this request
+   */
+  public String getFingerprint() {
+    final boolean hasParameters = hasParameters();
+    if(!hasParameters && headers.isEmpty()) {
+      return url;
+    }
+    final StringBuilder fingerprint = new StringBuilder(url);
+    if(hasParameters) {
+      final String params = getParamString();
+      if(null != params && 0 < params.length()) {
+        fingerprint.append('?').append(params);
+      }
+    }
+    for(final Header header : headers) {
+      fingerprint
+        .append('\n')
+        .append(header.getName())
+        .append(':')
+        .append(header.getValue());
+    }
+    return fingerprint.toString();
+  }
 }
@@ -0,0 +1,111 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http.response;
+
+/**
+ * Interfaces of a flow of items which a publisher emits only as fast as its
+ * subscriber asks for them. They mirror those of the Reactive Streams
+ * specification, which Android doesn't bundle, so adapting them to any
+ * implementation of it is straightforward.
+ */
+public final class Flow {
+
+  private Flow() {
+  }
+
+  /**
+   * A producer of items which are received by a subscriber.
+   *
+   * @param <T> type of items
+   */
+  public interface Publisher<T> {
+
+    /**
+     * Adds the specified subscriber. If it can't be added, it receives an
+     * {@link Subscriber#onError(Throwable)} right after subscribing.
+     *
+     * @param subscriber to receive the items
+     */
+    public void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * A receiver of items. Its methods are called in sequence, never at the
+   * same time.
+   *
+   * @param <T> type of items
+   */
+  public interface Subscriber<T> {
+
+    /**
+     * Called once before any other method, with the subscription which the
+     * subscriber uses to ask for items.
+     *
+     * @param subscription of this subscriber
+     */
+    public void onSubscribe(Subscription subscription);
+
+    /**
+     * Called with the next item, once per item which was asked for.
+     *
+     * @param item next item
+     */
+    public void onNext(T item);
+
+    /**
+     * Called once no more items will be received due to an error.
+     *
+     * @param error which ended the flow
+     */
+    public void onError(Throwable error);
+
+    /**
+     * Called once all items have been received.
+     */
+    public void onComplete();
+  }
+
+  /**
+   * The link between a publisher and its subscriber.
+   */
+  public interface Subscription {
+
+    /**
+     * Asks for the specified number of further items.
+     *
+     * @param count number of items, must be positive
+     */
+    public void request(long count);
+
+    /**
+     * Stops the flow of items, which may still receive a few items sent
+     * before it was stopped.
+     */
+    public void cancel();
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * This file is part of HTTP Client library.
+ * Copyright (C) 2014 Noor Dawod. All rights reserved.
+ * https://github.com/noordawod/http-client
+ *
+ * Released under the MIT license
+ * http://en.wikipedia.org/wiki/MIT_License
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.fine47.http.response;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A handler which receives response bodies as a flow of chunks, which arrive
+ * only as fast as the subscriber asks for them. Reading from the network
+ * pauses while the subscriber isn't asking, so bodies of any size can be
+ * processed in constant memory.
+ *
+ * The publisher must be subscribed to in {@link #onSuccess}, or shortly after
+ * it returns; otherwise the body is dropped. Each chunk is only valid during
+ * {@link Flow.Subscriber#onNext(Object)}, as its buffer is reused for the
+ * next chunk. Failures are reported without a body.
+ *
+ * @param <M> meta-data type which could be accompanying the request
+ */
+public interface StreamResponse<M>
+  extends AbstractResponse<Flow.Publisher<ByteBuffer>, M>
+{
+
+}